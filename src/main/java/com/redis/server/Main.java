@@ -1,6 +1,9 @@
 package com.redis.server;
 
+import com.redis.server.logging.Log;
+import com.redis.server.logging.LogLevel;
 import com.redis.server.model.ServerConfig;
+import com.redis.server.storage.MaxmemoryPolicy;
 
 public class Main {
     public static void main(String[] args) {
@@ -11,6 +14,16 @@ public class Main {
         boolean isReplica = false;
         String dir = null;
         String dbfilename = null;
+        String ioMode = RedisConstants.IO_MODE_THREADS;
+        int ioThreads = RedisConstants.DEFAULT_IO_THREADS;
+        int shards = RedisConstants.DEFAULT_SHARDS;
+        LogLevel logLevel = LogLevel.NOTICE;
+        String logFile = null;
+        long maxmemory = 0;
+        String maxmemoryPolicy = RedisConstants.DEFAULT_MAXMEMORY_POLICY;
+        int maxmemorySamples = RedisConstants.DEFAULT_MAXMEMORY_SAMPLES;
+        int databases = RedisConstants.DEFAULT_DATABASES;
+        long offHeapThreshold = RedisConstants.DEFAULT_OFFHEAP_THRESHOLD;
 
         for (int i = 0; i < len; i++) {
             switch (args[i]) {
@@ -46,11 +59,116 @@ public class Main {
                         i++;
                     }
                     break;
+
+                case RedisConstants.IO_MODE_ARG:
+                    if (i + 1 < len) {
+                        ioMode = args[i + 1].toLowerCase();
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.IO_THREADS_ARG:
+                    if (i + 1 < len) {
+                        ioThreads = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.SHARDS_ARG:
+                    if (i + 1 < len) {
+                        shards = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.LOGLEVEL_ARG:
+                    if (i + 1 < len) {
+                        LogLevel level = LogLevel.fromName(args[i + 1]);
+                        if (level != null) {
+                            logLevel = level;
+                        } else {
+                            Log.warning("Invalid log level '{}', using {}", args[i + 1], logLevel.getConfigName());
+                        }
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.LOGFILE_ARG:
+                    if (i + 1 < len) {
+                        logFile = args[i + 1];
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.MAXMEMORY_ARG:
+                    if (i + 1 < len) {
+                        maxmemory = parseMemory(args[i + 1]);
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.MAXMEMORY_POLICY_ARG:
+                    if (i + 1 < len) {
+                        MaxmemoryPolicy policy = MaxmemoryPolicy.fromName(args[i + 1]);
+                        if (policy != null) {
+                            maxmemoryPolicy = policy.getConfigName();
+                        } else {
+                            Log.warning("Invalid maxmemory policy '{}', using {}", args[i + 1], maxmemoryPolicy);
+                        }
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.MAXMEMORY_SAMPLES_ARG:
+                    if (i + 1 < len) {
+                        maxmemorySamples = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.DATABASES_ARG:
+                    if (i + 1 < len) {
+                        databases = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;
+                    }
+                    break;
+
+                case RedisConstants.OFFHEAP_THRESHOLD_ARG:
+                    if (i + 1 < len) {
+                        offHeapThreshold = parseMemory(args[i + 1]);
+                        i++;
+                    }
+                    break;
             }
         }
 
+        Log.configure(logLevel, logFile, isReplica);
+
         ServerConfig serverConfig = new ServerConfig(port, isReplica, masterHost, masterPort, dir, dbfilename);
+        serverConfig.setIoMode(ioMode);
+        serverConfig.setIoThreads(ioThreads);
+        serverConfig.setShards(shards);
+        serverConfig.setMaxmemory(maxmemory);
+        serverConfig.setMaxmemoryPolicy(maxmemoryPolicy);
+        serverConfig.setMaxmemorySamples(maxmemorySamples);
+        serverConfig.setDatabases(databases);
+        serverConfig.setOffHeapThreshold(offHeapThreshold);
+
         RedisServer server = new RedisServer(serverConfig);
         server.start();
     }
+
+    // Redis memory units: 100, 1k = 1000, 1kb = 1024, and likewise m/mb and g/gb
+    private static long parseMemory(String value) {
+        String[] suffixes = {"gb", "mb", "kb", "g", "m", "k", "b"};
+        long[] units = {1L << 30, 1L << 20, 1L << 10, 1_000_000_000L, 1_000_000L, 1_000L, 1};
+
+        String lower = value.trim().toLowerCase();
+        for (int i = 0; i < suffixes.length; i++) {
+            if (lower.endsWith(suffixes[i])) {
+                return Long.parseLong(lower.substring(0, lower.length() - suffixes[i].length())) * units[i];
+            }
+        }
+        return Long.parseLong(lower);
+    }
 }
\ No newline at end of file
@@ -6,9 +6,70 @@ public class RedisConstants {
     public static final String IS_REPLICA_OF_ARG = "--replicaof";
     public static final String DIR_ARG = "--dir";
     public static final String DB_FILENAME_ARG = "--dbfilename";
+    public static final String IO_MODE_ARG = "--io-mode";
+    public static final String IO_THREADS_ARG = "--io-threads";
+    public static final String SHARDS_ARG = "--shards";
+    public static final String LOGLEVEL_ARG = "--loglevel";
+    public static final String LOGFILE_ARG = "--logfile";
+    public static final String MAXMEMORY_ARG = "--maxmemory";
+    public static final String MAXMEMORY_POLICY_ARG = "--maxmemory-policy";
+    public static final String MAXMEMORY_SAMPLES_ARG = "--maxmemory-samples";
+    public static final String DATABASES_ARG = "--databases";
+    public static final String OFFHEAP_THRESHOLD_ARG = "--offheap-threshold";
 
-    public static final long TIMEOUT_CHECK_INTERVAL = 50; // ms
-    public static final int BLOCKED_CLIENTS_INITIAL_CAPACITY = 5;
+    // Connection handling modes
+    public static final String IO_MODE_THREADS = "threads";
+    public static final String IO_MODE_REACTOR = "reactor";
+    public static final String IO_MODE_VIRTUAL = "virtual";
+    public static final int TCP_BACKLOG = 511;
+    public static final int DEFAULT_IO_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    public static final int READ_BUFFER_SIZE = 16 * 1024;
+    public static final int MAX_QUERY_BUFFER_SIZE = 1024 * 1024 * 1024;
+    public static final int MAX_MULTIBULK_LENGTH = 1024 * 1024;
+    public static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+    // Digits a multibulk or bulk length may have: enough for any valid one, too few for a long to overflow
+    public static final int MAX_LENGTH_DIGITS = 18;
+    public static final int WRITE_BUFFER_SIZE = 16 * 1024;
+    public static final int DEFAULT_SHARDS = 1;
+    public static final int DEFAULT_DATABASES = 16;
+
+    // Logging
+    public static final int LOG_BUFFER_CAPACITY = 8192; // power of two
+    public static final long LOG_WRITER_IDLE_WAIT = 100; // ms
+    public static final long LOG_SHUTDOWN_WAIT = 1000; // ms
+
+    // Active expiry, as in Redis: every 100ms each shard spends at most 25% of the interval sampling
+    // 20 keys with a TTL at a time, and repeats while more than 10% of a sample had expired
+    public static final long ACTIVE_EXPIRE_INTERVAL = 100; // ms
+    public static final long ACTIVE_EXPIRE_CYCLE_BUDGET = 25; // ms
+    public static final int ACTIVE_EXPIRE_KEYS_PER_LOOP = 20;
+    public static final int ACTIVE_EXPIRE_ACCEPTABLE_STALE = 10; // percent
+    public static final int EXPIRE_INDEX_INITIAL_CAPACITY = 16;
+    public static final int KEYSPACE_INITIAL_CAPACITY = 16; // power of two
+    public static final int SCAN_DEFAULT_COUNT = 10;
+    // Eviction, as in Redis: sample 5 keys per round into a pool of 16 candidates. The LFU counter
+    // starts at 5, grows logarithmically (factor 10) and loses one per idle minute.
+    public static final String DEFAULT_MAXMEMORY_POLICY = "noeviction";
+    public static final int DEFAULT_MAXMEMORY_SAMPLES = 5;
+    public static final int EVICTION_POOL_SIZE = 16;
+    public static final int MEMORY_ESTIMATE_SAMPLES = 5; // collection elements costed per estimate
+    public static final int LFU_INIT_VAL = 5;
+    public static final int LFU_LOG_FACTOR = 10;
+    public static final int LFU_DECAY_TIME = 1; // minutes
+    // Off-heap strings: values of at least offheap-threshold bytes (0 keeps everything on heap) go to
+    // 1 MiB slabs in size classes from 16 bytes to 256 KiB; bigger ones get a segment of their own
+    public static final long DEFAULT_OFFHEAP_THRESHOLD = 0;
+    public static final int SLAB_SIZE = 1024 * 1024;
+    public static final int SLAB_MIN_CLASS = 16;
+    public static final int SLAB_MAX_CLASS = 256 * 1024;
+    // List nodes pack elements into arrays of up to 8 KiB, as Redis' list-max-listpack-size -2; a new
+    // node starts small and doubles
+    public static final int QUICKLIST_NODE_SIZE = 8 * 1024;
+    public static final int QUICKLIST_NODE_INITIAL_SIZE = 64;
+
+    // Integers 0..SHARED_INTEGERS-1 are served from pre-built ByteStrings and integer replies instead of
+    // being formatted
+    public static final int SHARED_INTEGERS = 10000;
 
     // RESP Protocol constants
     public static final String CRLF = "\r\n";
@@ -18,12 +79,23 @@ public class RedisConstants {
     public static final String BULK_STRING_PREFIX = "$";
     public static final String ARRAY_PREFIX = "*";
     public static final String NULL_BULK_STRING = "$-1\r\n";
+    public static final String NULL_ARRAY = "*-1\r\n";
 
     // Commands
     public static final String PING = "PING";
     public static final String ECHO = "ECHO";
     public static final String SET = "SET";
     public static final String GET = "GET";
+    //Expiry
+    public static final String EXPIRE = "EXPIRE";
+    public static final String PEXPIRE = "PEXPIRE";
+    public static final String EXPIREAT = "EXPIREAT";
+    public static final String PEXPIREAT = "PEXPIREAT";
+    public static final String EXPIRETIME = "EXPIRETIME";
+    public static final String PEXPIRETIME = "PEXPIRETIME";
+    public static final String TTL = "TTL";
+    public static final String PTTL = "PTTL";
+    public static final String PERSIST = "PERSIST";
     //Lists
     public static final String RPUSH = "RPUSH";
     public static final String LPUSH = "LPUSH";
@@ -31,13 +103,38 @@ public class RedisConstants {
     public static final String LLEN = "LLEN";
     public static final String LPOP = "LPOP";
     public static final String BLPOP = "BLPOP";
+    public static final String RPOP = "RPOP";
+    public static final String BRPOP = "BRPOP";
+    public static final String BLMOVE = "BLMOVE";
+    public static final String BRPOPLPUSH = "BRPOPLPUSH";
+    public static final String LINDEX = "LINDEX";
+    public static final String LSET = "LSET";
+    public static final String LINSERT = "LINSERT";
+    public static final String LTRIM = "LTRIM";
+    public static final String LREM = "LREM";
+    public static final String LPOS = "LPOS";
+    public static final String LMOVE = "LMOVE";
+    public static final String RPOPLPUSH = "RPOPLPUSH";
+    public static final String LPUSHX = "LPUSHX";
+    public static final String RPUSHX = "RPUSHX";
+    public static final String BEFORE = "BEFORE";
+    public static final String AFTER = "AFTER";
+    public static final String LEFT = "LEFT";
+    public static final String RIGHT = "RIGHT";
+    public static final String RANK = "RANK";
+    public static final String MAXLEN = "MAXLEN";
     //Streams
     public static final String TYPE = "TYPE";
     public static final String XADD = "XADD";
     public static final String XRANGE = "XRANGE";
     public static final String XREAD = "XREAD";
-    //Transaction
+    //Counters
     public static final String INCR = "INCR";
+    public static final String INCRBY = "INCRBY";
+    public static final String DECR = "DECR";
+    public static final String DECRBY = "DECRBY";
+    public static final String INCRBYFLOAT = "INCRBYFLOAT";
+    //Transaction
     public static final String MULTI = "MULTI";
     public static final String EXEC = "EXEC";
     public static final String DISCARD = "DISCARD";
@@ -50,8 +147,6 @@ public class RedisConstants {
     public static final String GETACK = "GETACK";
     public static final String ACK = "ACK";
     public static final String WAIT = "WAIT";
-    public static final int GETACK_COMMAND_BYTE_SIZE = 37;
-    public static final int PING_COMMAND_BYTE_SIZE = 14;
     // Sorted Sets
     public static final String ZADD = "ZADD";
     public static final String ZRANK = "ZRANK";
@@ -67,10 +162,34 @@ public class RedisConstants {
     // RDB Persistence
     public static final String CONFIG = "CONFIG";
     public static final String KEYS = "KEYS";
+    public static final String SCAN = "SCAN";
+    public static final String MATCH = "MATCH";
+    public static final String COUNT = "COUNT";
+    public static final String DEL = "DEL";
+    public static final String UNLINK = "UNLINK";
+    public static final String COMMAND = "COMMAND";
+    // Memory
+    public static final String MEMORY = "MEMORY";
+    public static final String USAGE = "USAGE";
+    public static final String STATS = "STATS";
+    public static final String SAMPLES = "SAMPLES";
+    // Databases
+    public static final String SELECT = "SELECT";
+    public static final String MOVE = "MOVE";
+    public static final String SWAPDB = "SWAPDB";
+    public static final String FLUSHDB = "FLUSHDB";
+    public static final String FLUSHALL = "FLUSHALL";
+    public static final String ASYNC = "ASYNC";
+    public static final String SYNC = "SYNC";
+    // Sorted set scores
+    public static final String INF = "inf";
+    public static final String POSITIVE_INF = "+inf";
+    public static final String NEGATIVE_INF = "-inf";
 
     // Response messages
     public static final String PONG = "PONG";
     public static final String OK = "OK";
+    public static final String QUEUED = "QUEUED";
     public static final String NONE_TYPE = "none";
     public static final String STRING_TYPE = "string";
 
@@ -78,4 +197,32 @@ public class RedisConstants {
     public static final String ERR_UNKNOWN_COMMAND = "ERR unknown command";
     public static final String ERR_WRONG_NUMBER_ARGS = "ERR wrong number of arguments for";
     public static final String ERR_CAN_NOT_EXECUTE = "ERR Can't execute";
+    public static final String ERR_NOT_ALLOWED_IN_MULTI = "ERR Command not allowed inside a transaction";
+    public static final String ERR_SYNTAX = "ERR syntax error";
+    public static final String ERR_NOT_INTEGER = "ERR value is not an integer or out of range";
+    public static final String ERR_NOT_FLOAT = "ERR value is not a valid float";
+    public static final String ERR_OVERFLOW = "ERR increment or decrement would overflow";
+    public static final String ERR_DECREMENT_OVERFLOW = "ERR decrement would overflow";
+    public static final String ERR_NAN_OR_INFINITY = "ERR increment would produce NaN or Infinity";
+    public static final String ERR_INVALID_EXPIRE = "ERR invalid expire time in";
+    public static final String ERR_OOM = "OOM command not allowed when used memory > 'maxmemory'.";
+    public static final String ERR_WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+    public static final String ERR_INVALID_CURSOR = "ERR invalid cursor";
+    public static final String ERR_UNKNOWN_TYPE = "ERR unknown type name";
+    public static final String ERR_UNKNOWN_SUBCOMMAND = "ERR unknown subcommand";
+    public static final String ERR_DB_INDEX_OUT_OF_RANGE = "ERR DB index is out of range";
+    public static final String ERR_INDEX_OUT_OF_RANGE = "ERR index out of range";
+    public static final String ERR_INVALID_FIRST_DB = "ERR invalid first DB index";
+    public static final String ERR_INVALID_SECOND_DB = "ERR invalid second DB index";
+    public static final String ERR_SAME_OBJECT = "ERR source and destination objects are the same";
+    public static final String ERR_NO_SUCH_KEY = "ERR no such key";
+    public static final String ERR_NOT_POSITIVE = "ERR value is out of range, must be positive";
+    public static final String ERR_RANK_ZERO = "ERR RANK can't be zero: use 1 to start from the first match, 2 from the second ... or use negative to start from the end of the list";
+    public static final String ERR_COUNT_NEGATIVE = "ERR COUNT can't be negative";
+    public static final String ERR_MAXLEN_NEGATIVE = "ERR MAXLEN can't be negative";
+    public static final String ERR_TIMEOUT_NOT_FLOAT = "ERR timeout is not a float or out of range";
+    public static final String ERR_TIMEOUT_NOT_INTEGER = "ERR timeout is not an integer or out of range";
+    public static final String ERR_TIMEOUT_NEGATIVE = "ERR timeout is negative";
+    public static final String ERR_INTERNAL = "ERR internal error while executing the command";
+    public static final String ERR_CROSSSLOT = "CROSSSLOT Keys in request don't hash to the same slot";
 }
@@ -1,73 +1,109 @@
 package com.redis.server;
 
-import com.redis.server.blocking.BlockingOperationsManager;
 import com.redis.server.client.ClientHandler;
 import com.redis.server.command.CommandProcessor;
+import com.redis.server.command.Shard;
+import com.redis.server.logging.Log;
 import com.redis.server.model.ServerConfig;
+import com.redis.server.network.Reactor;
 import com.redis.server.rdb.RdbParser;
 import com.redis.server.replication.ReplicaConnectionManager;
-import com.redis.server.storage.DataStore;
+import com.redis.server.storage.ChannelRegistry;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 public class RedisServer {
     private final ServerConfig serverConfig;
-    private final DataStore dataStore;
-    private final BlockingOperationsManager blockingManager;
+    private final Shard[] shards;
     private final CommandProcessor commandProcessor;
     private ReplicaConnectionManager replicaManager;
 
     public RedisServer(ServerConfig serverConfig) {
         this.serverConfig = serverConfig;
-        this.dataStore = new DataStore();
-        this.blockingManager = new BlockingOperationsManager(dataStore);
-        this.commandProcessor = new CommandProcessor(serverConfig, dataStore, blockingManager);
+        this.shards = createShards(serverConfig);
+        this.commandProcessor = new CommandProcessor(shards);
 
         if(serverConfig.isReplica()) replicaManager = new ReplicaConnectionManager(serverConfig, commandProcessor);
     }
 
+    // Pub/sub channels and the timer thread firing blocking timeouts are shared; each shard owns its
+    // part of the keyspace
+    private static Shard[] createShards(ServerConfig serverConfig) {
+        ChannelRegistry channels = new ChannelRegistry();
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().name("blocking-timeouts").daemon(true).factory());
+        // Wakeups are re-armed as earlier deadlines come in; the replaced ones must not pile up
+        timer.setRemoveOnCancelPolicy(true);
+        Shard[] shards = new Shard[serverConfig.getShards()];
+
+        for (int i = 0; i < shards.length; i++) {
+            String name = shards.length == 1 ? "command-executor" : "command-executor-" + i;
+            shards[i] = new Shard(name, serverConfig, channels, timer);
+        }
+        return shards;
+    }
+
     public void start() {
+        for (Shard shard : shards) shard.start();
         if(serverConfig.getDir() != null) loadDatabase();
-        startTimeoutChecker();
+        startActiveExpire();
 
         if(serverConfig.isReplica()) connectToMasterAsync();
 
-        try (ServerSocket serverSocket = new ServerSocket(serverConfig.getPort())) {
-            serverSocket.setReuseAddress(true);
-            System.out.println("Redis server started on port " + serverConfig.getPort());
+        if (serverConfig.isReplica()) {
+            Log.notice("Running as replica of {}:{}", serverConfig.getMasterHost(), serverConfig.getMasterPort());
+        } else {
+            Log.notice("Running as master");
+        }
+        if (shards.length > 1) Log.notice("Keyspace split into {} shards", shards.length);
 
-            if (serverConfig.isReplica()) {
-                System.out.println("Running as replica of " + serverConfig.getMasterHost() + ":" + serverConfig.getMasterPort());
-            } else {
-                System.out.println("Running as master");
-            }
+        if (serverConfig.isReactorMode()) startReactor();
+        else acceptConnections();
+    }
+
+    private void acceptConnections() {
+        try (ServerSocket serverSocket = new ServerSocket(serverConfig.getPort(), RedisConstants.TCP_BACKLOG)) {
+            serverSocket.setReuseAddress(true);
+            Log.notice("Redis server started on port {}", serverConfig.getPort());
 
             while (true) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    new Thread(new ClientHandler(clientSocket, commandProcessor)).start();
+                    ClientHandler handler = new ClientHandler(clientSocket, commandProcessor);
+
+                    if (serverConfig.isVirtualThreadMode()) Thread.ofVirtual().start(handler);
+                    else new Thread(handler).start();
                 } catch (IOException e) {
-                    System.err.println("Error accepting client connection: " + e.getMessage());
+                    Log.warning("Error accepting client connection: {}", e.getMessage());
                 }
             }
         } catch (IOException e) {
-            System.err.println("IOException: " + e.getMessage());
+            Log.warning("IOException: {}", e.getMessage());
         }
     }
 
-    private void startTimeoutChecker() {
-        new Thread(() -> {
+    private void startReactor() {
+        try {
+            new Reactor(serverConfig, commandProcessor).start();
+        } catch (IOException e) {
+            Log.warning("IOException: {}", e.getMessage());
+        }
+    }
+
+    private void startActiveExpire() {
+        Thread.ofPlatform().name("active-expire").daemon(true).start(() -> {
             while (true) {
                 try {
-                    Thread.sleep(RedisConstants.TIMEOUT_CHECK_INTERVAL);
-                    blockingManager.checkTimedOutClients();
-                } catch (Exception e) {
-                    System.err.println("Timeout checker error: " + e.getMessage());
+                    Thread.sleep(RedisConstants.ACTIVE_EXPIRE_INTERVAL);
+                    for (Shard shard : shards) shard.getExecutor().submit(shard.getDataStore()::activeExpireCycle);
+                } catch (InterruptedException e) {
+                    return;
                 }
             }
-        }).start();
+        });
     }
 
     private void connectToMasterAsync() {
@@ -76,15 +112,26 @@ public class RedisServer {
                 Thread.sleep(1000);
                 replicaManager.connectToMaster();
             } catch (Exception e) {
-                System.err.println("Failed to connect to master: " + e.getMessage());
+                Log.warning("Failed to connect to master: {}", e.getMessage());
             }
         }).start();
     }
 
+    // Each key is stored by the executor of the shard that owns it, like any write: only that thread may
+    // touch a DataStore (its off-heap arenas are confined to it). Clients are accepted once all are done.
     private void loadDatabase() {
         if (serverConfig.getDir() != null && serverConfig.getDbFilename() != null) {
-            RdbParser parser = new RdbParser(dataStore);
+            RdbParser parser = new RdbParser(serverConfig.getDatabases(), (db, key, value, expireTime) -> {
+                Shard shard = shards[Shard.indexFor(key, shards.length)];
+                shard.getExecutor().submit(() -> RdbParser.store(shard.getDataStore(), db, key, value, expireTime));
+            });
             parser.loadRdbFile(serverConfig.getDir(), serverConfig.getDbFilename());
+
+            try {
+                for (Shard shard : shards) shard.getExecutor().call(() -> { });
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 }
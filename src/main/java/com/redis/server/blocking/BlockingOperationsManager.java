@@ -1,125 +1,261 @@
 package com.redis.server.blocking;
 
 import com.redis.server.RedisConstants;
-import com.redis.server.command.CommandHandlers;
+import com.redis.server.command.CommandExecutor;
 import com.redis.server.model.*;
+import com.redis.server.protocol.RespCommand;
 import com.redis.server.protocol.RespProtocol;
 import com.redis.server.storage.DataStore;
+import com.redis.server.storage.WrongTypeException;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+// Only used from the command executor thread. Clients block in arrival order, so plain FIFO deques
+// replace the former priority queues ordered by block time. A client waits on a key of the database it
+// had selected; notifications come from commands running in the same database.
+//
+// List clients wait in a FIFO queue per key, as in Redis's blocking_keys: a push only marks its key as
+// ready (O(1), nothing is served mid-command), and once the command is over each ready key serves its
+// queue from the front for as long as the list has elements. A client blocked on several keys sits in
+// each of their queues, and is taken out of all of them when one serves it.
+//
+// Clients with a timeout are also indexed by deadline, like Redis's clients_timeout_table. A single
+// wakeup is armed for the earliest deadline on the server's timer thread; when it fires, the executor
+// times out the clients at the front of the index whose deadline has passed, O(expired), and re-arms
+// for the next one. Nothing runs while no deadline is due, and timeouts are precise to the millisecond.
 public class BlockingOperationsManager {
-    private final PriorityBlockingQueue<BlockedClient> blockedClients;
-    private final PriorityBlockingQueue<BlockedStreamClient> blockedStreamClients;
+    // Gets each pop a served client made, to replicate it after the command that fed it
+    public interface Propagator {
+        void propagate(RespCommand command, int db) throws IOException;
+    }
+
+    private static final ByteString LPOP = ByteString.of(RedisConstants.LPOP);
+    private static final ByteString RPOP = ByteString.of(RedisConstants.RPOP);
+    private static final ByteString LMOVE = ByteString.of(RedisConstants.LMOVE);
+    private static final ByteString LEFT = ByteString.of(RedisConstants.LEFT);
+    private static final ByteString RIGHT = ByteString.of(RedisConstants.RIGHT);
+
+    private record WaitKey(int db, ByteString key) {
+    }
+
+    private final Map<WaitKey, LinkedHashSet<BlockedClient>> waitQueues = new HashMap<>();
+    private final LinkedHashSet<WaitKey> readyKeys = new LinkedHashSet<>();
+    private final LinkedHashSet<BlockedStreamClient> blockedStreamClients = new LinkedHashSet<>();
+    private final TreeSet<BlockedOperation> deadlines = new TreeSet<>(BlockedOperation.BY_DEADLINE);
     private final DataStore dataStore;
+    private final ScheduledExecutorService timer;
+    private final CommandExecutor executor;
+    // The armed wakeup and its time, Long.MAX_VALUE when none is
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt = Long.MAX_VALUE;
 
-    public BlockingOperationsManager(DataStore dataStore) {
+    public BlockingOperationsManager(DataStore dataStore, ScheduledExecutorService timer, CommandExecutor executor) {
         this.dataStore = dataStore;
-        this.blockedClients = new PriorityBlockingQueue<>(
-                RedisConstants.BLOCKED_CLIENTS_INITIAL_CAPACITY,
-                Comparator.comparingLong(BlockedClient::getBlockTime)
-        );
-        this.blockedStreamClients = new PriorityBlockingQueue<>(
-                RedisConstants.BLOCKED_CLIENTS_INITIAL_CAPACITY,
-                Comparator.comparingLong(BlockedStreamClient::getBlockTime)
-        );
+        this.timer = timer;
+        this.executor = executor;
     }
 
-    public void addBlockedClient(String key, double timeoutSeconds, OutputStream out) {
-        blockedClients.offer(new BlockedClient(key, timeoutSeconds, out));
+    public void addBlockedClient(BlockedClient client) {
+        for (ByteString key : client.getKeys()) {
+            waitQueues.computeIfAbsent(new WaitKey(client.getDb(), key), k -> new LinkedHashSet<>()).add(client);
+        }
+        trackDeadline(client);
     }
 
-    public void addBlockedStreamClient(List<String> streamKeys, List<String> startIds, double timeoutSeconds, OutputStream out) {
-        blockedStreamClients.offer(new BlockedStreamClient(streamKeys, startIds, timeoutSeconds, out));
+    public void addBlockedStreamClient(List<ByteString> streamKeys, List<String> startIds, int db, double timeoutMillis, OutputStream out) {
+        BlockedStreamClient client = new BlockedStreamClient(streamKeys, startIds, db, timeoutMillis, out);
+        blockedStreamClients.add(client);
+        trackDeadline(client);
     }
 
-    public void notifyBlockedClients(String key) throws IOException {
-        synchronized (blockedClients) {
-            Iterator<BlockedClient> it = blockedClients.iterator();
+    // Called after elements were pushed to key in the selected database; O(1), serving waits for
+    // serveReadyKeys at the end of the command
+    public void signalKeyAsReady(ByteString key) {
+        WaitKey waitKey = new WaitKey(dataStore.getSelectedDb(), key);
+        if (waitQueues.containsKey(waitKey)) readyKeys.add(waitKey);
+    }
 
-            while (it.hasNext()) {
-                BlockedClient client = it.next();
+    // After SWAPDB the keys clients of db wait on may exist all of a sudden. The store must have db selected.
+    public void serveReadyClients(int db) throws IOException {
+        for (WaitKey waitKey : waitQueues.keySet()) {
+            if (waitKey.db() == db) readyKeys.add(waitKey);
+        }
 
-                if (client.getKey().equals(key)) {
-                    List<String> list = dataStore.getList(key);
+        List<ByteString> streamKeys = new ArrayList<>();
+        for (BlockedStreamClient client : blockedStreamClients) {
+            if (client.getDb() == db) streamKeys.addAll(client.getStreamKeys());
+        }
+        for (ByteString key : streamKeys) notifyBlockedStreamClients(key);
+    }
 
-                    if (list != null && !list.isEmpty()) {
-                        String poppedElement = list.remove(0);
+    // Serves every ready key's queue in FIFO order, one client per element available. A BLMOVE push can
+    // make its destination ready in turn; it is served in the same pass. Leaves another database selected.
+    public void serveReadyKeys(Propagator propagator) throws IOException {
+        // Pops and replies to blocked clients race with the commands otherwise; hand them to the executor
+        if (!executor.inExecutor()) {
+            executor.submit(() -> serveReadyKeys(propagator));
+            return;
+        }
 
-                        RespProtocol.writeArray(2, client.getOutputStream());
-                        RespProtocol.writeBulkString(key, client.getOutputStream());
-                        RespProtocol.writeBulkString(poppedElement, client.getOutputStream());
+        while (!readyKeys.isEmpty()) {
+            Iterator<WaitKey> it = readyKeys.iterator();
+            WaitKey waitKey = it.next();
+            it.remove();
 
-                        it.remove();
-                        return;
-                    }
-                }
+            LinkedHashSet<BlockedClient> queue = waitQueues.get(waitKey);
+            if (queue == null) continue;
+
+            dataStore.select(waitKey.db());
+            RedisList list = listOrNull(waitKey.key());
+            while (list != null && !list.isEmpty() && !queue.isEmpty()) {
+                serve(queue.iterator().next(), waitKey.key(), list, propagator);
             }
+            if (list != null) dataStore.removeIfEmpty(waitKey.key(), list);
+            // Costed while the key's database is selected
+            dataStore.updateMemoryUsage();
         }
     }
 
-    public void notifyBlockedStreamClients(String streamKey) throws IOException {
-        synchronized (blockedStreamClients) {
-            Iterator<BlockedStreamClient> it = blockedStreamClients.iterator();
+    private void serve(BlockedClient client, ByteString key, RedisList list, Propagator propagator) throws IOException {
+        OutputStream out = client.getOutputStream();
+        ByteString destination = client.getDestination();
+        unblock(client);
+
+        if (destination == null) {
+            ByteString element = client.isFromHead() ? list.popHead() : list.popTail();
+            RespProtocol.writeArray(2, out);
+            RespProtocol.writeBulkString(key, out);
+            RespProtocol.writeBulkString(element, out);
+            propagator.propagate(RespCommand.of(client.isFromHead() ? LPOP : RPOP, key), client.getDb());
+            return;
+        }
 
-            while (it.hasNext()) {
-                BlockedStreamClient client = it.next();
+        // As LMOVE would, a destination of the wrong type fails the command without popping
+        RedisList target;
+        try {
+            target = key.equals(destination) ? list : dataStore.getOrCreateList(destination);
+        } catch (WrongTypeException e) {
+            RespProtocol.writeError(RedisConstants.ERR_WRONGTYPE, out);
+            return;
+        }
 
-                if (client.getStreamKeys().contains(streamKey)) {
-                    List<StreamReadResult> readResults = new ArrayList<>();
-                    boolean hasData = false;
+        ByteString element = client.isFromHead() ? list.popHead() : list.popTail();
+        if (client.isToHead()) target.pushHead(element);
+        else target.pushTail(element);
+        RespProtocol.writeBulkString(element, out);
 
-                    for (int i = 0; i < client.getStreamKeys().size(); i++) {
-                        String clientStreamKey = client.getStreamKeys().get(i);
-                        String startId = client.getStartIds().get(i);
+        propagator.propagate(RespCommand.of(LMOVE, key, destination,
+                client.isFromHead() ? LEFT : RIGHT, client.isToHead() ? LEFT : RIGHT), client.getDb());
+        signalKeyAsReady(destination);
+    }
 
-                        RedisStream stream = dataStore.getStream(clientStreamKey);
-                        if (stream != null) {
-                            List<StreamEntry> entries = stream.getEntriesInRange(startId, "+", true);
-                            if (!entries.isEmpty()) {
-                                readResults.add(new StreamReadResult(clientStreamKey, entries));
-                                hasData = true;
-                            }
+    // Takes the client out of the queue of every key it waits on; O(keys)
+    private void unblock(BlockedClient client) {
+        if (client.getTimeoutTime() > 0) deadlines.remove(client);
+        for (ByteString key : client.getKeys()) {
+            WaitKey waitKey = new WaitKey(client.getDb(), key);
+            LinkedHashSet<BlockedClient> queue = waitQueues.get(waitKey);
+            if (queue == null) continue;
+            queue.remove(client);
+            if (queue.isEmpty()) waitQueues.remove(waitKey);
+        }
+    }
+
+    // A key the client waits on may have been replaced by another type meanwhile; it just has no elements
+    private RedisList listOrNull(ByteString key) {
+        try {
+            return dataStore.getList(key);
+        } catch (WrongTypeException e) {
+            return null;
+        }
+    }
+
+    public void notifyBlockedStreamClients(ByteString streamKey) throws IOException {
+        Iterator<BlockedStreamClient> it = blockedStreamClients.iterator();
+
+        while (it.hasNext()) {
+            BlockedStreamClient client = it.next();
+
+            if (client.getDb() == dataStore.getSelectedDb() && client.getStreamKeys().contains(streamKey)) {
+                List<StreamReadResult> readResults = new ArrayList<>();
+                boolean hasData = false;
+
+                for (int i = 0; i < client.getStreamKeys().size(); i++) {
+                    ByteString clientStreamKey = client.getStreamKeys().get(i);
+                    String startId = client.getStartIds().get(i);
+
+                    RedisStream stream = streamOrNull(clientStreamKey);
+                    if (stream != null) {
+                        List<StreamEntry> entries = stream.getEntriesInRange(startId, "+", true);
+                        if (!entries.isEmpty()) {
+                            readResults.add(new StreamReadResult(clientStreamKey, entries));
+                            hasData = true;
                         }
                     }
+                }
 
-                    if (hasData) {
-                        RespProtocol.writeXReadResults(readResults, client.getOutputStream());
-                        it.remove();
-                        return;
-                    }
+                if (hasData) {
+                    RespProtocol.writeXReadResults(readResults, client.getOutputStream());
+                    it.remove();
+                    if (client.getTimeoutTime() > 0) deadlines.remove(client);
+                    return;
                 }
             }
         }
     }
 
-    public void checkTimedOutClients() throws IOException {
-        synchronized (blockedClients) {
-            Iterator<BlockedClient> it = blockedClients.iterator();
-            while (it.hasNext()) {
-                BlockedClient client = it.next();
-                if (client.isTimedOut()) {
-                    RespProtocol.writeNullBulkString(client.getOutputStream());
-                    it.remove();
-                }
-            }
+    // A key the client waits on may have been replaced by another type meanwhile; it just has no entries
+    private RedisStream streamOrNull(ByteString key) {
+        try {
+            return dataStore.getStream(key);
+        } catch (WrongTypeException e) {
+            return null;
         }
+    }
 
-        synchronized (blockedStreamClients) {
-            Iterator<BlockedStreamClient> it = blockedStreamClients.iterator();
-            while (it.hasNext()) {
-                BlockedStreamClient client = it.next();
-                if (client.isTimedOut()) {
-                    RespProtocol.writeNullBulkString(client.getOutputStream());
-                    it.remove();
-                }
+    private void trackDeadline(BlockedOperation client) {
+        if (client.getTimeoutTime() == 0) return;
+        deadlines.add(client);
+        if (client.getTimeoutTime() < wakeupAt) arm(client.getTimeoutTime());
+    }
+
+    // Replaces the armed wakeup with one at the given time. A wakeup left armed for a client served
+    // meanwhile finds nothing due and just re-arms.
+    private void arm(long at) {
+        if (wakeup != null) wakeup.cancel(false);
+        wakeupAt = at;
+        long delay = Math.max(0, at - System.currentTimeMillis());
+        wakeup = timer.schedule(() -> executor.submit(this::checkTimedOutClients), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Answers the clients whose deadline has passed with a null reply, then arms the next wakeup
+    public void checkTimedOutClients() throws IOException {
+        wakeup = null;
+        wakeupAt = Long.MAX_VALUE;
+
+        long now = System.currentTimeMillis();
+        while (!deadlines.isEmpty() && deadlines.first().getTimeoutTime() <= now) {
+            BlockedOperation client = deadlines.first();
+            RespProtocol.writeNullBulkString(client.getOutputStream());
+            if (client instanceof BlockedClient listClient) {
+                unblock(listClient);
+            } else {
+                blockedStreamClients.remove(client);
+                deadlines.remove(client);
             }
         }
+
+        if (!deadlines.isEmpty()) arm(deadlines.first().getTimeoutTime());
     }
 }
@@ -0,0 +1,199 @@
+package com.redis.server.client;
+
+import com.redis.server.model.QueuedCommand;
+import com.redis.server.protocol.RespCommand;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Everything the server keeps about one connection. Created by the connection (thread, event loop
+// channel or replication link) and handed to the command processor with every batch, so commands read
+// their client state from here instead of looking it up in global maps by id.
+//
+// A client's commands execute one after another (on one executor, or chained across shards), so the
+// MULTI and subscription state needs no locking. The routing fields are only touched by the thread
+// reading the connection.
+public class ClientContext {
+    // The part of a command's work left to finish outside the executor, with its reply
+    public interface DeferredReply {
+        void complete() throws IOException, InterruptedException;
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final OutputStream out;
+    private final long createdAt = System.currentTimeMillis();
+    // the connection a replica keeps to its master: replies are suppressed and the bytes count toward the offset
+    private boolean masterLink;
+    // SELECT: the database the client's commands work on
+    private int db;
+
+    // MULTI
+    private boolean multi;
+    private final Queue<QueuedCommand> queuedCommands = new ArrayDeque<>();
+
+    // pub/sub
+    private volatile boolean subscribed;
+    private final Set<String> channels = new LinkedHashSet<>();
+
+    // stats
+    private long commandsProcessed;
+    private volatile long lastInteraction = createdAt;
+
+    // set by WAIT on the executor, completed by the connection's side once the executor is done with it
+    private volatile DeferredReply deferredReply;
+
+    // sharded routing: the client's in-flight batches and the shard an open MULTI is bound to
+    private volatile CompletableFuture<Void> pendingCommands = COMPLETED;
+    private boolean routingMulti;
+    private int multiShard = -1;
+
+    public ClientContext(OutputStream out) {
+        this.out = out;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public boolean isMasterLink() {
+        return masterLink;
+    }
+
+    public void setMasterLink(boolean masterLink) {
+        this.masterLink = masterLink;
+    }
+
+    public int getDb() {
+        return db;
+    }
+
+    public void setDb(int db) {
+        this.db = db;
+    }
+
+    public void deferReply(DeferredReply reply) {
+        this.deferredReply = reply;
+    }
+
+    public DeferredReply takeDeferredReply() {
+        DeferredReply reply = deferredReply;
+        deferredReply = null;
+        return reply;
+    }
+
+    // ********************************************************* multi **********************************************************
+
+    public boolean isMulti() {
+        return multi;
+    }
+
+    public void startMulti() {
+        multi = true;
+    }
+
+    public void endMulti() {
+        multi = false;
+    }
+
+    public void queueCommand(RespCommand command, OutputStream out) {
+        // the parsed command may be a view over the client's read buffer, keep a copy
+        queuedCommands.offer(new QueuedCommand(command.detach(), out));
+    }
+
+    public boolean hasQueuedCommand() {
+        return !queuedCommands.isEmpty();
+    }
+
+    public QueuedCommand pollQueuedCommand() {
+        return queuedCommands.poll();
+    }
+
+    public int getQueuedCommandSize() {
+        return queuedCommands.size();
+    }
+
+    public void discardQueuedCommands() {
+        queuedCommands.clear();
+        multi = false;
+    }
+
+    // ********************************************************* pub/sub **********************************************************
+
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
+    // Returns the number of channels the client is subscribed to afterwards
+    public int subscribe(String channel) {
+        channels.add(channel);
+        subscribed = true;
+        return channels.size();
+    }
+
+    public int unsubscribe(String channel) {
+        channels.remove(channel);
+        subscribed = !channels.isEmpty();
+        return channels.size();
+    }
+
+    public Set<String> getChannels() {
+        return channels;
+    }
+
+    // ********************************************************* stats **********************************************************
+
+    public void recordCommand() {
+        commandsProcessed++;
+        lastInteraction = System.currentTimeMillis();
+    }
+
+    public long getCommandsProcessed() {
+        return commandsProcessed;
+    }
+
+    public long getLastInteraction() {
+        return lastInteraction;
+    }
+
+    // ********************************************************* routing **********************************************************
+
+    public CompletableFuture<Void> getPendingCommands() {
+        return pendingCommands;
+    }
+
+    public void setPendingCommands(CompletableFuture<Void> pendingCommands) {
+        this.pendingCommands = pendingCommands;
+    }
+
+    public boolean isRoutingMulti() {
+        return routingMulti;
+    }
+
+    public int getMultiShard() {
+        return multiShard;
+    }
+
+    public void setRoutingMulti(boolean routingMulti, int multiShard) {
+        this.routingMulti = routingMulti;
+        this.multiShard = multiShard;
+    }
+}
@@ -1,56 +1,78 @@
 package com.redis.server.client;
 
-import com.redis.server.RedisConstants;
 import com.redis.server.command.CommandProcessor;
-import com.redis.server.protocol.RespProtocol;
+import com.redis.server.logging.Log;
+import com.redis.server.protocol.CommandBatch;
+import com.redis.server.protocol.RespCommand;
+import com.redis.server.protocol.RespParser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.net.Socket;
-import java.util.List;
-import java.util.UUID;
+import java.nio.ByteBuffer;
 
 public class ClientHandler implements Runnable {
     private final Socket clientSocket;
     private final CommandProcessor commandProcessor;
-    private final String clientId;
 
     public ClientHandler(Socket clientSocket, CommandProcessor commandProcessor) {
         this.clientSocket = clientSocket;
         this.commandProcessor = commandProcessor;
-        clientId = generateClientId();
-    }
-    private String generateClientId() {
-        return UUID.randomUUID().toString(); // Or alternatively: return clientSocket.getRemoteSocketAddress().toString() + "-" + System.currentTimeMillis();
     }
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             OutputStream out = clientSocket.getOutputStream()) {
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (line.startsWith(RedisConstants.ARRAY_PREFIX)) {
-                    List<String> command = RespProtocol.parseRespArray(line, in);
-                    if (!command.isEmpty()) {
-                        commandProcessor.processCommand(clientId, command, out);
-                        out.flush();
+        ClientContext client = null;
+        // Each batch is executed before the next read, so one batch and its buffer serve the connection
+        CommandBatch batch = new CommandBatch();
+        try (InputStream in = clientSocket.getInputStream();
+             ClientOutputStream out = new ClientOutputStream(clientSocket.getOutputStream())) {
+
+            client = new ClientContext(out);
+            RespParser parser = new RespParser();
+
+            while (true) {
+                ByteBuffer readBuffer = batch.buffer();
+                int read = in.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+                if (read == -1) break;
+                readBuffer.position(readBuffer.position() + read);
+                readBuffer.flip();
+
+                // Execute every complete command already received in one executor round trip, then answer
+                // them with one write
+                out.beginBatch();
+                try {
+                    RespCommand command;
+                    while ((command = parser.parse(readBuffer)) != null) {
+                        if (command.isEmpty()) continue;
+
+                        if (commandProcessor.runsOutsideExecutor(command)) {
+                            commandProcessor.executeBatch(client, batch);
+                            batch.clear();
+                            commandProcessor.executeWait(client, batch.keep(command));
+                        } else {
+                            batch.append(command);
+                        }
                     }
+                    commandProcessor.executeBatch(client, batch);
+                } finally {
+                    batch.clear();
+                    out.endBatch();
                 }
+
+                batch.compact();
             }
         } catch (IOException e) {
-            System.err.println("Error handling client: " + e.getMessage());
+            Log.warning("Error handling client: {}", e.getMessage());
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         } finally {
-            commandProcessor.cleanupClient(clientId);
+            if (client != null) commandProcessor.cleanupClient(client);
+            batch.release();
             try {
                 clientSocket.close();
             } catch (IOException e) {
-                System.err.println("Error closing client socket: " + e.getMessage());
+                Log.warning("Error closing client socket: {}", e.getMessage());
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,20 @@
+package com.redis.server.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Bytes held by the query and reply buffers of every connection, for INFO memory and MEMORY STATS.
+// Adjusted where a buffer is allocated, grown, replaced or dropped, so reading it never walks clients.
+public final class ClientMemory {
+    private static final LongAdder BUFFER_BYTES = new LongAdder();
+
+    private ClientMemory() {
+    }
+
+    public static void add(long bytes) {
+        BUFFER_BYTES.add(bytes);
+    }
+
+    public static long get() {
+        return BUFFER_BYTES.sum();
+    }
+}
@@ -0,0 +1,192 @@
+package com.redis.server.client;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.logging.Log;
+import com.redis.server.protocol.SegmentSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Per-connection reply buffer for the blocking socket modes. While the connection thread executes a
+// batch of pipelined commands, replies accumulate here and go out in one socket write at endBatch().
+// Outside a batch (pub/sub messages, blocked-client wakeups, propagation to replicas) the command
+// executor writes into the buffer and the socket write happens on a virtual thread, so a slow client
+// can never stall command execution.
+public class ClientOutputStream extends OutputStream implements SegmentSink {
+    private final OutputStream socketOut;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Held while writing to the socket; keeps drained chunks in order
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private byte[] buffer = new byte[RedisConstants.WRITE_BUFFER_SIZE];
+    private byte[] spare = new byte[RedisConstants.WRITE_BUFFER_SIZE];
+    private int count;
+    private boolean batching;
+    private boolean drainScheduled;
+    private boolean closed;
+
+    public ClientOutputStream(OutputStream socketOut) {
+        this.socketOut = socketOut;
+        ClientMemory.add(buffer.length + spare.length);
+    }
+
+    public void beginBatch() {
+        lock.lock();
+        try {
+            batching = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void endBatch() throws IOException {
+        lock.lock();
+        try {
+            batching = false;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        boolean schedule;
+        lock.lock();
+        try {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+            schedule = markDrainNeeded();
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) scheduleDrain();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        boolean schedule;
+        lock.lock();
+        try {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+            schedule = markDrainNeeded();
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) scheduleDrain();
+    }
+
+    @Override
+    public void write(MemorySegment segment) throws IOException {
+        int len = (int) segment.byteSize();
+        boolean schedule;
+        lock.lock();
+        try {
+            ensureCapacity(len);
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, buffer, count, len);
+            count += len;
+            schedule = markDrainNeeded();
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) scheduleDrain();
+    }
+
+    // Inside a batch the flush is deferred to endBatch()
+    @Override
+    public void flush() throws IOException {
+        boolean schedule;
+        lock.lock();
+        try {
+            schedule = markDrainNeeded();
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) scheduleDrain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            releaseBuffers();
+            socketOut.close();
+        }
+    }
+
+    private void releaseBuffers() {
+        writeLock.lock();
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            ClientMemory.add(-(buffer.length + (spare != null ? spare.length : 0)));
+        } finally {
+            lock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    private void ensureCapacity(int len) {
+        if (count + len > buffer.length) {
+            int capacity = Math.max(buffer.length * 2, count + len);
+            if (!closed) ClientMemory.add(capacity - buffer.length);
+            buffer = Arrays.copyOf(buffer, capacity);
+        }
+    }
+
+    private boolean markDrainNeeded() {
+        if (batching || drainScheduled || count == 0) return false;
+        drainScheduled = true;
+        return true;
+    }
+
+    private void scheduleDrain() {
+        Thread.ofVirtual().start(() -> {
+            try {
+                drain();
+            } catch (IOException e) {
+                Log.warning("Error writing to client: {}", e.getMessage());
+            }
+        });
+    }
+
+    // Swaps the filled buffer out under the buffer lock and writes it with only the write lock held, so
+    // writers keep appending while the socket write is in progress
+    private void drain() throws IOException {
+        writeLock.lock();
+        try {
+            byte[] chunk;
+            int length;
+            lock.lock();
+            try {
+                drainScheduled = false;
+                if (count == 0) return;
+
+                chunk = buffer;
+                length = count;
+                if (spare == null && !closed) ClientMemory.add(RedisConstants.WRITE_BUFFER_SIZE);
+                buffer = spare != null ? spare : new byte[RedisConstants.WRITE_BUFFER_SIZE];
+                spare = null;
+                count = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            socketOut.write(chunk, 0, length);
+            socketOut.flush();
+
+            // Oversized buffers from a large reply are dropped rather than kept around
+            if (chunk.length == RedisConstants.WRITE_BUFFER_SIZE) spare = chunk;
+            else if (!closed) ClientMemory.add(-chunk.length);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
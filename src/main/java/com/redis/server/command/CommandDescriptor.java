@@ -0,0 +1,89 @@
+package com.redis.server.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Metadata for one command: arity, flags and key positions, as reported by COMMAND INFO.
+// Arity follows Redis: positive is an exact argument count (including the name), negative a minimum.
+public class CommandDescriptor {
+    // Flags reported by COMMAND INFO
+    public static final int WRITE = 1;
+    public static final int READONLY = 1 << 1;
+    public static final int FAST = 1 << 2;
+    public static final int PUBSUB = 1 << 3;
+    public static final int ADMIN = 1 << 4;
+    public static final int BLOCKING = 1 << 5;
+    public static final int NO_MULTI = 1 << 6;
+    public static final int MOVABLE_KEYS = 1 << 7;
+    public static final int DENY_OOM = 1 << 8;
+
+    // Internal flags
+    public static final int ALLOWED_IN_SUBSCRIBE = 1 << 16; // may run while the client is in subscribed mode
+    public static final int TRANSACTION = 1 << 17;          // MULTI/EXEC/DISCARD: never queued
+
+    private static final String[] FLAG_NAMES = {"write", "readonly", "fast", "pubsub", "admin", "blocking", "no_multi", "movablekeys", "denyoom"};
+
+    private final String name;
+    private final CommandHandler handler;
+    private final int arity;
+    private final int flags;
+    private final int firstKey;
+    private final int lastKey;
+    private final int keyStep;
+
+    public CommandDescriptor(String name, CommandHandler handler, int arity, int flags, int firstKey, int lastKey, int keyStep) {
+        this.name = name;
+        this.handler = handler;
+        this.arity = arity;
+        this.flags = flags;
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+        this.keyStep = keyStep;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CommandHandler getHandler() {
+        return handler;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public boolean isWrite() {
+        return hasFlag(WRITE);
+    }
+
+    public boolean checkArity(int argc) {
+        return arity >= 0 ? argc == arity : argc >= -arity;
+    }
+
+    // 0 when the command takes no keys (or only movable ones)
+    public int getFirstKey() {
+        return firstKey;
+    }
+
+    // Negative positions count from the end, -1 being the last argument
+    public int getLastKey() {
+        return lastKey;
+    }
+
+    public int getKeyStep() {
+        return keyStep;
+    }
+
+    public List<String> getFlagNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < FLAG_NAMES.length; i++) {
+            if ((flags & (1 << i)) != 0) names.add(FLAG_NAMES[i]);
+        }
+        return names;
+    }
+}
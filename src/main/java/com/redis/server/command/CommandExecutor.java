@@ -0,0 +1,108 @@
+package com.redis.server.command;
+
+import com.redis.server.logging.Log;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// The single thread that executes commands. Connection threads / event loops only read, parse and
+// write sockets; everything that touches the keyspace is funneled through here, so the data
+// structures need no locking and every command is atomic with respect to all others.
+public class CommandExecutor implements Runnable {
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private final String name;
+    private volatile Thread thread;
+
+    public CommandExecutor(String name) {
+        this.name = name;
+    }
+
+    public void start() {
+        Thread executorThread = new Thread(this, name);
+        this.thread = executorThread;
+        executorThread.start();
+    }
+
+    public boolean inExecutor() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void submit(Task task) {
+        tasks.offer(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                Log.warning("Command executor error: {}", e.getMessage());
+            }
+        });
+    }
+
+    // Runs the task on the executor thread and waits for it, rethrowing its failure to the caller
+    public void call(Task task) throws IOException, InterruptedException {
+        if (inExecutor()) {
+            runInline(task);
+            return;
+        }
+
+        await(callAsync(task));
+    }
+
+    // Queues the task; the future completes (exceptionally on failure) once it has run
+    public CompletableFuture<Void> callAsync(Task task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        tasks.offer(() -> {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    public static void await(CompletableFuture<Void> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof InterruptedException ie) throw ie;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException(cause);
+        }
+    }
+
+    private void runInline(Task task) throws IOException, InterruptedException {
+        try {
+            task.run();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                tasks.take().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.warning("Command executor error: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.redis.server.command;
+
+import com.redis.server.client.ClientContext;
+import com.redis.server.protocol.RespCommand;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A command implementation in the command table, typically an unbound CommandHandlers method reference
+// so one table serves every shard's handlers
+@FunctionalInterface
+public interface CommandHandler {
+    void handle(CommandHandlers handlers, ClientContext client, RespCommand command, OutputStream out) throws IOException, InterruptedException;
+}
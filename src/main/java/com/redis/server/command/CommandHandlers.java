@@ -2,9 +2,15 @@ package com.redis.server.command;
 
 import com.redis.server.RedisConstants;
 import com.redis.server.blocking.BlockingOperationsManager;
+import com.redis.server.client.ClientContext;
+import com.redis.server.client.ClientMemory;
+import com.redis.server.logging.Log;
 import com.redis.server.model.*;
+import com.redis.server.protocol.RespCommand;
 import com.redis.server.protocol.RespProtocol;
 import com.redis.server.storage.DataStore;
+import com.redis.server.storage.GlobPattern;
+import com.redis.server.storage.WrongTypeException;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -17,10 +23,24 @@ import static com.redis.server.protocol.RespProtocol.*;
 
 
 public class CommandHandlers {
+    private static final ByteString SET = ByteString.of(RedisConstants.SET);
+    private static final ByteString DEL = ByteString.of(RedisConstants.DEL);
+    private static final ByteString KEEPTTL = ByteString.of("KEEPTTL");
+    private static final ByteString SELECT = ByteString.of(RedisConstants.SELECT);
+    private static final ByteString LPOP = ByteString.of(RedisConstants.LPOP);
+    private static final ByteString RPOP = ByteString.of(RedisConstants.RPOP);
+    private static final ByteString LMOVE = ByteString.of(RedisConstants.LMOVE);
+    private static final ByteString LEFT = ByteString.of(RedisConstants.LEFT);
+    private static final ByteString RIGHT = ByteString.of(RedisConstants.RIGHT);
+    private static final RespCommand SELECT_DEFAULT_DB = RespCommand.of(SELECT, ByteString.valueOf(0));
 
     private final DataStore dataStore;
     private final BlockingOperationsManager blockingManager;
     private final ServerConfig serverConfig;
+    // Set by a handler whose effect must reach the replicas as a different command
+    private RespCommand propagateAs;
+    // 1 while a command runs, 2 for the commands EXEC runs
+    private int callDepth;
 
     public CommandHandlers(DataStore dataStore, BlockingOperationsManager blockingManager, ServerConfig serverConfig) {
         this.dataStore = dataStore;
@@ -28,326 +48,818 @@ public class CommandHandlers {
         this.serverConfig = serverConfig;
     }
 
-    public void handlePing(String clientId, List<String> command, OutputStream out) throws IOException {
-        if(dataStore.isClientSubscribed(clientId) && dataStore.isAllowedInSubMode(RedisConstants.PING)){
-            writeArray(2, out);
-            writeBulkString("pong", out);
-            writeBulkString("", out);
-            return;
-        }
-        else if (serverConfig.isMaster()) writeSimpleString(RedisConstants.PONG, out);
-        else serverConfig.setReplicaOffset(serverConfig.getReplicaOffset() + RedisConstants.PING_COMMAND_BYTE_SIZE);
+    // Runs a command that passed the arity/mode checks, then replicates it. A write executed on a master
+    // is propagated to the replicas and advances the master offset; everything the master sends over the
+    // replication link advances the replica offset, after the command (GETACK reports the offset before).
+    // A command rejected with WRONGTYPE changed nothing and is not propagated.
+    // Clients blocked on the lists the command pushed to are served once it is over (after EXEC, not
+    // between the commands it runs), and their pops are propagated after it.
+    public void call(CommandDescriptor descriptor, ClientContext client, RespCommand command, OutputStream out) throws IOException, InterruptedException {
+        boolean applied = true;
+        propagateAs = null;
+        int db = client.getDb();
+        dataStore.select(db);
+        callDepth++;
+        try {
+            descriptor.getHandler().handle(this, client, command, out);
+        } catch (WrongTypeException e) {
+            writeError(RedisConstants.ERR_WRONGTYPE, out);
+            applied = false;
+        } catch (RuntimeException e) {
+            // Last resort for a bug: handlers check their arguments before writing anything. Answered here
+            // rather than by the caller's run, so the commands EXEC runs after it still execute.
+            Log.warning("Error executing command {}: {}", command.get(0), e.toString());
+            writeError(RedisConstants.ERR_INTERNAL, out);
+            applied = false;
+        } finally {
+            callDepth--;
+        }
+        dataStore.updateMemoryUsage();
+        RespCommand rewritten = propagateAs;
+        propagateAs = null;
+
+        if (client.isMasterLink()) {
+            serverConfig.addReplicaOffset(RespProtocol.calculateRespCommandBytes(command));
+        } else if (applied && descriptor.isWrite() && serverConfig.isMaster() && (rewritten != null || !descriptor.hasFlag(CommandDescriptor.BLOCKING))) {
+            // A blocking command is replayed only as the pop it made right away; blocking changed nothing
+            propagate(rewritten != null ? rewritten : command, db);
+        }
+
+        if (callDepth == 0) blockingManager.serveReadyKeys(this::propagateServed);
+    }
+
+    // A broadcast command's part on a shard other than the one answering it: the same handler for its
+    // effect on this shard's keyspace, without a reply or propagation
+    public void applyBroadcast(CommandDescriptor descriptor, ClientContext client, RespCommand command) throws IOException, InterruptedException {
+        dataStore.select(client.getDb());
+        descriptor.getHandler().handle(this, client, command, OutputStream.nullOutputStream());
+        dataStore.updateMemoryUsage();
+        blockingManager.serveReadyKeys(this::propagateServed);
+    }
+
+    private void propagateServed(RespCommand command, int db) throws IOException {
+        if (serverConfig.isMaster()) propagate(command, db);
     }
 
-    public void handleEcho(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ECHO' command", out);
+    // Shards propagate independently and their writes interleave on a replica link, so the link has no
+    // current database to rely on: a write to any other database than 0 travels as SELECT db, the write
+    // and SELECT 0, encoded together so they reach each replica in one piece
+    private void propagate(RespCommand command, int db) throws IOException {
+        if (db == 0) {
+            propagate(command);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ECHO' command in subscribed mode", out);
-            return;
+        RespCommand select = RespCommand.of(SELECT, ByteString.valueOf(db));
+        if (serverConfig.hasReplicas()) {
+            byte[] encoded = RespProtocol.encodeCommand(select, command, SELECT_DEFAULT_DB);
+            for (OutputStream replicaOutputStream : serverConfig.getReplicaOutputStreams()) replicaOutputStream.write(encoded);
         }
 
-        String arg = command.get(1);
-        writeBulkString(arg, out);
+        int bytes = select.frameLength() + command.frameLength() + SELECT_DEFAULT_DB.frameLength();
+        int offset = serverConfig.addMasterOffset(bytes);
+        if (Log.isDebugEnabled()) Log.debug("master offset: {}", offset);
     }
 
-    public void handleType(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'TYPE' command", out);
-            return;
+    private void propagate(RespCommand command) throws IOException {
+        if (serverConfig.hasReplicas()) {
+            byte[] encoded = RespProtocol.encodeCommand(command);
+            for (OutputStream replicaOutputStream : serverConfig.getReplicaOutputStreams()) replicaOutputStream.write(encoded);
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'TYPE' command in subscribed mode", out);
+        int offset = serverConfig.addMasterOffset(RespProtocol.calculateRespCommandBytes(command));
+        if (Log.isDebugEnabled()) Log.debug("master offset: {}", offset);
+    }
+
+    // Evicts keys until this shard is back within its share of maxmemory, propagating each eviction as a
+    // DEL. Returns false if the policy finds nothing more to evict. Replicas don't evict on their own,
+    // they apply their master's DELs.
+    public boolean performEvictions() throws IOException {
+        if (serverConfig.isReplica()) return true;
+
+        while (dataStore.isOverMaxmemory()) {
+            ByteString key = dataStore.evictOne();
+            if (key == null) return false;
+            propagate(RespCommand.of(DEL, key), dataStore.getLastEvictedDb());
+        }
+        return true;
+    }
+
+    public void handlePing(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        if (client.isSubscribed()) {
+            writeArray(2, out);
+            writeBulkString("pong", out);
+            writeBulkString("", out);
             return;
         }
+        writeSimpleString(RedisConstants.PONG, out);
+    }
 
-        String key = command.get(1);
+    public void handleEcho(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        writeBulkString(command.arg(1), out);
+    }
+
+    public void handleType(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
         String keyType = dataStore.getKeyType(key);
         writeSimpleString(keyType, out);
     }
 
-    public void handleSet(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'SET' command", out);
-            return;
+    // SET key value [NX | XX] [GET] [EX seconds | PX milliseconds | EXAT unix-seconds | PXAT unix-milliseconds | KEEPTTL]
+    public void handleSet(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+        ByteString value = command.arg(2);
+
+        boolean nx = false, xx = false, get = false, keepTtl = false;
+        long expireAt = RedisObject.NO_EXPIRY;
+
+        for (int i = 3; i < command.size(); i++) {
+            String option = command.get(i).toUpperCase();
+            switch (option) {
+                case "NX" -> nx = true;
+                case "XX" -> xx = true;
+                case "GET" -> get = true;
+                case "KEEPTTL" -> keepTtl = true;
+                case "EX", "PX", "EXAT", "PXAT" -> {
+                    if (i + 1 == command.size() || expireAt != RedisObject.NO_EXPIRY) {
+                        writeError(RedisConstants.ERR_SYNTAX, out);
+                        return;
+                    }
+
+                    long amount;
+                    try {
+                        amount = Long.parseLong(command.get(++i));
+                    } catch (NumberFormatException e) {
+                        writeError(RedisConstants.ERR_NOT_INTEGER, out);
+                        return;
+                    }
+
+                    try {
+                        if (amount <= 0) throw new ArithmeticException();
+                        expireAt = toExpireAt(amount, option.startsWith("E"), option.endsWith("AT"));
+                    } catch (ArithmeticException e) {
+                        writeError(RedisConstants.ERR_INVALID_EXPIRE + " 'set' command", out);
+                        return;
+                    }
+                }
+                default -> {
+                    writeError(RedisConstants.ERR_SYNTAX, out);
+                    return;
+                }
+            }
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'SET' command in subscribed mode", out);
+        if ((nx && xx) || (keepTtl && expireAt != RedisObject.NO_EXPIRY)) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
             return;
         }
 
-        // propagate command to replicas
-        if (serverConfig.hasReplicas()) {
-            List<OutputStream> replicas = serverConfig.getReplicaOutputStreams();
+        // Read before writing so a non-string key fails with WRONGTYPE and stays untouched
+        ByteString previous = get ? dataStore.getValue(key) : null;
 
-            for (OutputStream replicaOutputStream : replicas) {
-                writeArray(command.size(), replicaOutputStream);
-                for (String arg : command) writeBulkString(arg, replicaOutputStream);
+        if (nx || xx) {
+            boolean exists = get ? previous != null : dataStore.hasKey(key);
+            if ((nx && exists) || (xx && !exists)) {
+                writeBulkString(previous, out); // nil, or the current value for GET
+                return;
             }
         }
 
-        if (dataStore.isMultiEnabled(clientId)) {
-            dataStore.putCommandInQueue(clientId, command, out);
-            writeSimpleString("QUEUED", out);
-            System.out.println("no");
-            return;
-        }
+        if (keepTtl) dataStore.setKeepingTtl(key, value);
+        else dataStore.set(key, value, expireAt);
 
-        String key = command.get(1);
-        String value = command.get(2);
+        if (get) writeBulkString(previous, out);
+        else writeSimpleString(RedisConstants.OK, out);
+    }
 
-        if (command.size() >= 5 && "PX".equalsIgnoreCase(command.get(3))) {
-            long expiryMs = Long.parseLong(command.get(4));
-            long expiryTime = System.currentTimeMillis() + expiryMs;
-            dataStore.set(key, value, expiryTime);
-        } else {
-            dataStore.set(key, value);
-        }
+    public void handleGet(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+        RedisObject object = dataStore.getStringObject(key);
 
-        // System.out.println("Replica? " + serverConfig.isReplica() + " Set value: " + dataStore.getValue(key));
-        int bytes = RespProtocol.calculateRespCommandBytes(command);
+        if (object == null) writeNullBulkString(out);
+        else if (object.isOffHeap()) writeBulkString(dataStore.getOffHeapValue(object), out);
+        else writeBulkString(object.getStringValue(), out);
+    }
 
-        if (serverConfig.isMaster()) {
-            serverConfig.setMasterOffset(serverConfig.getMasterOffset() + bytes);
-            System.out.println("master offset: " + serverConfig.getMasterOffset());
-            writeSimpleString(RedisConstants.OK, out);
-        } else {
-            serverConfig.setReplicaOffset(serverConfig.getReplicaOffset() + bytes);
-        }
+    // ********************************************************* expiry **********************************************************
+
+    public void handleExpire(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        expire(command, true, false, "expire", out);
+    }
+
+    public void handlePExpire(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        expire(command, false, false, "pexpire", out);
     }
 
-    public void handleGet(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'GET' command", out);
+    public void handleExpireAt(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        expire(command, true, true, "expireat", out);
+    }
+
+    public void handlePExpireAt(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        expire(command, false, true, "pexpireat", out);
+    }
+
+    // EXPIRE key amount [NX | XX | GT | LT]. A key without TTL counts as an infinite TTL for GT and LT,
+    // and a time in the past deletes the key.
+    private void expire(RespCommand command, boolean seconds, boolean absolute, String name, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+
+        long amount;
+        try {
+            amount = Long.parseLong(command.get(2));
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
+            return;
+        }
+
+        boolean nx = false, xx = false, gt = false, lt = false;
+        for (int i = 3; i < command.size(); i++) {
+            switch (command.get(i).toUpperCase()) {
+                case "NX" -> nx = true;
+                case "XX" -> xx = true;
+                case "GT" -> gt = true;
+                case "LT" -> lt = true;
+                default -> {
+                    writeError("ERR Unsupported option " + command.get(i), out);
+                    return;
+                }
+            }
+        }
+        if (nx && (xx || gt || lt)) {
+            writeError("ERR NX and XX, GT or LT options at the same time are not compatible", out);
+            return;
+        }
+        if (gt && lt) {
+            writeError("ERR GT and LT options at the same time are not compatible", out);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'GET' command in subscribed mode", out);
+        long expireAt;
+        try {
+            expireAt = toExpireAt(amount, seconds, absolute);
+        } catch (ArithmeticException e) {
+            writeError(RedisConstants.ERR_INVALID_EXPIRE + " '" + name + "' command", out);
             return;
         }
 
-        if (dataStore.isMultiEnabled(clientId)) {
-            dataStore.putCommandInQueue(clientId, command, out);
-            writeSimpleString("QUEUED", out);
+        long current = dataStore.getExpireAt(key);
+        if (current == DataStore.KEY_MISSING) {
+            writeInteger(0, out);
             return;
         }
 
-        String key = command.get(1);
-        String value = dataStore.getValue(key);
+        boolean hasTtl = current != RedisObject.NO_EXPIRY;
+        if ((nx && hasTtl) || (xx && !hasTtl) || (gt && (!hasTtl || expireAt <= current)) || (lt && hasTtl && expireAt >= current)) {
+            writeInteger(0, out);
+            return;
+        }
 
-        //System.out.println("Replica? " + serverConfig.isReplica() + " value: " + value);
-        writeBulkString(value, out);
+        if (expireAt <= System.currentTimeMillis()) dataStore.delete(key);
+        else dataStore.setExpireAt(key, expireAt);
+        writeInteger(1, out);
     }
 
-    public void handleLPush(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'LPUSH' command", out);
-            return;
-        }
+    // Absolute unix time in ms for an EX/PX/EXAT/PXAT style amount; throws ArithmeticException on overflow
+    private static long toExpireAt(long amount, boolean seconds, boolean absolute) {
+        long millis = seconds ? Math.multiplyExact(amount, 1000L) : amount;
+        return absolute ? millis : Math.addExact(System.currentTimeMillis(), millis);
+    }
+
+    public void handleTtl(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long ttl = remainingTtl(command.arg(1));
+        writeInteger(ttl < 0 ? ttl : (ttl + 500) / 1000, out);
+    }
+
+    public void handlePTtl(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        writeInteger(remainingTtl(command.arg(1)), out);
+    }
+
+    // Remaining ms, -1 without TTL, -2 for a missing key
+    private long remainingTtl(ByteString key) {
+        long expireAt = dataStore.getExpireAt(key);
+        if (expireAt < 0) return expireAt;
+        return Math.max(0, expireAt - System.currentTimeMillis());
+    }
+
+    public void handleExpireTime(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long expireAt = dataStore.getExpireAt(command.arg(1));
+        writeInteger(expireAt < 0 ? expireAt : expireAt / 1000, out);
+    }
+
+    public void handlePExpireTime(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        writeInteger(dataStore.getExpireAt(command.arg(1)), out);
+    }
+
+    public void handlePersist(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        writeInteger(dataStore.persist(command.arg(1)) ? 1 : 0, out);
+    }
+
+    public void handleLPush(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        push(command, true, false, out);
+    }
+
+    public void handleRPush(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        push(command, false, false, out);
+    }
+
+    public void handleLPushX(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        push(command, true, true, out);
+    }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'LPUSH' command in subscribed mode", out);
+    public void handleRPushX(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        push(command, false, true, out);
+    }
+
+    // LPUSH / RPUSH key element [element ...]; the X forms only push onto a list that already exists
+    private void push(RespCommand command, boolean atHead, boolean onlyIfExists, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+        RedisList list = onlyIfExists ? dataStore.getList(key) : dataStore.getOrCreateList(key);
+        if (list == null) {
+            writeInteger(0, out);
             return;
         }
 
-        String key = command.get(1);
-        List<String> list = dataStore.getList(key);
-        if (list == null) list = new ArrayList<>();
-
         for (int i = 2; i < command.size(); i++) {
-            list.add(0, command.get(i));
+            if (atHead) list.pushHead(command.arg(i));
+            else list.pushTail(command.arg(i));
         }
 
-        dataStore.setList(key, list);
         writeInteger(list.size(), out);
 
-        blockingManager.notifyBlockedClients(key);
+        blockingManager.signalKeyAsReady(key);
     }
 
-    public void handleRPush(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'RPUSH' command", out);
+    public void handleLRange(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+        long start_index;
+        long end_index;
+        try {
+            start_index = command.argToLong(2);
+            end_index = command.argToLong(3);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'RPUSH' command in subscribed mode", out);
+        RedisList list = dataStore.getList(key);
+
+        if (list == null || list.isEmpty()) {
+            writeArray(0, out);
             return;
         }
 
-        String key = command.get(1);
-        List<String> list = dataStore.getList(key);
-        if (list == null) list = new ArrayList<>();
+        if (start_index < 0) start_index = Math.max(list.size() + start_index, 0);
+        if (end_index >= list.size()) end_index = list.size() - 1;
+        else if (end_index < 0) end_index = Math.max(list.size() + end_index, 0);
 
-        for (int i = 2; i < command.size(); i++) {
-            list.add(command.get(i));
+        if (start_index >= list.size() || start_index > end_index) {
+            writeArray(0, out);
+            return;
         }
 
-        dataStore.setList(key, list);
-        writeInteger(list.size(), out);
+        long responseArrayLength = end_index - start_index + 1;
+        writeArray((int) responseArrayLength, out);
+
+        // Elements are written from the list's nodes as they are, without a ByteString each
+        list.forEach(start_index, end_index, (buffer, offset, length) -> writeBulkString(buffer, offset, length, out));
+    }
+
+    public void handleLLen(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+        RedisList list = dataStore.getList(key);
+
+        long size = (list == null || list.isEmpty()) ? 0 : list.size();
+        writeInteger(size, out);
+    }
+
+    public void handleLPop(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        pop(command, true, out);
+    }
 
-        blockingManager.notifyBlockedClients(key);
+    public void handleRPop(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        pop(command, false, out);
     }
 
-    public void handleLRange(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 4) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'LRANGE' command", out);
+    // LPOP / RPOP key [count]. With a count the reply is always an array, even of one element.
+    private void pop(RespCommand command, boolean fromHead, OutputStream out) throws IOException {
+        if (command.size() > 3) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'LRANGE' command in subscribed mode", out);
+        long count = -1;
+        if (command.size() == 3) {
+            try {
+                count = command.argToLong(2);
+            } catch (NumberFormatException e) {
+                count = -1;
+            }
+            if (count < 0) {
+                writeError(RedisConstants.ERR_NOT_POSITIVE, out);
+                return;
+            }
+        }
+
+        ByteString key = command.arg(1);
+        RedisList list = dataStore.getList(key);
+
+        if (list == null) {
+            if (count < 0) writeNullBulkString(out);
+            else writeNullArray(out);
             return;
         }
 
-        String key = command.get(1);
-        int start_index = Integer.parseInt(command.get(2));
-        int end_index = Integer.parseInt(command.get(3));
+        if (count < 0) {
+            writeBulkString(fromHead ? list.popHead() : list.popTail(), out);
+        } else {
+            long limit = Math.min(count, list.size());
+            writeArray((int) limit, out);
+            for (long i = 0; i < limit; i++) {
+                writeBulkString(fromHead ? list.popHead() : list.popTail(), out);
+            }
+        }
+        dataStore.removeIfEmpty(key, list);
+    }
 
-        List<String> list = dataStore.getList(key);
+    // LINDEX key index; a negative index counts from the tail
+    public void handleLIndex(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long index;
+        try {
+            index = command.argToLong(2);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
+            return;
+        }
 
-        if (list == null || list.isEmpty()) {
-            writeArray(0, out);
+        RedisList list = dataStore.getList(command.arg(1));
+        if (list == null) {
+            writeNullBulkString(out);
             return;
         }
 
-        if (start_index < 0) start_index = Math.max(list.size() + start_index, 0);
-        if (end_index >= list.size()) end_index = list.size() - 1;
-        else if (end_index < 0) end_index = Math.max(list.size() + end_index, 0);
+        if (index < 0) index += list.size();
+        if (index < 0 || index >= list.size()) {
+            writeNullBulkString(out);
+            return;
+        }
+        writeBulkString(list.get(index), out);
+    }
 
-        if (start_index >= list.size() || start_index > end_index) {
-            writeArray(0, out);
+    // LSET key index element
+    public void handleLSet(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long index;
+        try {
+            index = command.argToLong(2);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
 
-        int responseArrayLength = end_index - start_index + 1;
-        writeArray(responseArrayLength, out);
+        RedisList list = dataStore.getList(command.arg(1));
+        if (list == null) {
+            writeError(RedisConstants.ERR_NO_SUCH_KEY, out);
+            return;
+        }
 
-        for (int i = start_index; i <= end_index; i++) {
-            writeBulkString(list.get(i), out);
+        if (index < 0) index += list.size();
+        if (index < 0 || index >= list.size()) {
+            writeError(RedisConstants.ERR_INDEX_OUT_OF_RANGE, out);
+            return;
         }
+
+        list.set(index, command.arg(3));
+        writeSimpleString(RedisConstants.OK, out);
     }
 
-    public void handleLLen(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'LLEN' command", out);
+    // LINSERT key BEFORE|AFTER pivot element: the new length, 0 for a missing key, -1 without the pivot
+    public void handleLInsert(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        boolean before = command.argEqualsIgnoreCase(2, RedisConstants.BEFORE);
+        if (!before && !command.argEqualsIgnoreCase(2, RedisConstants.AFTER)) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'LLEN' command in subscribed mode", out);
+        RedisList list = dataStore.getList(command.arg(1));
+        if (list == null) {
+            writeInteger(0, out);
             return;
         }
 
-        String key = command.get(1);
-        List<String> list = dataStore.getList(key);
+        writeInteger(list.insert(command.arg(3), command.arg(4), before) ? list.size() : -1, out);
+    }
 
-        int size = (list == null || list.isEmpty()) ? 0 : list.size();
-        writeInteger(size, out);
+    // LTRIM key start stop. Nodes wholly outside the range are dropped without visiting their elements.
+    public void handleLTrim(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long start, end;
+        try {
+            start = command.argToLong(2);
+            end = command.argToLong(3);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
+            return;
+        }
+
+        ByteString key = command.arg(1);
+        RedisList list = dataStore.getList(key);
+        if (list == null) {
+            writeSimpleString(RedisConstants.OK, out);
+            return;
+        }
+
+        long size = list.size();
+        if (start < 0) start = Math.max(size + start, 0);
+        if (end < 0) end += size;
+        if (end >= size) end = size - 1;
+
+        if (start > end || start >= size) {
+            dataStore.delete(key);
+        } else {
+            list.trim(start, end);
+        }
+        writeSimpleString(RedisConstants.OK, out);
     }
 
-    public void handleLPop(String clientId,List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'LPOP' command", out);
+    // LREM key count element: count > 0 removes from the head, < 0 from the tail, 0 every match
+    public void handleLRem(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long count;
+        try {
+            count = command.argToLong(2);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'LPOP' command in subscribed mode", out);
+        ByteString key = command.arg(1);
+        RedisList list = dataStore.getList(key);
+        if (list == null) {
+            writeInteger(0, out);
             return;
         }
 
-        String key = command.get(1);
-        List<String> list = dataStore.getList(key);
+        long limit = count == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(count);
+        long removed = list.remove(command.arg(3), limit, count < 0);
+        dataStore.removeIfEmpty(key, list);
+        writeInteger(removed, out);
+    }
 
-        if (list == null || list.isEmpty()) {
-            if (command.size() == 2) {
-                writeNullBulkString(out);
+    // LPOS key element [RANK rank] [COUNT num-matches] [MAXLEN len]
+    public void handleLPos(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long rank = 1, count = -1, maxLen = 0;
+        for (int i = 3; i < command.size(); i += 2) {
+            if (i + 1 >= command.size()) {
+                writeError(RedisConstants.ERR_SYNTAX, out);
+                return;
+            }
+            long value;
+            try {
+                value = command.argToLong(i + 1);
+            } catch (NumberFormatException e) {
+                writeError(RedisConstants.ERR_NOT_INTEGER, out);
+                return;
+            }
+
+            if (command.argEqualsIgnoreCase(i, RedisConstants.RANK)) {
+                if (value == 0) {
+                    writeError(RedisConstants.ERR_RANK_ZERO, out);
+                    return;
+                }
+                if (value == Long.MIN_VALUE) {
+                    writeError(RedisConstants.ERR_NOT_INTEGER, out);
+                    return;
+                }
+                rank = value;
+            } else if (command.argEqualsIgnoreCase(i, RedisConstants.COUNT)) {
+                if (value < 0) {
+                    writeError(RedisConstants.ERR_COUNT_NEGATIVE, out);
+                    return;
+                }
+                count = value;
+            } else if (command.argEqualsIgnoreCase(i, RedisConstants.MAXLEN)) {
+                if (value < 0) {
+                    writeError(RedisConstants.ERR_MAXLEN_NEGATIVE, out);
+                    return;
+                }
+                maxLen = value;
             } else {
-                writeArray(0, out);
+                writeError(RedisConstants.ERR_SYNTAX, out);
+                return;
             }
-            return;
         }
 
-        int limit = 1;
-        if (command.size() > 2) limit = Integer.parseInt(command.get(2));
-        if (limit > list.size()) limit = list.size();
-
-        if (limit > 1) {
-            writeArray(limit, out);
+        RedisList list = dataStore.getList(command.arg(1));
+        List<Long> positions = new ArrayList<>();
+        if (list != null) {
+            byte[] target = command.arg(2).bytes();
+            long wanted = count == 0 ? Long.MAX_VALUE : Math.max(count, 1);
+            long skip = Math.abs(rank) - 1;
+            long maxCompared = maxLen;
+            list.scan(rank < 0, new RedisList.ElementScanner() {
+                long compared;
+                long toSkip = skip;
+
+                @Override
+                public boolean visit(long index, byte[] buffer, int offset, int length) {
+                    if (maxCompared > 0 && compared++ == maxCompared) return false;
+                    if (!Arrays.equals(buffer, offset, offset + length, target, 0, target.length)) return true;
+                    if (toSkip > 0) {
+                        toSkip--;
+                        return true;
+                    }
+                    positions.add(index);
+                    return positions.size() < wanted;
+                }
+            });
         }
 
-        for (int i = 0; i < limit; i++) {
-            String poppedString = list.remove(0);
-            writeBulkString(poppedString, out);
+        if (count < 0) {
+            if (positions.isEmpty()) writeNullBulkString(out);
+            else writeInteger(positions.get(0), out);
+            return;
         }
+        writeArray(positions.size(), out);
+        for (long position : positions) writeInteger(position, out);
     }
 
-    public void handleBLPop(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'BLPOP' command", out);
+    // LMOVE source destination LEFT|RIGHT LEFT|RIGHT
+    public void handleLMove(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        int from = side(command, 3), to = side(command, 4);
+        if (from < 0 || to < 0) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
             return;
         }
+        move(command.arg(1), command.arg(2), from == 0, to == 0, out);
+    }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'BLPOP' command in subscribed mode", out);
+    // RPOPLPUSH source destination, the same as LMOVE source destination RIGHT LEFT
+    public void handleRPopLPush(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        move(command.arg(1), command.arg(2), false, true, out);
+    }
+
+    // 0 for LEFT, 1 for RIGHT, -1 for anything else
+    private static int side(RespCommand command, int index) {
+        if (command.argEqualsIgnoreCase(index, RedisConstants.LEFT)) return 0;
+        if (command.argEqualsIgnoreCase(index, RedisConstants.RIGHT)) return 1;
+        return -1;
+    }
+
+    private void move(ByteString source, ByteString destination, boolean fromHead, boolean toHead, OutputStream out) throws IOException {
+        RedisList list = dataStore.getList(source);
+        if (list == null) {
+            writeNullBulkString(out);
             return;
         }
 
-        String key = command.get(1);
-        double timeOut = Double.parseDouble(command.get(2));
+        // Looked up before popping, so a destination of the wrong type leaves the source untouched
+        boolean sameKey = source.equals(destination);
+        RedisList target = sameKey ? list : dataStore.getOrCreateList(destination);
 
-        List<String> list = dataStore.getList(key);
+        ByteString element = fromHead ? list.popHead() : list.popTail();
+        if (toHead) target.pushHead(element);
+        else target.pushTail(element);
+        if (!sameKey) dataStore.removeIfEmpty(source, list);
 
-        // If the list is not empty, pop the element
-        if (list != null && !list.isEmpty()) {
-            String poppedElement = list.remove(0);
+        writeBulkString(element, out);
 
-            // return array - [key, value]
-            writeArray(2, out);
-            writeBulkString(key, out);
-            writeBulkString(poppedElement, out);
+        blockingManager.signalKeyAsReady(destination);
+    }
+
+    public void handleBLPop(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        blockingPop(client, command, true, out);
+    }
 
+    public void handleBRPop(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        blockingPop(client, command, false, out);
+    }
+
+    // BLPOP / BRPOP key [key ...] timeout: pops from the first non-empty key, else blocks on all of them
+    private void blockingPop(ClientContext client, RespCommand command, boolean fromHead, OutputStream out) throws IOException {
+        double timeout = parseBlockingTimeout(command, command.size() - 1, out);
+        if (timeout < 0) return;
+
+        List<ByteString> keys = new ArrayList<>(command.size() - 2);
+        for (int i = 1; i < command.size() - 1; i++) {
+            ByteString key = command.arg(i);
+            RedisList list = dataStore.getList(key);
+            if (list != null) {
+                ByteString element = fromHead ? list.popHead() : list.popTail();
+                dataStore.removeIfEmpty(key, list);
+
+                writeArray(2, out);
+                writeBulkString(key, out);
+                writeBulkString(element, out);
+                // Replicas see the pop it was, not a command that could block
+                propagateAs = RespCommand.of(fromHead ? LPOP : RPOP, key);
+                return;
+            }
+            keys.add(key);
+        }
+
+        // Inside a transaction a blocking command behaves as if it timed out right away
+        if (callDepth > 1) {
+            writeNullBulkString(out);
             return;
         }
+        blockingManager.addBlockedClient(new BlockedClient(keys, client.getDb(), fromHead, null, false, timeout, out));
+    }
+
+    // BLMOVE source destination LEFT|RIGHT LEFT|RIGHT timeout
+    public void handleBLMove(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        int from = side(command, 3), to = side(command, 4);
+        if (from < 0 || to < 0) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
+            return;
+        }
+        blockingMove(client, command.arg(1), command.arg(2), from == 0, to == 0, 5, command, out);
+    }
 
-        // If the list is empty, the command blocks until timeout reached or an element is pushed
-        blockingManager.addBlockedClient(key, timeOut, out);
+    // BRPOPLPUSH source destination timeout, the same as BLMOVE source destination RIGHT LEFT timeout
+    public void handleBRPopLPush(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        blockingMove(client, command.arg(1), command.arg(2), false, true, 3, command, out);
     }
 
-    public void handleXAdd(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 5) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'XADD' command", out);
+    private void blockingMove(ClientContext client, ByteString source, ByteString destination, boolean fromHead, boolean toHead,
+                              int timeoutIndex, RespCommand command, OutputStream out) throws IOException {
+        double timeout = parseBlockingTimeout(command, timeoutIndex, out);
+        if (timeout < 0) return;
+
+        if (dataStore.getList(source) != null) {
+            move(source, destination, fromHead, toHead, out);
+            propagateAs = RespCommand.of(LMOVE, source, destination, fromHead ? LEFT : RIGHT, toHead ? LEFT : RIGHT);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'XADD' command in subscribed mode", out);
+        if (callDepth > 1) {
+            writeNullBulkString(out);
             return;
         }
+        blockingManager.addBlockedClient(new BlockedClient(List.of(source), client.getDb(), fromHead, destination, toHead, timeout, out));
+    }
+
+    // Timeout in milliseconds, as XREAD BLOCK and WAIT take it; -1 once an error has been written
+    private static long parseMillisTimeout(RespCommand command, int index, OutputStream out) throws IOException {
+        long timeout;
+        try {
+            timeout = command.argToLong(index);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_TIMEOUT_NOT_INTEGER, out);
+            return -1;
+        }
+        if (timeout < 0) {
+            writeError(RedisConstants.ERR_TIMEOUT_NEGATIVE, out);
+            return -1;
+        }
+        return timeout;
+    }
+
+    // A sorted set score: a float, or inf, +inf or -inf; NaN once an error has been written
+    private static double parseScore(RespCommand command, int index, OutputStream out) throws IOException {
+        if (command.argEqualsIgnoreCase(index, RedisConstants.INF) || command.argEqualsIgnoreCase(index, RedisConstants.POSITIVE_INF)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (command.argEqualsIgnoreCase(index, RedisConstants.NEGATIVE_INF)) return Double.NEGATIVE_INFINITY;
+        try {
+            return command.arg(index).parseDouble();
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_FLOAT, out);
+            return Double.NaN;
+        }
+    }
+
+    // Timeout in seconds, 0 to block forever; -1 once an error has been written
+    private static double parseBlockingTimeout(RespCommand command, int index, OutputStream out) throws IOException {
+        double timeout;
+        try {
+            timeout = command.arg(index).parseDouble();
+        } catch (NumberFormatException e) {
+            timeout = Double.NaN;
+        }
+        if (!Double.isFinite(timeout)) {
+            writeError(RedisConstants.ERR_TIMEOUT_NOT_FLOAT, out);
+            return -1;
+        }
+        if (timeout < 0) {
+            writeError(RedisConstants.ERR_TIMEOUT_NEGATIVE, out);
+            return -1;
+        }
+        return timeout;
+    }
 
+    public void handleXAdd(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         if ((command.size() - 3) % 2 != 0) {
             writeError("ERR wrong number of arguments for XADD", out);
             return;
         }
 
-        String streamKey = command.get(1);
+        ByteString streamKey = command.arg(1);
         String entryId = command.get(2);
 
         RedisStream stream = dataStore.getStream(streamKey);
-        if (stream == null) stream = new RedisStream();
+        boolean created = stream == null;
+        if (created) stream = new RedisStream();
 
-        Map<String, String> fields = new HashMap<>();
+        Map<ByteString, ByteString> fields = new HashMap<>();
         for (int i = 3; i < command.size(); i += 2) {
-            String key = command.get(i);
-            String value = command.get(i + 1);
-            fields.put(key, value);
+            fields.put(command.arg(i), command.arg(i + 1));
         }
 
         StreamEntry newEntry;
@@ -373,24 +885,14 @@ public class CommandHandlers {
         }
 
         stream.addEntry(newEntry);
-        dataStore.setStream(streamKey, stream);
+        if (created) dataStore.setStream(streamKey, stream);
 
         blockingManager.notifyBlockedStreamClients(streamKey);
         writeBulkString(newEntry.getId(), out);
     }
 
-    public void handleXRange(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 4) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'XRANGE' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'XRANGE' command in subscribed mode", out);
-            return;
-        }
-
-        String streamKey = command.get(1);
+    public void handleXRange(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString streamKey = command.arg(1);
         String startId = command.get(2);
         String endId = command.get(3);
 
@@ -407,32 +909,23 @@ public class CommandHandlers {
             writeArray(2, out); // id, list of pairs
             writeBulkString(entry.getId(), out);
 
-            Map<String, String> fields = entry.getFields();
+            Map<ByteString, ByteString> fields = entry.getFields();
             writeArray(2 * fields.size(), out); // key-value
 
-            for (Map.Entry<String, String> it : fields.entrySet()) {
+            for (Map.Entry<ByteString, ByteString> it : fields.entrySet()) {
                 writeBulkString(it.getKey(), out);
                 writeBulkString(it.getValue(), out);
             }
         }
     }
 
-    public void handleXRead(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 4) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'XREAD' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'XREAD' command in subscribed mode", out);
-            return;
-        }
-
+    public void handleXRead(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         int currentIndex = 1;
-        double blockTimeout = -1;
+        long blockTimeout = -1;
 
         if ("BLOCK".equalsIgnoreCase(command.get(currentIndex))) {
-            blockTimeout = Double.parseDouble(command.get(currentIndex + 1));
+            blockTimeout = parseMillisTimeout(command, currentIndex + 1, out);
+            if (blockTimeout < 0) return;
             currentIndex += 2;
         }
 
@@ -443,11 +936,11 @@ public class CommandHandlers {
 
         currentIndex++;
 
-        List<String> streamKeys = new ArrayList<>();
+        List<ByteString> streamKeys = new ArrayList<>();
         List<String> startIds = new ArrayList<>();
 
         while (currentIndex < command.size() && !command.get(currentIndex).contains("-") && !"$".equals(command.get(currentIndex)))
-            streamKeys.add(command.get(currentIndex++));
+            streamKeys.add(command.arg(currentIndex++));
         while (currentIndex < command.size()) startIds.add(command.get(currentIndex++));
 
         if (streamKeys.size() != startIds.size()) {
@@ -459,7 +952,7 @@ public class CommandHandlers {
         boolean hasData = false;
 
         for (int i = 0; i < streamKeys.size(); i++) {
-            String streamKey = streamKeys.get(i);
+            ByteString streamKey = streamKeys.get(i);
             String startId = startIds.get(i);
 
             RedisStream stream = dataStore.getStream(streamKey);
@@ -486,152 +979,292 @@ public class CommandHandlers {
             return;
         }
 
-        blockingManager.addBlockedStreamClient(streamKeys, startIds, blockTimeout, out);
+        blockingManager.addBlockedStreamClient(streamKeys, startIds, client.getDb(), blockTimeout, out);
     }
 
-    public void handleIncr(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'INCR' command", out);
-            return;
-        }
+    // Non-blocking XREAD over the given streams of this shard; used to gather a read spanning shards
+    public List<StreamReadResult> readStreams(int db, List<ByteString> streamKeys, List<String> startIds) {
+        List<StreamReadResult> readResults = new ArrayList<>();
+        dataStore.select(db);
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'INCR' command in subscribed mode", out);
-            return;
-        }
+        for (int i = 0; i < streamKeys.size(); i++) {
+            ByteString streamKey = streamKeys.get(i);
+            RedisStream stream = dataStore.getStream(streamKey);
+            if (stream == null) continue;
 
-        if (dataStore.isMultiEnabled(clientId)) {
-            dataStore.putCommandInQueue(clientId, command, out);
-            writeSimpleString("QUEUED", out);
-            return;
+            String startId = startIds.get(i);
+            if ("$".equals(startId)) continue;
+
+            List<StreamEntry> entries = stream.getEntriesInRange(startId, "+", true);
+            if (!entries.isEmpty()) readResults.add(new StreamReadResult(streamKey, entries));
         }
+        return readResults;
+    }
 
-        String key = command.get(1);
-        String value = dataStore.getValue(key);
+    public void handleIncr(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        incrementBy(command.arg(1), 1, out);
+    }
 
-        if (value != null) {
-            try {
-                int incrValue = Integer.parseInt(value) + 1;
-                dataStore.set(key, String.valueOf(incrValue));
-                writeInteger(incrValue, out);
-            } catch (NumberFormatException e) {
-                writeError("ERR value is not an integer or out of range", out);
-            }
-        } else {
-            dataStore.set(key, "1");
-            writeInteger(1, out);
-        }
+    public void handleDecr(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        incrementBy(command.arg(1), -1, out);
     }
 
-    public void handleMulti(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.isEmpty()) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'MULTI' command", out);
+    public void handleIncrBy(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long increment;
+        try {
+            increment = command.argToLong(2);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
+        incrementBy(command.arg(1), increment, out);
+    }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'MULTI' command in subscribed mode", out);
+    public void handleDecrBy(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long decrement;
+        try {
+            decrement = command.argToLong(2);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
 
-        dataStore.enableMulti(clientId);
-        writeSimpleString("OK", out);
+        if (decrement == Long.MIN_VALUE) {
+            writeError(RedisConstants.ERR_DECREMENT_OVERFLOW, out);
+            return;
+        }
+        incrementBy(command.arg(1), -decrement, out);
     }
 
-    public void handleExec(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.isEmpty()) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'EXEC' command", out);
-            return;
+    private void incrementBy(ByteString key, long delta, OutputStream out) throws IOException {
+        try {
+            writeInteger(dataStore.incrementBy(key, delta), out);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
+        } catch (ArithmeticException e) {
+            writeError(RedisConstants.ERR_OVERFLOW, out);
         }
+    }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'EXEC' command in subscribed mode", out);
+    // Replicated as SET ... KEEPTTL with the resulting value, so replicas never redo the float arithmetic
+    public void handleIncrByFloat(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString key = command.arg(1);
+        ByteString value;
+        try {
+            value = dataStore.incrementByFloat(key, command.arg(2).parseDouble());
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_FLOAT, out);
+            return;
+        } catch (ArithmeticException e) {
+            writeError(RedisConstants.ERR_NAN_OR_INFINITY, out);
             return;
         }
 
-        if (!dataStore.isMultiEnabled(clientId)) {
+        propagateAs = RespCommand.of(SET, key, value, KEEPTTL);
+        writeBulkString(value, out);
+    }
+
+    public void handleMulti(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        client.startMulti();
+        writeSimpleString(RedisConstants.OK, out);
+    }
+
+    public void handleExec(ClientContext client, RespCommand command, OutputStream out) throws IOException, InterruptedException {
+        if (!client.isMulti()) {
             writeError("ERR EXEC without MULTI", out);
             return;
         }
 
-        dataStore.disableMulti(clientId);
+        client.endMulti();
 
-        if (!dataStore.hasQueuedCommand(clientId)) {
+        if (!client.hasQueuedCommand()) {
             writeArray(0, out);
             return;
         }
 
-        writeArray(dataStore.getQueuedCommandSize(clientId), out);
-        while (dataStore.hasQueuedCommand(clientId)) {
-            QueuedCommand queuedCommand = dataStore.pollQueuedCommand(clientId);
-            List<String> commandArray = queuedCommand.getCommand();
+        writeArray(client.getQueuedCommandSize(), out);
+        while (client.hasQueuedCommand()) {
+            QueuedCommand queuedCommand = client.pollQueuedCommand();
+            RespCommand commandArray = queuedCommand.getCommand();
             OutputStream commandOutPutStream = queuedCommand.getOutputStream();
 
-            if (RedisConstants.SET.equals(commandArray.get(0)))
-                handleSet(clientId, commandArray, commandOutPutStream);
-            if (RedisConstants.GET.equals(commandArray.get(0)))
-                handleGet(clientId, commandArray, commandOutPutStream);
-            if (RedisConstants.INCR.equals(commandArray.get(0)))
-                handleIncr(clientId, commandArray, commandOutPutStream);
+            call(CommandTable.lookup(commandArray, 0), client, commandArray, commandOutPutStream);
         }
     }
 
-    public void handleDiscard(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.isEmpty()) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'DISCARD' command", out);
+    public void handleDiscard(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        if (!client.hasQueuedCommand()) {
+            writeError("ERR DISCARD without MULTI", out);
             return;
         }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'DISCARD' command in subscribed mode", out);
-            return;
-        }
+        client.discardQueuedCommands();
+        writeSimpleString(RedisConstants.OK, out);
+    }
 
-        if (!dataStore.hasQueuedCommand(clientId)) {
-            writeError("ERR DISCARD without MULTI", out);
-            return;
-        }
+    // INFO [section]: without a section every section is returned
+    public void handleInfo(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        String section = command.size() > 1 ? command.get(1).toLowerCase() : "all";
+        boolean all = "all".equals(section) || "everything".equals(section) || "default".equals(section);
+        StringBuilder info = new StringBuilder();
+
+        if (all || "replication".equals(section)) {
+            info.append("# Replication\r\n");
+            if (serverConfig.isReplica()) info.append("role:slave\r\n");
+            else info.append("role:master\r\nmaster_repl_offset:0\r\nmaster_replid:8371b4fb1155b71f4a04d3e1bc3e18c4a990aeeb\r\n");
+        }
+
+        if (all || "memory".equals(section)) {
+            ServerStats stats = serverConfig.getStats();
+            long dataset = stats.getDatasetBytes();
+            long overhead = memoryOverhead(stats);
+            long used = dataset + overhead;
+            if (info.length() > 0) info.append("\r\n");
+            info.append("# Memory\r\n");
+            info.append("used_memory:").append(used).append("\r\n");
+            info.append("used_memory_human:").append(bytesToHuman(used)).append("\r\n");
+            info.append("used_memory_overhead:").append(overhead).append("\r\n");
+            info.append("used_memory_dataset:").append(dataset).append("\r\n");
+            info.append("used_memory_dataset_perc:").append(percentOf(dataset, used)).append("%\r\n");
+            info.append("mem_clients_normal:").append(ClientMemory.get()).append("\r\n");
+            info.append("mem_replication_backlog:0\r\n");
+            long offHeapUsed = stats.getOffHeapUsedBytes();
+            long offHeapAllocated = stats.getOffHeapAllocatedBytes();
+            info.append("offheap_threshold:").append(serverConfig.getOffHeapThreshold()).append("\r\n");
+            info.append("offheap_used_memory:").append(offHeapUsed).append("\r\n");
+            info.append("offheap_used_memory_human:").append(bytesToHuman(offHeapUsed)).append("\r\n");
+            info.append("offheap_allocated_memory:").append(offHeapAllocated).append("\r\n");
+            // Slabs carved or freed but not holding a value, as Redis' allocator fragmentation
+            info.append("offheap_fragmentation_bytes:").append(offHeapAllocated - offHeapUsed).append("\r\n");
+            info.append("offheap_fragmentation_ratio:").append(String.format(Locale.ROOT, "%.2f", offHeapUsed == 0 ? 0.0 : (double) offHeapAllocated / offHeapUsed)).append("\r\n");
+            info.append("maxmemory:").append(serverConfig.getMaxmemory()).append("\r\n");
+            info.append("maxmemory_human:").append(bytesToHuman(serverConfig.getMaxmemory())).append("\r\n");
+            info.append("maxmemory_policy:").append(serverConfig.getMaxmemoryPolicy()).append("\r\n");
+        }
+
+        if (all || "stats".equals(section)) {
+            ServerStats stats = serverConfig.getStats();
+            if (info.length() > 0) info.append("\r\n");
+            info.append("# Stats\r\n");
+            info.append("expired_keys:").append(stats.getExpiredKeys()).append("\r\n");
+            info.append("expired_stale_perc:").append(String.format(Locale.ROOT, "%.2f", stats.getExpiredStalePercent())).append("\r\n");
+            info.append("expired_time_cap_reached_count:").append(stats.getExpireCycleTimeCapReached()).append("\r\n");
+            info.append("expire_cycle_cpu_milliseconds:").append(stats.getExpireCycleMillis()).append("\r\n");
+            info.append("evicted_keys:").append(stats.getEvictedKeys()).append("\r\n");
+        }
+
+        writeBulkString(info.toString(), out);
+    }
 
-        dataStore.discardQueuedCommands(clientId);
-        writeSimpleString("OK", out);
+    // Everything that is not keys and values: the keyspace dicts, the TTL indexes and client buffers.
+    // There is no replication backlog (replicas always resync in full), so it adds nothing.
+    private static long memoryOverhead(ServerStats stats) {
+        return stats.getKeyspaceOverheadBytes() + stats.getExpiresOverheadBytes() + ClientMemory.get();
     }
 
-    public void handleInfo(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.isEmpty()) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'INFO' command", out);
-            return;
-        }
+    private static String percentOf(long part, long total) {
+        return String.format(Locale.ROOT, "%.2f", total == 0 ? 0 : part * 100.0 / total);
+    }
 
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'INFO' command in subscribed mode", out);
-            return;
+    // 1024-based, two decimals, as Redis formats the *_human fields
+    private static String bytesToHuman(long bytes) {
+        String units = "KMGTP";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
         }
+        return unit < 0 ? bytes + "B" : String.format(Locale.ROOT, "%.2f%c", value, units.charAt(unit));
+    }
+
+    // MEMORY USAGE key [SAMPLES count] | MEMORY STATS
+    public void handleMemory(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        if (command.argEqualsIgnoreCase(1, RedisConstants.USAGE) && command.size() >= 3) {
+            int samples = RedisConstants.MEMORY_ESTIMATE_SAMPLES;
+            if (command.size() == 5 && command.argEqualsIgnoreCase(3, RedisConstants.SAMPLES)) {
+                long count;
+                try {
+                    count = command.argToLong(4);
+                } catch (NumberFormatException e) {
+                    writeError(RedisConstants.ERR_NOT_INTEGER, out);
+                    return;
+                }
+                if (count < 0) {
+                    writeError(RedisConstants.ERR_SYNTAX, out);
+                    return;
+                }
+                // SAMPLES 0 costs every element
+                samples = (int) Math.min(count, Integer.MAX_VALUE);
+            } else if (command.size() != 3) {
+                writeError(RedisConstants.ERR_SYNTAX, out);
+                return;
+            }
 
-        if (serverConfig.isReplica()) writeBulkString("role:slave", out);
-        else {
-            writeBulkString("role:master\r\nmaster_repl_offset:0\r\nmaster_replid:8371b4fb1155b71f4a04d3e1bc3e18c4a990aeeb", out);
+            long usage = dataStore.getMemoryUsage(command.arg(2), samples);
+            if (usage == DataStore.KEY_MISSING) writeNullBulkString(out);
+            else writeInteger(usage, out);
+        } else if (command.argEqualsIgnoreCase(1, RedisConstants.STATS) && command.size() == 2) {
+            writeMemoryStats(out);
+        } else {
+            writeError(RedisConstants.ERR_UNKNOWN_SUBCOMMAND + " '" + command.get(1) + "'. Try MEMORY HELP.", out);
         }
     }
 
-    public void handleReplconf(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'REPLCONF' command", out);
-            return;
-        }
+    // Flattened name/value pairs, with the keyspace structures nested under db.0
+    private void writeMemoryStats(OutputStream out) throws IOException {
+        ServerStats stats = serverConfig.getStats();
+        long dataset = stats.getDatasetBytes();
+        long overhead = memoryOverhead(stats);
+        long used = dataset + overhead;
+        long keys = stats.getKeyCount();
+
+        writeArray(18, out);
+        writeBulkString("total.allocated", out);
+        writeInteger(used, out);
+        writeBulkString("replication.backlog", out);
+        writeInteger(0, out);
+        writeBulkString("clients.normal", out);
+        writeInteger(ClientMemory.get(), out);
+        writeBulkString("db.0", out);
+        writeArray(4, out);
+        writeBulkString("overhead.hashtable.main", out);
+        writeInteger(stats.getKeyspaceOverheadBytes(), out);
+        writeBulkString("overhead.hashtable.expires", out);
+        writeInteger(stats.getExpiresOverheadBytes(), out);
+        writeBulkString("overhead.total", out);
+        writeInteger(overhead, out);
+        writeBulkString("keys.count", out);
+        writeInteger(keys, out);
+        writeBulkString("keys.bytes-per-key", out);
+        writeInteger(keys == 0 ? 0 : used / keys, out);
+        writeBulkString("dataset.bytes", out);
+        writeInteger(dataset, out);
+        writeBulkString("dataset.percentage", out);
+        writeBulkString(percentOf(dataset, used), out);
+    }
 
+    public void handleReplconf(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         String arg1 = command.get(1);
         String arg2 = command.get(2);
 
-        System.out.println("Handling REPLCONF command: " + arg1 + " " + arg2);
+        Log.debug("Handling REPLCONF command: {} {}", arg1, arg2);
 
         switch (arg1) {
             case RedisConstants.LISTENING_PORT:
-                serverConfig.addReplica(out, Integer.parseInt(arg2));
-                writeSimpleString("OK", out);
+                long port;
+                try {
+                    port = command.argToLong(2);
+                } catch (NumberFormatException e) {
+                    writeError(RedisConstants.ERR_NOT_INTEGER, out);
+                    break;
+                }
+                serverConfig.addReplica(out, (int) port);
+                writeSimpleString(RedisConstants.OK, out);
                 break;
 
             case RedisConstants.CAPABILITIES:
-                writeSimpleString("OK", out);
+                writeSimpleString(RedisConstants.OK, out);
                 break;
 
             case RedisConstants.GETACK:
@@ -642,31 +1275,28 @@ public class CommandHandlers {
                 writeBulkString("ACK", out);
                 writeBulkString(offset, out);
 
-                serverConfig.setReplicaOffset(serverConfig.getReplicaOffset() + RedisConstants.GETACK_COMMAND_BYTE_SIZE);
-                System.out.println("getack: " + command + " replica offset: " + serverConfig.getReplicaOffset());
+                Log.debug("getack: {} replica offset: {}", command, offset);
                 break;
 
             case RedisConstants.ACK:
-                System.out.println("Received ACK from replica");
-                int receivedReplicaOffset = Integer.parseInt(arg2);
-
-                if (receivedReplicaOffset >= serverConfig.getMasterOffset()) {
-                    serverConfig.setUpToDateReplicas(serverConfig.getUpToDateReplicas() + 1);
+                Log.debug("Received ACK from replica");
+                int receivedReplicaOffset;
+                try {
+                    receivedReplicaOffset = (int) command.argToLong(2);
+                } catch (NumberFormatException e) {
+                    // ACKs get no reply
+                    Log.warning("Ignoring REPLCONF ACK with an invalid offset: {}", arg2);
+                    break;
                 }
+                serverConfig.recordReplicaAck(receivedReplicaOffset);
 
-                System.out.println("Replica acknowledged offset: " + receivedReplicaOffset +
-                        ", Master offset: " + serverConfig.getMasterOffset());
+                Log.debug("Replica acknowledged offset: {}, Master offset: {}", receivedReplicaOffset, serverConfig.getMasterOffset());
                 break;
         }
 
     }
 
-    public void handlePsync(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'PSYNC' command", out);
-            return;
-        }
-
+    public void handlePsync(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         String replId = command.get(1);
         String psyncOffset = command.get(2);
 
@@ -681,16 +1311,16 @@ public class CommandHandlers {
         }
     }
 
-    public void handleWait(String clientId, List<String> command, OutputStream out) throws IOException, InterruptedException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'WAIT' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'WAIT' command in subscribed mode", out);
+    public void handleWait(ClientContext client, RespCommand command, OutputStream out) throws IOException, InterruptedException {
+        long numReplicas;
+        try {
+            numReplicas = command.argToLong(1);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
+        long duration = parseMillisTimeout(command, 2, out);
+        if (duration < 0) return;
 
         if (!serverConfig.hasReplicas()) {
             writeInteger(0, out);
@@ -705,56 +1335,25 @@ public class CommandHandlers {
         serverConfig.setUpToDateReplicas(0);
         serverConfig.getAck();
 
-        int minimumUpToDateReplica = Integer.parseInt(command.get(1));
-        long duration = Long.parseLong(command.get(2));
-
-        long startTime = System.currentTimeMillis();
-        long endTime = startTime + duration;
-
-        while (System.currentTimeMillis() < endTime) {
-            if (serverConfig.getUpToDateReplicas() >= minimumUpToDateReplica) {
-                System.out.println("wait res sent: " + serverConfig.getUpToDateReplicas());
-                writeInteger(serverConfig.getUpToDateReplicas(), out);
-                return;
-            }
-            Thread.sleep(1);
-        }
+        int minimumUpToDateReplica = (int) Math.min(numReplicas, Integer.MAX_VALUE);
 
-        writeInteger(serverConfig.getUpToDateReplicas(), out);
+        // The acks arrive as commands this executor has to run, so the wait itself happens outside it
+        client.deferReply(() -> writeInteger(serverConfig.awaitUpToDateReplicas(minimumUpToDateReplica, duration), out));
     }
 
-    public void handleZadd(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 4) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ZADD' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ZADD' command in subscribed mode", out);
-            return;
-        }
-
-        String zsetKey = command.get(1);
-        double score = Double.parseDouble(command.get(2));
-        String zsetMember = command.get(3);
+    public void handleZadd(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString zsetKey = command.arg(1);
+        double score = parseScore(command, 2, out);
+        if (Double.isNaN(score)) return;
+        ByteString zsetMember = command.arg(3);
 
         int res = dataStore.addZsetMember(zsetKey, new SortedSetMember(zsetMember, score));
         writeInteger(res, out);
     }
 
-    public void handleZrank(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ZRANK' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ZRANK' command in subscribed mode", out);
-            return;
-        }
-
-        String zsetKey = command.get(1);
-        String zsetMember = command.get(2);
+    public void handleZrank(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString zsetKey = command.arg(1);
+        ByteString zsetMember = command.arg(2);
 
         int rank = dataStore.getZsetMemberRank(zsetKey, zsetMember);
 
@@ -766,91 +1365,52 @@ public class CommandHandlers {
         writeInteger(rank, out);
     }
 
-    public void handleZrange(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 4) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ZRANGE' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ZRANK' command in subscribed mode", out);
+    public void handleZrange(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString zsetKey = command.arg(1);
+        long start;
+        long end;
+        try {
+            start = command.argToLong(2);
+            end = command.argToLong(3);
+        } catch (NumberFormatException e) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
             return;
         }
+        // Indexes past either end of the set are clamped anyway
+        int startIndex = (int) Math.max(Integer.MIN_VALUE, Math.min(start, Integer.MAX_VALUE));
+        int endIndex = (int) Math.max(Integer.MIN_VALUE, Math.min(end, Integer.MAX_VALUE));
 
-        String zsetKey = command.get(1);
-        int startIndex = Integer.parseInt(command.get(2));
-        int endIndex = Integer.parseInt(command.get(3));
-
-        List<String> members = dataStore.getZsetMembers(zsetKey, startIndex, endIndex);
-
-        writeArray(members.size(), out);
-        for(String s: members) writeBulkString(s, out);
+        List<ByteString> members = dataStore.getZsetMembers(zsetKey, startIndex, endIndex);
+        writeBulkArray(members, out);
     }
 
-    public void handleZcard(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ZCARD' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ZCARD' command in subscribed mode", out);
-            return;
-        }
-
-        String zsetKey = command.get(1);
+    public void handleZcard(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString zsetKey = command.arg(1);
         int cardinality = dataStore.getZsetMemberCount(zsetKey);
 
         writeInteger(cardinality, out);
     }
 
-    public void handleZscore(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ZSCORE' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ZSCORE' command in subscribed mode", out);
-            return;
-        }
-
-        String zsetKey = command.get(1);
-        String member = command.get(2);
+    public void handleZscore(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString zsetKey = command.arg(1);
+        ByteString member = command.arg(2);
         double score = dataStore.getZsetMemberScore(zsetKey, member);
 
         writeBulkString(String.valueOf(score), out);
     }
 
-    public void handleZrem(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'ZREM' command", out);
-            return;
-        }
-
-        if(dataStore.isClientSubscribed(clientId) && !dataStore.isAllowedInSubMode(command.get(1))) {
-            writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " 'ZREM' command in subscribed mode", out);
-            return;
-        }
-
-        String zsetKey = command.get(1);
-        String member = command.get(2);
+    public void handleZrem(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        ByteString zsetKey = command.arg(1);
+        ByteString member = command.arg(2);
         int res = dataStore.removeZsetMember(zsetKey, member);
 
         writeInteger(res, out);
     }
 
-    public void handleSubscribe(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'SUBSCRIBE' command", out);
-            return;
-        }
-
-        if(!dataStore.isClientSubscribed(clientId)) dataStore.subscribeClient(clientId);
-
+    public void handleSubscribe(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         String channel = command.get(1);
-        dataStore.subscribeChannel(clientId, channel, out);
-        int count = dataStore.getSubCount(clientId, channel);
+        int count = client.subscribe(channel);
+        dataStore.subscribeChannel(channel, client.getId(), out);
 
         writeArray(3, out);
         writeBulkString(RedisConstants.SUBSCRIBE.toLowerCase(), out);
@@ -858,35 +1418,26 @@ public class CommandHandlers {
         writeInteger(count, out);
     }
 
-    public void handlePublish(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 3) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'PUBLISH' command", out);
-            return;
-        }
-
+    public void handlePublish(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         String channel = command.get(1);
-        String message = command.get(2);
+        ByteString message = command.arg(2);
 
         writeInteger(dataStore.getSubscribedClientsCount(channel), out);
 
-        List<String> publishMessage = new ArrayList<>();
-        publishMessage.add(RedisConstants.message);
-        publishMessage.add(channel);
-        publishMessage.add(message);
-
         List<OutputStream> clients = dataStore.getSubscribedClients(channel);
 
-        for(OutputStream outputStream: clients) writeArray(publishMessage, outputStream);
-    }
-
-    public void handleUnsubscribe(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'UNSUBSCRIBE' command", out);
-            return;
+        for(OutputStream outputStream: clients) {
+            writeArray(3, outputStream);
+            writeBulkString(RedisConstants.message, outputStream);
+            writeBulkString(channel, outputStream);
+            writeBulkString(message, outputStream);
         }
+    }
 
+    public void handleUnsubscribe(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         String channel = command.get(1);
-        int res = dataStore.unsubscribeChannel(clientId, channel);
+        int res = client.unsubscribe(channel);
+        dataStore.unsubscribeChannel(channel, client.getId());
 
         writeArray(3, out);
         writeBulkString(RedisConstants.UNSUBSCRIBE.toLowerCase(), out);
@@ -894,7 +1445,7 @@ public class CommandHandlers {
         writeInteger(res, out);
     }
 
-    public void handleConfig(String clientId, List<String> command, OutputStream out) throws IOException {
+    public void handleConfig(ClientContext client, RespCommand command, OutputStream out) throws IOException {
         if (command.size() < 3 || !command.get(1).equals(RedisConstants.GET)) {
             writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'CONFIG' command", out);
             return;
@@ -909,18 +1460,261 @@ public class CommandHandlers {
         } else if (RedisConstants.DB_FILENAME_ARG.substring(2).equals(arg)) {
             res.add(RedisConstants.DB_FILENAME_ARG.substring(2));
             res.add(serverConfig.getDbFilename());
+        } else if (RedisConstants.MAXMEMORY_ARG.substring(2).equals(arg)) {
+            res.add(RedisConstants.MAXMEMORY_ARG.substring(2));
+            res.add(String.valueOf(serverConfig.getMaxmemory()));
+        } else if (RedisConstants.MAXMEMORY_POLICY_ARG.substring(2).equals(arg)) {
+            res.add(RedisConstants.MAXMEMORY_POLICY_ARG.substring(2));
+            res.add(serverConfig.getMaxmemoryPolicy());
+        } else if (RedisConstants.MAXMEMORY_SAMPLES_ARG.substring(2).equals(arg)) {
+            res.add(RedisConstants.MAXMEMORY_SAMPLES_ARG.substring(2));
+            res.add(String.valueOf(serverConfig.getMaxmemorySamples()));
+        } else if (RedisConstants.OFFHEAP_THRESHOLD_ARG.substring(2).equals(arg)) {
+            res.add(RedisConstants.OFFHEAP_THRESHOLD_ARG.substring(2));
+            res.add(String.valueOf(serverConfig.getOffHeapThreshold()));
+        } else if (RedisConstants.DATABASES_ARG.substring(2).equals(arg)) {
+            res.add(RedisConstants.DATABASES_ARG.substring(2));
+            res.add(String.valueOf(serverConfig.getDatabases()));
         }
 
         writeArray(res, out);
     }
 
-    public void handleKeys(String clientId, List<String> command, OutputStream out) throws IOException {
-        if (command.size() < 2) {
-            writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " 'CONFIG' command", out);
+    // ********************************************************* databases **********************************************************
+
+    public void handleSelect(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        int db = parseDbIndex(command.arg(1));
+        if (db == INVALID_DB) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
+        } else if (db < 0) {
+            writeError(RedisConstants.ERR_DB_INDEX_OUT_OF_RANGE, out);
+        } else {
+            client.setDb(db);
+            writeSimpleString(RedisConstants.OK, out);
+        }
+    }
+
+    // MOVE key db
+    public void handleMove(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        int db = parseDbIndex(command.arg(2));
+        if (db == INVALID_DB) {
+            writeError(RedisConstants.ERR_NOT_INTEGER, out);
+        } else if (db < 0) {
+            writeError(RedisConstants.ERR_INDEX_OUT_OF_RANGE, out);
+        } else if (db == client.getDb()) {
+            writeError(RedisConstants.ERR_SAME_OBJECT, out);
+        } else {
+            writeInteger(dataStore.moveKey(command.arg(1), db) ? 1 : 0, out);
+        }
+    }
+
+    // SWAPDB index1 index2. Runs on every shard at once (see CommandProcessor.broadcast).
+    public void handleSwapDb(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        int first = parseDbIndex(command.arg(1));
+        int second = parseDbIndex(command.arg(2));
+        if (first == INVALID_DB) {
+            writeError(RedisConstants.ERR_INVALID_FIRST_DB, out);
             return;
         }
+        if (second == INVALID_DB) {
+            writeError(RedisConstants.ERR_INVALID_SECOND_DB, out);
+            return;
+        }
+        if (first < 0 || second < 0) {
+            writeError(RedisConstants.ERR_DB_INDEX_OUT_OF_RANGE, out);
+            return;
+        }
+
+        if (first != second) {
+            dataStore.swapDatabases(first, second);
+            // Clients blocked in either database now wait on the other one's keys
+            for (int db : new int[]{first, second}) {
+                dataStore.select(db);
+                blockingManager.serveReadyClients(db);
+            }
+            dataStore.select(client.getDb());
+        }
+        writeSimpleString(RedisConstants.OK, out);
+    }
+
+    // FLUSHDB [ASYNC | SYNC]. Runs on every shard at once (see CommandProcessor.broadcast).
+    public void handleFlushDb(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        if (!isFlushModeValid(command)) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
+            return;
+        }
+        dataStore.flushDatabase(client.getDb());
+        writeSimpleString(RedisConstants.OK, out);
+    }
+
+    // FLUSHALL [ASYNC | SYNC]
+    public void handleFlushAll(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        if (!isFlushModeValid(command)) {
+            writeError(RedisConstants.ERR_SYNTAX, out);
+            return;
+        }
+        dataStore.flushAll();
+        writeSimpleString(RedisConstants.OK, out);
+    }
+
+    // Either mode detaches the old keyspaces in O(1) and leaves them to the garbage collector, which
+    // never visits unreachable objects; ASYNC is accepted for compatibility
+    private static boolean isFlushModeValid(RespCommand command) {
+        if (command.size() == 1) return true;
+        return command.size() == 2 && (command.argEqualsIgnoreCase(1, RedisConstants.ASYNC) || command.argEqualsIgnoreCase(1, RedisConstants.SYNC));
+    }
+
+    private static final int INVALID_DB = Integer.MIN_VALUE;
+
+    // The index, -1 when out of range, INVALID_DB when not an integer
+    private int parseDbIndex(ByteString value) {
+        long index;
+        try {
+            index = value.parseLong();
+        } catch (NumberFormatException e) {
+            return INVALID_DB;
+        }
+        return index < 0 || index >= serverConfig.getDatabases() ? -1 : (int) index;
+    }
+
+    // DEL, and UNLINK as an alias of it: there is no background freeing. Deleting is O(1) per key whatever
+    // the value: its size is already known, an off-heap value gives back its slot, and the collector never
+    // visits objects nobody references.
+    public void handleDel(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        int deleted = 0;
+        for (int i = 1; i < command.size(); i++) {
+            if (dataStore.delete(command.arg(i))) deleted++;
+        }
+        writeInteger(deleted, out);
+    }
+
+    // KEYS pattern. Two passes over the keyspace instead of a copy of it: one counts the matches for the
+    // array header, the other writes each key as it is found. With several shards the processor scatters
+    // KEYS instead and this runs on none of them.
+    public void handleKeys(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        Iterable<ByteString> keys = dataStore.matchingKeys(GlobPattern.compile(command.arg(1)));
+        int count = 0;
+        for (ByteString ignored : keys) count++;
+
+        writeArray(count, out);
+        for (ByteString key : keys) writeBulkString(key, out);
+    }
+
+    // SCAN cursor [MATCH pattern] [COUNT count] [TYPE type]. The processor routes the call to the shard
+    // the cursor names: the low part of the cursor is a shard index, the rest that shard's dict cursor.
+    // A finished shard hands over to the next one, and the last one returns 0.
+    public void handleScan(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        long cursor = parseCursor(command.arg(1));
+        if (cursor < 0) {
+            writeError(RedisConstants.ERR_INVALID_CURSOR, out);
+            return;
+        }
+
+        GlobPattern pattern = GlobPattern.matchAll();
+        int count = RedisConstants.SCAN_DEFAULT_COUNT;
+        RedisObject.Type type = null;
+        for (int i = 2; i < command.size(); i += 2) {
+            if (i + 1 >= command.size()) {
+                writeError(RedisConstants.ERR_SYNTAX, out);
+                return;
+            }
+
+            if (command.argEqualsIgnoreCase(i, RedisConstants.MATCH)) {
+                pattern = GlobPattern.compile(command.arg(i + 1));
+            } else if (command.argEqualsIgnoreCase(i, RedisConstants.COUNT)) {
+                long value;
+                try {
+                    value = command.argToLong(i + 1);
+                } catch (NumberFormatException e) {
+                    writeError(RedisConstants.ERR_NOT_INTEGER, out);
+                    return;
+                }
+                if (value < 1) {
+                    writeError(RedisConstants.ERR_SYNTAX, out);
+                    return;
+                }
+                count = (int) Math.min(value, Integer.MAX_VALUE);
+            } else if (command.argEqualsIgnoreCase(i, RedisConstants.TYPE)) {
+                type = RedisObject.Type.fromName(command.get(i + 1));
+                if (type == null) {
+                    writeError(RedisConstants.ERR_UNKNOWN_TYPE + " '" + command.get(i + 1) + "'", out);
+                    return;
+                }
+            } else {
+                writeError(RedisConstants.ERR_SYNTAX, out);
+                return;
+            }
+        }
+
+        int shards = serverConfig.getShards();
+        int shard = (int) (cursor % shards);
+        List<ByteString> keys = new ArrayList<>();
+        long next = dataStore.scan(cursor / shards, count, pattern, type, keys);
+
+        if (next != 0) next = next * shards + shard;
+        else if (shard + 1 < shards) next = shard + 1;
+
+        writeArray(2, out);
+        writeBulkString(ByteString.valueOf(next), out);
+        writeBulkArray(keys, out);
+    }
+
+    // A cursor is an unsigned decimal; -1 when it isn't one
+    public static long parseCursor(ByteString value) {
+        try {
+            long cursor = value.parseLong();
+            return cursor < 0 ? -1 : cursor;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void handleCommand(ClientContext client, RespCommand command, OutputStream out) throws IOException {
+        if (command.size() == 1) {
+            List<CommandDescriptor> commands = CommandTable.all();
+            writeArray(commands.size(), out);
+            for (CommandDescriptor descriptor : commands) writeCommandInfo(descriptor, out);
+            return;
+        }
+
+        String subcommand = command.get(1).toUpperCase();
+        switch (subcommand) {
+            case "COUNT":
+                writeInteger(CommandTable.all().size(), out);
+                break;
+            case "INFO":
+                writeArray(command.size() - 2, out);
+                for (int i = 2; i < command.size(); i++) {
+                    CommandDescriptor descriptor = CommandTable.lookup(command, i);
+                    if (descriptor == null) writeNullArray(out);
+                    else writeCommandInfo(descriptor, out);
+                }
+                break;
+            case "LIST":
+                writeArray(CommandTable.all().size(), out);
+                for (CommandDescriptor descriptor : CommandTable.all()) writeBulkString(descriptor.getName().toLowerCase(), out);
+                break;
+            case "DOCS":
+                writeArray(0, out);
+                break;
+            default:
+                writeError("ERR unknown subcommand '" + command.get(1) + "'. Try COMMAND HELP.", out);
+        }
+    }
+
+    // name, arity, flags, first key, last key, key step, ACL categories, tips, key specs, subcommands
+    private void writeCommandInfo(CommandDescriptor descriptor, OutputStream out) throws IOException {
+        writeArray(10, out);
+        writeBulkString(descriptor.getName().toLowerCase(), out);
+        writeInteger(descriptor.getArity(), out);
+
+        List<String> flags = descriptor.getFlagNames();
+        writeArray(flags.size(), out);
+        for (String flag : flags) writeSimpleString(flag, out);
 
-        List<String> keys = dataStore.getAllKeys();
-        writeArray(keys, out);
+        writeInteger(descriptor.getFirstKey(), out);
+        writeInteger(descriptor.getLastKey(), out);
+        writeInteger(descriptor.getKeyStep(), out);
+        for (int i = 0; i < 4; i++) writeArray(0, out);
     }
 }
@@ -1,135 +1,423 @@
 package com.redis.server.command;
 
 import com.redis.server.RedisConstants;
-import com.redis.server.blocking.BlockingOperationsManager;
-import com.redis.server.model.ServerConfig;
+import com.redis.server.client.ClientContext;
+import com.redis.server.logging.Log;
+import com.redis.server.model.ByteString;
+import com.redis.server.model.StreamReadResult;
+import com.redis.server.protocol.RespCommand;
 import com.redis.server.protocol.RespProtocol;
-import com.redis.server.storage.DataStore;
+import com.redis.server.storage.GlobPattern;
+import com.redis.server.storage.WrongTypeException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
 
 public class CommandProcessor {
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
 
-    private final CommandHandlers handlers;
-    private final DataStore dataStore;
-
-    public CommandProcessor(ServerConfig serverConfig, DataStore dataStore, BlockingOperationsManager blockingManager) {
-        this.dataStore = dataStore;
-        this.handlers = new CommandHandlers(dataStore, blockingManager, serverConfig);
-    }
-
-    public void processCommand(String clientId, List<String> command, OutputStream out) throws IOException, InterruptedException {
-        String commandName = command.get(0).toUpperCase();
-
-        switch (commandName) {
-            case RedisConstants.PING:
-                handlers.handlePing(clientId, command, out);
-                break;
-            case RedisConstants.ECHO:
-                handlers.handleEcho(clientId, command, out);
-                break;
-            case RedisConstants.TYPE:
-                handlers.handleType(clientId, command, out);
-                break;
-            case RedisConstants.SET:
-                handlers.handleSet(clientId, command, out);
-                break;
-            case RedisConstants.GET:
-                handlers.handleGet(clientId, command, out);
-                break;
-            case RedisConstants.RPUSH:
-                handlers.handleRPush(clientId, command, out);
-                break;
-            case RedisConstants.LPUSH:
-                handlers.handleLPush(clientId, command, out);
-                break;
-            case RedisConstants.LRANGE:
-                handlers.handleLRange(clientId, command, out);
-                break;
-            case RedisConstants.LLEN:
-                handlers.handleLLen(clientId, command, out);
-                break;
-            case RedisConstants.LPOP:
-                handlers.handleLPop(clientId, command, out);
-                break;
-            case RedisConstants.BLPOP:
-                handlers.handleBLPop(clientId, command, out);
-                break;
-            case RedisConstants.XADD:
-                handlers.handleXAdd(clientId, command, out);
-                break;
-            case RedisConstants.XRANGE:
-                handlers.handleXRange(clientId, command, out);
-                break;
-            case RedisConstants.XREAD:
-                handlers.handleXRead(clientId, command, out);
-                break;
-            case RedisConstants.INCR:
-                handlers.handleIncr(clientId, command, out);
-                break;
+    // Routing targets other than a shard index
+    private static final int SCATTER_KEYS = -1;
+    private static final int SCATTER_XREAD = -2;
+    private static final int CROSSSLOT = -3;
+    private static final int BROADCAST = -4;
+
+    private static final CommandDescriptor REPLCONF = CommandTable.lookup(RedisConstants.REPLCONF);
+
+    private final Shard[] shards;
+    // Broadcasts queue on every shard in the same order, so two of them can never wait on each other
+    private final Object broadcastLock = new Object();
+
+    // With one shard every command runs on its executor in arrival order. With several, keyed commands
+    // run on the shard owning the key; everything else (server, replication, pub/sub, MULTI control)
+    // runs on shard 0.
+    public CommandProcessor(Shard[] shards) {
+        this.shards = shards;
+    }
+
+    // WAIT parks until replicas acknowledge, which needs other commands (their REPLCONF ACKs) to keep
+    // executing; the connection's side runs it with executeWait / submitWait
+    public boolean runsOutsideExecutor(RespCommand command) {
+        return command.argEqualsIgnoreCase(0, RedisConstants.WAIT);
+    }
+
+    // Executes a batch of pipelined commands and waits for it (blocking socket modes)
+    public void executeBatch(ClientContext client, List<RespCommand> batch) throws IOException, InterruptedException {
+        if (batch.isEmpty()) return;
+
+        if (shards.length == 1) {
+            Shard shard = shards[0];
+            shard.getExecutor().call(() -> {
+                for (RespCommand command : batch) processInRun(shard, client, command, CommandTable.lookup(command, 0));
+            });
+            return;
+        }
+
+        CommandExecutor.await(dispatch(client, batch, COMPLETED));
+    }
+
+    // Queues a batch of pipelined commands without waiting; replies reach the client through its stream.
+    // onComplete runs once every command of the batch has executed and the batch is no longer read.
+    public void submitBatch(ClientContext client, List<RespCommand> batch, Runnable onComplete) {
+        if (batch.isEmpty()) {
+            onComplete.run();
+            return;
+        }
+
+        if (shards.length == 1) {
+            Shard shard = shards[0];
+            shard.getExecutor().submit(() -> {
+                try {
+                    for (RespCommand command : batch) processInRun(shard, client, command, CommandTable.lookup(command, 0));
+                } finally {
+                    onComplete.run();
+                }
+            });
+            return;
+        }
+
+        // Chained after the client's previous batch so its replies keep their order across shards
+        CompletableFuture<Void> pending = dispatch(client, batch, client.getPendingCommands()).exceptionally(e -> {
+            Log.warning("Command executor error: {}", e.getMessage());
+            return null;
+        });
+        client.setPendingCommands(pending);
+        pending.thenRun(onComplete);
+    }
+
+    // WAIT's checks and bookkeeping run on shard 0's executor like any other command; only the wait for
+    // replica acks its handler leaves behind is carried out on the calling thread
+    public void executeWait(ClientContext client, RespCommand command) throws IOException, InterruptedException {
+        Shard shard = shards[0];
+        shard.getExecutor().call(() -> processCommand(shard, client, command, CommandTable.lookup(command, 0)));
+        completeDeferredReply(client);
+    }
+
+    // The same without blocking the caller: runs once every command the client sent before it has
+    // executed, and waits for the acks on a virtual thread
+    public void submitWait(ClientContext client, RespCommand command, Runnable onComplete) {
+        Shard shard = shards[0];
+        CompletableFuture<Void> previous = shards.length == 1 ? COMPLETED : client.getPendingCommands();
+
+        previous.thenCompose(v -> shard.getExecutor().callAsync(() -> processCommand(shard, client, command, CommandTable.lookup(command, 0))))
+                .whenComplete((v, e) -> Thread.ofVirtual().start(() -> {
+                    try {
+                        if (e != null) Log.warning("Error handling client: {}", e.getMessage());
+                        else completeDeferredReply(client);
+                    } catch (Exception ex) {
+                        Log.warning("Error handling client: {}", ex.getMessage());
+                    } finally {
+                        onComplete.run();
+                    }
+                }));
+    }
+
+    private static void completeDeferredReply(ClientContext client) throws IOException, InterruptedException {
+        ClientContext.DeferredReply reply = client.takeDeferredReply();
+        if (reply != null) reply.complete();
+    }
+
+    // Splits the batch into runs of consecutive commands for the same shard and chains them, each run
+    // starting once the previous one has written its replies
+    private CompletableFuture<Void> dispatch(ClientContext client, List<RespCommand> batch, CompletableFuture<Void> chain) {
+        OutputStream out = client.getOutputStream();
+        List<RespCommand> run = new ArrayList<>();
+        // The descriptor route() looked up for each command of the run, reused to execute it
+        List<CommandDescriptor> descriptors = new ArrayList<>();
+        int runShard = -1;
+
+        for (RespCommand command : batch) {
+            CommandDescriptor descriptor = CommandTable.lookup(command, 0);
+            int target = route(client, command, descriptor);
+
+            if (target != runShard && !run.isEmpty()) {
+                chain = runOnShard(chain, shards[runShard], client, run, descriptors);
+                run = new ArrayList<>();
+                descriptors = new ArrayList<>();
+            }
+
+            if (target >= 0) {
+                runShard = target;
+                run.add(command);
+                descriptors.add(descriptor);
+                continue;
+            }
+
+            runShard = -1;
+            chain = switch (target) {
+                case SCATTER_KEYS -> chain.thenCompose(v -> gatherKeys(client, command, out));
+                case SCATTER_XREAD -> chain.thenCompose(v -> gatherStreams(client, command, out));
+                case BROADCAST -> chain.thenCompose(v -> broadcast(client, command, descriptor));
+                default -> chain.thenCompose(v -> shards[0].getExecutor().callAsync(() -> RespProtocol.writeError(RedisConstants.ERR_CROSSSLOT, out)));
+            };
+        }
+
+        if (!run.isEmpty()) chain = runOnShard(chain, shards[runShard], client, run, descriptors);
+        return chain;
+    }
+
+    private CompletableFuture<Void> runOnShard(CompletableFuture<Void> chain, Shard shard, ClientContext client,
+                                               List<RespCommand> run, List<CommandDescriptor> descriptors) {
+        return chain.thenCompose(v -> shard.getExecutor().callAsync(() -> {
+            for (int i = 0; i < run.size(); i++) processInRun(shard, client, run.get(i), descriptors.get(i));
+        }));
+    }
+
+    private int route(ClientContext client, RespCommand command, CommandDescriptor descriptor) {
+        if (descriptor == null || !descriptor.checkArity(command.size())) return 0;
+
+        switch (descriptor.getName()) {
             case RedisConstants.MULTI:
-                handlers.handleMulti(clientId, command, out);
-                break;
-            case RedisConstants.EXEC:
-                handlers.handleExec(clientId, command, out);
-                break;
+                client.setRoutingMulti(true, -1);
+                return 0;
+            case RedisConstants.EXEC: {
+                int target = client.isRoutingMulti() && client.getMultiShard() >= 0 ? client.getMultiShard() : 0;
+                client.setRoutingMulti(false, -1);
+                return target;
+            }
             case RedisConstants.DISCARD:
-                handlers.handleDiscard(clientId, command, out);
-                break;
-            case RedisConstants.INFO:
-                handlers.handleInfo(clientId, command, out);
-                break;
-            case RedisConstants.REPLCONF:
-                handlers.handleReplconf(clientId, command, out);
-                break;
-            case RedisConstants.PSYNC:
-                handlers.handlePsync(clientId, command, out);
-                break;
-            case RedisConstants.WAIT:
-                handlers.handleWait(clientId, command, out);
-                break;
-            case RedisConstants.ZADD:
-                handlers.handleZadd(clientId, command, out);
-                break;
-            case RedisConstants.ZRANK:
-                handlers.handleZrank(clientId, command, out);
-                break;
-            case RedisConstants.ZRANGE:
-                handlers.handleZrange(clientId, command, out);
-                break;
-            case RedisConstants.ZCARD:
-                handlers.handleZcard(clientId, command, out);
-                break;
-            case RedisConstants.ZSCORE:
-                handlers.handleZscore(clientId, command, out);
-                break;
-            case RedisConstants.ZREM:
-                handlers.handleZrem(clientId, command, out);
-                break;
-            case RedisConstants.SUBSCRIBE:
-                handlers.handleSubscribe(clientId, command, out);
-                break;
-            case RedisConstants.PUBLISH:
-                handlers.handlePublish(clientId, command, out);
-                break;
-            case RedisConstants.UNSUBSCRIBE:
-                handlers.handleUnsubscribe(clientId, command, out);
-                break;
-            case RedisConstants.CONFIG:
-                handlers.handleConfig(clientId, command, out);
-                break;
+                client.setRoutingMulti(false, -1);
+                return 0;
             case RedisConstants.KEYS:
-                handlers.handleKeys(clientId, command, out);
-                break;
-            default:
-                RespProtocol.writeError((RedisConstants.ERR_UNKNOWN_COMMAND + commandName), out);
-                break;
+                return shards.length == 1 ? 0 : SCATTER_KEYS;
+            case RedisConstants.XREAD:
+                return routeStreams(command);
+            case RedisConstants.SCAN: {
+                // The cursor names the shard to continue on; an invalid one is reported by the handler
+                long cursor = CommandHandlers.parseCursor(command.arg(1));
+                return cursor < 0 ? 0 : pinTransaction(client, (int) (cursor % shards.length));
+            }
+            case RedisConstants.SWAPDB:
+            case RedisConstants.FLUSHDB:
+            case RedisConstants.FLUSHALL:
+                // Every shard holds a part of each database; shard 0 alone reports the subscribed-mode error
+                if (shards.length == 1 || client.isSubscribed()) return 0;
+                return client.isRoutingMulti() ? CROSSSLOT : BROADCAST;
+            case RedisConstants.MEMORY:
+                // MEMORY USAGE has to run where its key lives; the other subcommands are server-wide
+                if (command.size() < 3 || !command.argEqualsIgnoreCase(1, RedisConstants.USAGE)) return 0;
+                return pinTransaction(client, Shard.indexFor(command.arg(2), shards.length));
+        }
+
+        if (descriptor.getFirstKey() == 0) return 0;
+
+        // Every key of the command must live on one shard
+        int last = descriptor.getLastKey() < 0 ? command.size() + descriptor.getLastKey() : descriptor.getLastKey();
+        int target = Shard.indexFor(command.arg(descriptor.getFirstKey()), shards.length);
+        for (int i = descriptor.getFirstKey() + descriptor.getKeyStep(); i <= last; i += descriptor.getKeyStep()) {
+            if (Shard.indexFor(command.arg(i), shards.length) != target) return CROSSSLOT;
+        }
+        return pinTransaction(client, target);
+    }
+
+    // A transaction executes on one shard, so all of its keys must live there
+    private int pinTransaction(ClientContext client, int target) {
+        if (client.isRoutingMulti()) {
+            if (client.getMultiShard() < 0) client.setRoutingMulti(true, target);
+            else if (client.getMultiShard() != target) return CROSSSLOT;
         }
+        return target;
+    }
+
+    private int routeStreams(RespCommand command) {
+        List<ByteString> streamKeys = streamKeysOf(command);
+        if (streamKeys.isEmpty()) return 0;
+
+        int target = Shard.indexFor(streamKeys.get(0), shards.length);
+        for (ByteString key : streamKeys) {
+            if (Shard.indexFor(key, shards.length) != target) {
+                // A blocked client waits on one shard's registry, so only a plain read can span shards
+                return command.argEqualsIgnoreCase(1, "BLOCK") ? CROSSSLOT : SCATTER_XREAD;
+            }
+        }
+        return target;
+    }
+
+    // Same argument layout as CommandHandlers.handleXRead: [BLOCK ms] STREAMS key... id...
+    private static List<ByteString> streamKeysOf(RespCommand command) {
+        List<ByteString> streamKeys = new ArrayList<>();
+        int index = 1;
+        if (index < command.size() && command.argEqualsIgnoreCase(index, "BLOCK")) index += 2;
+        if (index >= command.size() || !command.argEqualsIgnoreCase(index, "STREAMS")) return streamKeys;
+
+        index++;
+        while (index < command.size() && !command.get(index).contains("-") && !"$".equals(command.get(index)))
+            streamKeys.add(command.arg(index++));
+        return streamKeys;
+    }
+
+    // Every shard encodes its matching keys straight into its own reply fragment, in parallel; the
+    // fragments are then written behind one array header. No list of keys is ever built.
+    private CompletableFuture<Void> gatherKeys(ClientContext client, RespCommand command, OutputStream out) {
+        GlobPattern pattern = GlobPattern.compile(command.arg(1));
+        ByteArrayOutputStream[] parts = new ByteArrayOutputStream[shards.length];
+        int[] counts = new int[shards.length];
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[shards.length];
+
+        for (int i = 0; i < shards.length; i++) {
+            int index = i;
+            reads[i] = shards[i].getExecutor().callAsync(() -> {
+                ByteArrayOutputStream part = new ByteArrayOutputStream();
+                shards[index].getDataStore().select(client.getDb());
+                for (ByteString key : shards[index].getDataStore().matchingKeys(pattern)) {
+                    RespProtocol.writeBulkString(key, part);
+                    counts[index]++;
+                }
+                parts[index] = part;
+            });
+        }
+
+        return CompletableFuture.allOf(reads).thenCompose(v -> shards[0].getExecutor().callAsync(() -> {
+            int total = 0;
+            for (int count : counts) total += count;
+            RespProtocol.writeArray(total, out);
+            for (ByteArrayOutputStream part : parts) part.writeTo(out);
+        }));
+    }
+
+    private CompletableFuture<Void> gatherStreams(ClientContext client, RespCommand command, OutputStream out) {
+        List<ByteString> streamKeys = streamKeysOf(command);
+        List<String> startIds = command.subList(command.size() - streamKeys.size(), command.size());
+
+        List<List<StreamReadResult>> parts = new ArrayList<>();
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[shards.length];
+
+        for (int i = 0; i < shards.length; i++) {
+            List<ByteString> keys = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            for (int k = 0; k < streamKeys.size(); k++) {
+                if (Shard.indexFor(streamKeys.get(k), shards.length) != i) continue;
+                keys.add(streamKeys.get(k));
+                ids.add(startIds.get(k));
+            }
+
+            parts.add(null);
+            int index = i;
+            reads[i] = shards[i].getExecutor().callAsync(() -> {
+                try {
+                    parts.set(index, shards[index].getHandlers().readStreams(client.getDb(), keys, ids));
+                } catch (WrongTypeException e) {
+                    parts.set(index, null); // one of the keys isn't a stream
+                }
+            });
+        }
+
+        // Results go back in the order the streams were requested
+        return CompletableFuture.allOf(reads).thenCompose(v -> shards[0].getExecutor().callAsync(() -> {
+            if (parts.contains(null)) {
+                RespProtocol.writeError(RedisConstants.ERR_WRONGTYPE, out);
+                return;
+            }
+
+            List<StreamReadResult> readResults = new ArrayList<>();
+            for (ByteString key : streamKeys) {
+                for (StreamReadResult result : parts.get(Shard.indexFor(key, shards.length))) {
+                    if (result.getStreamKey().equals(key)) readResults.add(result);
+                }
+            }
+            RespProtocol.writeXReadResults(readResults, out);
+        }));
+    }
+
+    // Runs a command on every shard at the same moment: each shard parks at the barrier until all of them
+    // have reached it, so no other command sees some shards before the change and others after it.
+    // Shard 0 executes the command in full (checks, reply, propagation), the others only apply it.
+    private CompletableFuture<Void> broadcast(ClientContext client, RespCommand command, CommandDescriptor descriptor) {
+        CyclicBarrier barrier = new CyclicBarrier(shards.length);
+        CompletableFuture<?>[] parts = new CompletableFuture<?>[shards.length];
+
+        synchronized (broadcastLock) {
+            for (int i = 0; i < shards.length; i++) {
+                Shard shard = shards[i];
+                boolean first = i == 0;
+                parts[i] = shard.getExecutor().callAsync(() -> {
+                    awaitBarrier(barrier);
+                    try {
+                        if (first) processInRun(shard, client, command, descriptor);
+                        else shard.getHandlers().applyBroadcast(descriptor, client, command);
+                    } finally {
+                        awaitBarrier(barrier);
+                    }
+                });
+            }
+        }
+        return CompletableFuture.allOf(parts);
+    }
+
+    private static void awaitBarrier(CyclicBarrier barrier) throws InterruptedException, IOException {
+        try {
+            barrier.await();
+        } catch (BrokenBarrierException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // One command of a run: a failure gets an error reply and the run goes on with the next command, so a
+    // pipelining client still receives one reply per command
+    private void processInRun(Shard shard, ClientContext client, RespCommand command, CommandDescriptor descriptor) throws IOException, InterruptedException {
+        try {
+            processCommand(shard, client, command, descriptor);
+        } catch (RuntimeException e) {
+            Log.warning("Error executing command: {}", e.getMessage());
+            RespProtocol.writeError(RedisConstants.ERR_INTERNAL, client.getOutputStream());
+        }
+    }
+
+    // Generic checks from the command table, then MULTI queuing or execution. Only ever called on the
+    // shard's executor: evictions and memory accounting work on its DataStore, which has no locking.
+    private void processCommand(Shard shard, ClientContext client, RespCommand command, CommandDescriptor descriptor) throws IOException, InterruptedException {
+        OutputStream out = client.getOutputStream();
+        client.recordCommand();
+
+        if (descriptor == null) {
+            RespProtocol.writeError(RedisConstants.ERR_UNKNOWN_COMMAND + " '" + command.get(0) + "'", out);
+            return;
+        }
+
+        if (!descriptor.checkArity(command.size())) {
+            RespProtocol.writeError(RedisConstants.ERR_WRONG_NUMBER_ARGS + " '" + descriptor.getName() + "' command", out);
+            return;
+        }
+
+        if (client.isSubscribed() && !descriptor.hasFlag(CommandDescriptor.ALLOWED_IN_SUBSCRIBE)) {
+            RespProtocol.writeError(RedisConstants.ERR_CAN_NOT_EXECUTE + " '" + descriptor.getName() + "' command in subscribed mode", out);
+            return;
+        }
+
+        // Over maxmemory, make room before anything runs; if that fails, refuse whatever could grow the
+        // dataset. The master's stream is always applied, a replica mirrors its master's evictions.
+        if (!client.isMasterLink() && !shard.getHandlers().performEvictions() && descriptor.hasFlag(CommandDescriptor.DENY_OOM)) {
+            RespProtocol.writeError(RedisConstants.ERR_OOM, out);
+            return;
+        }
+
+        if (client.isMulti() && !descriptor.hasFlag(CommandDescriptor.TRANSACTION)) {
+            if (descriptor.hasFlag(CommandDescriptor.NO_MULTI)) {
+                RespProtocol.writeError(RedisConstants.ERR_NOT_ALLOWED_IN_MULTI, out);
+                return;
+            }
+            client.queueCommand(command, out);
+            RespProtocol.writeSimpleString(RedisConstants.QUEUED, out);
+            return;
+        }
+
+        // A replica only answers its master's GETACK
+        if (client.isMasterLink() && descriptor != REPLCONF) out = OutputStream.nullOutputStream();
+
+        shard.getHandlers().call(descriptor, client, command, out);
     }
 
-    public void cleanupClient(String clientId) {
-        dataStore.cleanupClient(clientId);
+    // Drops the client's subscriptions once its in-flight commands are done; O(own channels)
+    public void cleanupClient(ClientContext client) {
+        Shard shard = shards[0];
+        client.getPendingCommands().whenComplete((v, e) -> shard.getExecutor().submit(() -> {
+            for (String channel : client.getChannels()) shard.getDataStore().unsubscribeChannel(channel, client.getId());
+        }));
     }
 }
@@ -0,0 +1,157 @@
+package com.redis.server.command;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.protocol.RespCommand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.redis.server.command.CommandDescriptor.*;
+
+// Registry of every command the server knows. Lookup is case-insensitive without building an
+// upper-cased copy of the name: an open-addressed table hashed on ASCII-folded characters.
+public final class CommandTable {
+    private static final int TABLE_SIZE = 256; // power of two, well above the command count
+
+    private static final CommandDescriptor[] table = new CommandDescriptor[TABLE_SIZE];
+    private static final List<CommandDescriptor> commands = new ArrayList<>();
+
+    static {
+        register(RedisConstants.PING, CommandHandlers::handlePing, -1, FAST | ALLOWED_IN_SUBSCRIBE, 0, 0, 0);
+        register(RedisConstants.ECHO, CommandHandlers::handleEcho, 2, FAST, 0, 0, 0);
+        register(RedisConstants.TYPE, CommandHandlers::handleType, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.SET, CommandHandlers::handleSet, -3, WRITE | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.GET, CommandHandlers::handleGet, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.INCR, CommandHandlers::handleIncr, 2, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.INCRBY, CommandHandlers::handleIncrBy, 3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.DECR, CommandHandlers::handleDecr, 2, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.DECRBY, CommandHandlers::handleDecrBy, 3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.INCRBYFLOAT, CommandHandlers::handleIncrByFloat, 3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.KEYS, CommandHandlers::handleKeys, 2, READONLY, 0, 0, 0);
+        register(RedisConstants.SCAN, CommandHandlers::handleScan, -2, READONLY, 0, 0, 0);
+        register(RedisConstants.DEL, CommandHandlers::handleDel, -2, WRITE, 1, -1, 1);
+        register(RedisConstants.UNLINK, CommandHandlers::handleDel, -2, WRITE | FAST, 1, -1, 1);
+        register(RedisConstants.MOVE, CommandHandlers::handleMove, 3, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.SELECT, CommandHandlers::handleSelect, 2, FAST, 0, 0, 0);
+        register(RedisConstants.SWAPDB, CommandHandlers::handleSwapDb, 3, WRITE | FAST, 0, 0, 0);
+        register(RedisConstants.FLUSHDB, CommandHandlers::handleFlushDb, -1, WRITE, 0, 0, 0);
+        register(RedisConstants.FLUSHALL, CommandHandlers::handleFlushAll, -1, WRITE, 0, 0, 0);
+
+        register(RedisConstants.EXPIRE, CommandHandlers::handleExpire, -3, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.PEXPIRE, CommandHandlers::handlePExpire, -3, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.EXPIREAT, CommandHandlers::handleExpireAt, -3, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.PEXPIREAT, CommandHandlers::handlePExpireAt, -3, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.EXPIRETIME, CommandHandlers::handleExpireTime, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.PEXPIRETIME, CommandHandlers::handlePExpireTime, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.TTL, CommandHandlers::handleTtl, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.PTTL, CommandHandlers::handlePTtl, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.PERSIST, CommandHandlers::handlePersist, 2, WRITE | FAST, 1, 1, 1);
+
+        register(RedisConstants.RPUSH, CommandHandlers::handleRPush, -3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.LPUSH, CommandHandlers::handleLPush, -3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.LRANGE, CommandHandlers::handleLRange, 4, READONLY, 1, 1, 1);
+        register(RedisConstants.LLEN, CommandHandlers::handleLLen, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.LPOP, CommandHandlers::handleLPop, -2, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.BLPOP, CommandHandlers::handleBLPop, -3, WRITE | BLOCKING, 1, -2, 1);
+        register(RedisConstants.RPOP, CommandHandlers::handleRPop, -2, WRITE | FAST, 1, 1, 1);
+        register(RedisConstants.LINDEX, CommandHandlers::handleLIndex, 3, READONLY, 1, 1, 1);
+        register(RedisConstants.LSET, CommandHandlers::handleLSet, 4, WRITE | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.LINSERT, CommandHandlers::handleLInsert, 5, WRITE | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.LTRIM, CommandHandlers::handleLTrim, 4, WRITE, 1, 1, 1);
+        register(RedisConstants.LREM, CommandHandlers::handleLRem, 4, WRITE, 1, 1, 1);
+        register(RedisConstants.LPOS, CommandHandlers::handleLPos, -3, READONLY, 1, 1, 1);
+        register(RedisConstants.LMOVE, CommandHandlers::handleLMove, 5, WRITE | DENY_OOM, 1, 2, 1);
+        register(RedisConstants.RPOPLPUSH, CommandHandlers::handleRPopLPush, 3, WRITE | DENY_OOM, 1, 2, 1);
+        register(RedisConstants.LPUSHX, CommandHandlers::handleLPushX, -3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.BRPOP, CommandHandlers::handleBRPop, -3, WRITE | BLOCKING, 1, -2, 1);
+        register(RedisConstants.BLMOVE, CommandHandlers::handleBLMove, 6, WRITE | DENY_OOM | BLOCKING, 1, 2, 1);
+        register(RedisConstants.BRPOPLPUSH, CommandHandlers::handleBRPopLPush, 4, WRITE | DENY_OOM | BLOCKING, 1, 2, 1);
+        register(RedisConstants.RPUSHX, CommandHandlers::handleRPushX, -3, WRITE | FAST | DENY_OOM, 1, 1, 1);
+
+        register(RedisConstants.XADD, CommandHandlers::handleXAdd, -5, WRITE | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.XRANGE, CommandHandlers::handleXRange, -4, READONLY, 1, 1, 1);
+        register(RedisConstants.XREAD, CommandHandlers::handleXRead, -4, READONLY | BLOCKING | MOVABLE_KEYS, 0, 0, 0);
+
+        register(RedisConstants.ZADD, CommandHandlers::handleZadd, -4, WRITE | FAST | DENY_OOM, 1, 1, 1);
+        register(RedisConstants.ZRANK, CommandHandlers::handleZrank, -3, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.ZRANGE, CommandHandlers::handleZrange, -4, READONLY, 1, 1, 1);
+        register(RedisConstants.ZCARD, CommandHandlers::handleZcard, 2, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.ZSCORE, CommandHandlers::handleZscore, 3, READONLY | FAST, 1, 1, 1);
+        register(RedisConstants.ZREM, CommandHandlers::handleZrem, -3, WRITE | FAST, 1, 1, 1);
+
+        register(RedisConstants.MULTI, CommandHandlers::handleMulti, 1, FAST | TRANSACTION, 0, 0, 0);
+        register(RedisConstants.EXEC, CommandHandlers::handleExec, 1, TRANSACTION, 0, 0, 0);
+        register(RedisConstants.DISCARD, CommandHandlers::handleDiscard, 1, FAST | TRANSACTION, 0, 0, 0);
+
+        register(RedisConstants.SUBSCRIBE, CommandHandlers::handleSubscribe, -2, PUBSUB | NO_MULTI | ALLOWED_IN_SUBSCRIBE, 0, 0, 0);
+        register(RedisConstants.UNSUBSCRIBE, CommandHandlers::handleUnsubscribe, -2, PUBSUB | NO_MULTI | ALLOWED_IN_SUBSCRIBE, 0, 0, 0);
+        register(RedisConstants.PUBLISH, CommandHandlers::handlePublish, 3, PUBSUB | FAST, 0, 0, 0);
+
+        register(RedisConstants.INFO, CommandHandlers::handleInfo, -1, 0, 0, 0, 0);
+        register(RedisConstants.CONFIG, CommandHandlers::handleConfig, -3, ADMIN, 0, 0, 0);
+        register(RedisConstants.COMMAND, CommandHandlers::handleCommand, -1, 0, 0, 0, 0);
+        register(RedisConstants.MEMORY, CommandHandlers::handleMemory, -2, READONLY, 0, 0, 0);
+        register(RedisConstants.REPLCONF, CommandHandlers::handleReplconf, -3, ADMIN | NO_MULTI, 0, 0, 0);
+        register(RedisConstants.PSYNC, CommandHandlers::handlePsync, -3, ADMIN | NO_MULTI, 0, 0, 0);
+        register(RedisConstants.WAIT, CommandHandlers::handleWait, 3, NO_MULTI, 0, 0, 0);
+    }
+
+    private CommandTable() {
+    }
+
+    private static void register(String name, CommandHandler handler, int arity, int flags, int firstKey, int lastKey, int keyStep) {
+        CommandDescriptor descriptor = new CommandDescriptor(name, handler, arity, flags, firstKey, lastKey, keyStep);
+        int slot = hash(name) & (TABLE_SIZE - 1);
+        while (table[slot] != null) slot = (slot + 1) & (TABLE_SIZE - 1);
+
+        table[slot] = descriptor;
+        commands.add(descriptor);
+    }
+
+    public static CommandDescriptor lookup(CharSequence name) {
+        int slot = hash(name) & (TABLE_SIZE - 1);
+        CommandDescriptor descriptor;
+        while ((descriptor = table[slot]) != null) {
+            if (equalsIgnoreCase(descriptor.getName(), name)) return descriptor;
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    // The command named by an argument, hashed and compared on the read buffer without decoding the name
+    public static CommandDescriptor lookup(RespCommand command, int index) {
+        int slot = mix(command.argHashIgnoreCase(index)) & (TABLE_SIZE - 1);
+        CommandDescriptor descriptor;
+        while ((descriptor = table[slot]) != null) {
+            if (command.argEqualsIgnoreCase(index, descriptor.getName())) return descriptor;
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    public static List<CommandDescriptor> all() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    private static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) h = 31 * h + (name.charAt(i) | 0x20);
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    // Registered names are upper case ASCII
+    private static boolean equalsIgnoreCase(String registered, CharSequence name) {
+        if (registered.length() != name.length()) return false;
+        for (int i = 0; i < registered.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'a' && c <= 'z') c -= 32;
+            if (registered.charAt(i) != c) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package com.redis.server.command;
+
+import com.redis.server.blocking.BlockingOperationsManager;
+import com.redis.server.model.ByteString;
+import com.redis.server.model.ServerConfig;
+import com.redis.server.storage.ChannelRegistry;
+import com.redis.server.storage.DataStore;
+import com.redis.server.storage.MaxmemoryPolicy;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+// One partition of the keyspace: its own maps, expiry index and blocked clients, owned by a dedicated
+// executor thread. Nothing in a shard is shared with other shards except the pub/sub channels.
+public class Shard {
+    private final CommandExecutor executor;
+    private final DataStore dataStore;
+    private final CommandHandlers handlers;
+
+    public Shard(String name, ServerConfig serverConfig, ChannelRegistry channels, ScheduledExecutorService timer) {
+        this.executor = new CommandExecutor(name);
+        this.dataStore = new DataStore(channels, serverConfig.getStats(), serverConfig.getDatabases());
+        // Keys hash evenly across shards, so each one holds its share of the limit
+        this.dataStore.configureMaxmemory(serverConfig.getMaxmemory() / serverConfig.getShards(),
+                MaxmemoryPolicy.fromName(serverConfig.getMaxmemoryPolicy()), serverConfig.getMaxmemorySamples());
+        this.dataStore.configureOffHeap(serverConfig.getOffHeapThreshold());
+        this.handlers = new CommandHandlers(dataStore, new BlockingOperationsManager(dataStore, timer, executor), serverConfig);
+    }
+
+    public void start() {
+        executor.start();
+    }
+
+    public CommandExecutor getExecutor() {
+        return executor;
+    }
+
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    public CommandHandlers getHandlers() {
+        return handlers;
+    }
+
+    public static int indexFor(ByteString key, int shardCount) {
+        int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % shardCount;
+    }
+}
@@ -0,0 +1,228 @@
+package com.redis.server.logging;
+
+import com.redis.server.RedisConstants;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Server log. Calling threads only check the level and drop an event into a lock-free ring buffer; a
+// background thread formats the lines ("pid:role dd Mon yyyy HH:mm:ss.SSS * message", like Redis) and
+// writes them to stdout or the configured log file.
+//
+// A disabled level costs one field read: the message is a "{}" template and the arguments are passed
+// separately, so nothing is concatenated unless the line is actually logged. Arguments that aren't
+// immutable values are turned into strings when queued, since e.g. a parsed command may be a view over
+// a read buffer that gets reused before the writer runs.
+public final class Log {
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm:ss.SSS", Locale.ENGLISH).withZone(ZoneId.systemDefault());
+    private static final long PID = ProcessHandle.current().pid();
+
+    private static final LogRingBuffer RING = new LogRingBuffer(RedisConstants.LOG_BUFFER_CAPACITY);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final Thread WRITER;
+
+    private static volatile int threshold = LogLevel.NOTICE.ordinal();
+    private static volatile char role = 'M';
+    private static volatile Writer sink = stdout();
+    private static volatile boolean writerParked;
+    private static volatile boolean shuttingDown;
+
+    static {
+        WRITER = Thread.ofPlatform().name("log-writer").daemon(true).unstarted(Log::runWriter);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    // Called once at startup. Falls back to stdout if the log file can't be opened.
+    public static void configure(LogLevel level, String logFile, boolean replica) {
+        threshold = level.ordinal();
+        role = replica ? 'S' : 'M';
+
+        if (logFile != null && !logFile.isEmpty()) {
+            try {
+                sink = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                warning("Can't open the log file {}: {}", logFile, e.getMessage());
+            }
+        }
+    }
+
+    public static boolean isDebugEnabled() {
+        return threshold == 0;
+    }
+
+    // ********************************************************* levels **********************************************************
+
+    public static void debug(String message) {
+        if (threshold <= 0) enqueue(LogLevel.DEBUG, message, 0, null, null, null);
+    }
+
+    public static void debug(String format, Object arg) {
+        if (threshold <= 0) enqueue(LogLevel.DEBUG, format, 1, arg, null, null);
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        if (threshold <= 0) enqueue(LogLevel.DEBUG, format, 2, arg1, arg2, null);
+    }
+
+    public static void debug(String format, Object arg1, Object arg2, Object arg3) {
+        if (threshold <= 0) enqueue(LogLevel.DEBUG, format, 3, arg1, arg2, arg3);
+    }
+
+    public static void verbose(String message) {
+        if (threshold <= 1) enqueue(LogLevel.VERBOSE, message, 0, null, null, null);
+    }
+
+    public static void verbose(String format, Object arg) {
+        if (threshold <= 1) enqueue(LogLevel.VERBOSE, format, 1, arg, null, null);
+    }
+
+    public static void verbose(String format, Object arg1, Object arg2) {
+        if (threshold <= 1) enqueue(LogLevel.VERBOSE, format, 2, arg1, arg2, null);
+    }
+
+    public static void notice(String message) {
+        if (threshold <= 2) enqueue(LogLevel.NOTICE, message, 0, null, null, null);
+    }
+
+    public static void notice(String format, Object arg) {
+        if (threshold <= 2) enqueue(LogLevel.NOTICE, format, 1, arg, null, null);
+    }
+
+    public static void notice(String format, Object arg1, Object arg2) {
+        if (threshold <= 2) enqueue(LogLevel.NOTICE, format, 2, arg1, arg2, null);
+    }
+
+    public static void warning(String message) {
+        enqueue(LogLevel.WARNING, message, 0, null, null, null);
+    }
+
+    public static void warning(String format, Object arg) {
+        enqueue(LogLevel.WARNING, format, 1, arg, null, null);
+    }
+
+    public static void warning(String format, Object arg1, Object arg2) {
+        enqueue(LogLevel.WARNING, format, 2, arg1, arg2, null);
+    }
+
+    // ********************************************************* queue **********************************************************
+
+    private static void enqueue(LogLevel level, String format, int argCount, Object arg1, Object arg2, Object arg3) {
+        LogEvent event = new LogEvent(System.currentTimeMillis(), level, format, argCount,
+                snapshot(arg1), snapshot(arg2), snapshot(arg3));
+
+        if (!RING.offer(event)) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        if (writerParked) LockSupport.unpark(WRITER);
+    }
+
+    private static Object snapshot(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean
+                || arg instanceof Character || arg instanceof Enum<?>) {
+            return arg;
+        }
+        return String.valueOf(arg);
+    }
+
+    // ********************************************************* writer **********************************************************
+
+    private static void runWriter() {
+        StringBuilder line = new StringBuilder(256);
+        Writer out = sink;
+
+        while (true) {
+            LogEvent event = RING.poll();
+
+            if (event == null) {
+                long dropped = DROPPED.getAndSet(0);
+                if (dropped > 0) {
+                    write(out, line, new LogEvent(System.currentTimeMillis(), LogLevel.WARNING,
+                            "Log buffer full, {} messages dropped", 1, dropped, null, null));
+                }
+                flush(out);
+                if (shuttingDown) return;
+
+                writerParked = true;
+                if (RING.isEmpty()) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RedisConstants.LOG_WRITER_IDLE_WAIT));
+                writerParked = false;
+
+                // A new sink only takes effect between batches; the old one was just flushed
+                out = sink;
+                continue;
+            }
+
+            write(out, line, event);
+        }
+    }
+
+    private static void write(Writer out, StringBuilder line, LogEvent event) {
+        line.setLength(0);
+        line.append(PID).append(':').append(role).append(' ');
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(event.timestamp()), line);
+        line.append(' ').append(event.level().getMarker()).append(' ');
+        appendMessage(line, event);
+        line.append('\n');
+
+        try {
+            out.append(line);
+        } catch (IOException e) {
+            System.err.println("Error writing log: " + e.getMessage());
+        }
+    }
+
+    // Replaces each "{}" in the template with the next argument; extra placeholders are left as is
+    private static void appendMessage(StringBuilder line, LogEvent event) {
+        String format = event.format();
+        Object[] args = {event.arg1(), event.arg2(), event.arg3()};
+        int argIndex = 0;
+        int start = 0;
+
+        while (argIndex < event.argCount()) {
+            int placeholder = format.indexOf("{}", start);
+            if (placeholder < 0) break;
+
+            line.append(format, start, placeholder).append(args[argIndex++]);
+            start = placeholder + 2;
+        }
+        line.append(format, start, format.length());
+    }
+
+    private static void flush(Writer out) {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error writing log: " + e.getMessage());
+        }
+    }
+
+    private static void shutdown() {
+        shuttingDown = true;
+        LockSupport.unpark(WRITER);
+        try {
+            WRITER.join(RedisConstants.LOG_SHUTDOWN_WAIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Writer stdout() {
+        return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,5 @@
+package com.redis.server.logging;
+
+// One queued log line. The message is formatted by the writer thread, not by the thread that logged it.
+record LogEvent(long timestamp, LogLevel level, String format, int argCount, Object arg1, Object arg2, Object arg3) {
+}
@@ -0,0 +1,33 @@
+package com.redis.server.logging;
+
+// Same levels and line markers as Redis: "debug" is the noisiest, "warning" only reports problems
+public enum LogLevel {
+    DEBUG("debug", '.'),
+    VERBOSE("verbose", '-'),
+    NOTICE("notice", '*'),
+    WARNING("warning", '#');
+
+    private final String configName;
+    private final char marker;
+
+    LogLevel(String configName, char marker) {
+        this.configName = configName;
+        this.marker = marker;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    public char getMarker() {
+        return marker;
+    }
+
+    // Returns null for an unknown level name
+    public static LogLevel fromName(String name) {
+        for (LogLevel level : values()) {
+            if (level.configName.equalsIgnoreCase(name)) return level;
+        }
+        return null;
+    }
+}
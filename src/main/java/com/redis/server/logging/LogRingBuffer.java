@@ -0,0 +1,64 @@
+package com.redis.server.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded multi-producer, single-consumer queue of log events. Producers claim a slot with one CAS on the
+// tail and publish it through the slot's sequence number, so logging threads never take a lock and never
+// wait for the writer. When the writer falls behind the buffer fills up and offer() fails instead of
+// blocking the caller.
+final class LogRingBuffer {
+    private final LogEvent[] events;
+    // sequences[i] == position: slot free for the producer claiming that position
+    // sequences[i] == position + 1: slot holds the event published at that position
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the consumer
+    private long head;
+
+    LogRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        this.events = new LogEvent[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    }
+
+    boolean offer(LogEvent event) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.getAcquire(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events[index] = event;
+                    // full volatile store: pairs with the writer's parked flag so a wakeup can't be missed
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // full: the slot still holds an event from the previous lap
+            } else {
+                position = tail.get(); // another producer took this position
+            }
+        }
+    }
+
+    LogEvent poll() {
+        int index = (int) (head & mask);
+        if (sequences.getAcquire(index) != head + 1) return null;
+
+        LogEvent event = events[index];
+        events[index] = null;
+        sequences.setRelease(index, head + events.length);
+        head++;
+        return event;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+}
@@ -1,33 +1,43 @@
 package com.redis.server.model;
 
 import java.io.OutputStream;
+import java.util.List;
 
-public class BlockedClient {
-    private final String key;
-    private final OutputStream out;
-    private final long blockTime;
-    private final long timeoutTime;
-
-    public BlockedClient(String key, double timeoutSeconds, OutputStream out) {
-        this.key = key;
-        this.out = out;
-        this.blockTime = System.currentTimeMillis();
-        this.timeoutTime = timeoutSeconds == 0 ? 0 : blockTime + (long) (timeoutSeconds * 1000);
+// A client parked by BLPOP, BRPOP or BLMOVE on one or more list keys of its database. A BLMOVE client
+// has a destination, where the element it pops is pushed instead of being returned with its key.
+public class BlockedClient extends BlockedOperation {
+    private final List<ByteString> keys;
+    private final boolean fromHead;
+    private final ByteString destination;
+    private final boolean toHead;
+
+    public BlockedClient(List<ByteString> keys, int db, boolean fromHead, ByteString destination, boolean toHead, double timeoutSeconds, OutputStream out) {
+        super(db, toMillis(timeoutSeconds), out);
+        this.keys = keys;
+        this.fromHead = fromHead;
+        this.destination = destination;
+        this.toHead = toHead;
+    }
+
+    // Rounded up, so a timeout under a millisecond still times out rather than blocking forever
+    private static long toMillis(double timeoutSeconds) {
+        return (long) Math.ceil(timeoutSeconds * 1000);
     }
 
-    public boolean isTimedOut() {
-        return timeoutTime > 0 && System.currentTimeMillis() > timeoutTime;
+    public List<ByteString> getKeys() {
+        return this.keys;
     }
 
-    public String getKey() {
-        return this.key;
+    public boolean isFromHead() {
+        return this.fromHead;
     }
 
-    public OutputStream getOutputStream() {
-        return this.out;
+    // null unless the client blocked in BLMOVE
+    public ByteString getDestination() {
+        return this.destination;
     }
 
-    public long getBlockTime() {
-        return this.blockTime;
+    public boolean isToHead() {
+        return this.toHead;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.redis.server.model;
+
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+// What list and stream clients blocked in a command have in common: where the reply goes, and when the
+// command gives up. Ordered by deadline, then by arrival, for the timeout index.
+public abstract class BlockedOperation {
+    public static final Comparator<BlockedOperation> BY_DEADLINE =
+            Comparator.comparingLong(BlockedOperation::getTimeoutTime).thenComparingLong(operation -> operation.sequence);
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final int db;
+    private final OutputStream out;
+    private final long blockTime;
+    private final long timeoutTime;
+    private final long sequence = SEQUENCE.incrementAndGet();
+
+    protected BlockedOperation(int db, long timeoutMillis, OutputStream out) {
+        this.db = db;
+        this.out = out;
+        this.blockTime = System.currentTimeMillis();
+        // A timeout too far out to add to the clock is as good as none expiring
+        this.timeoutTime = timeoutMillis == 0 ? 0 : blockTime + Math.min(timeoutMillis, Long.MAX_VALUE - blockTime);
+    }
+
+    // 0 if the client blocks until served
+    public long getTimeoutTime() {
+        return this.timeoutTime;
+    }
+
+    public int getDb() {
+        return this.db;
+    }
+
+    public OutputStream getOutputStream() {
+        return this.out;
+    }
+
+    public long getBlockTime() {
+        return this.blockTime;
+    }
+}
@@ -3,38 +3,21 @@ package com.redis.server.model;
 import java.io.OutputStream;
 import java.util.List;
 
-public class BlockedStreamClient {
-    private final List<String> streamKeys;
+public class BlockedStreamClient extends BlockedOperation {
+    private final List<ByteString> streamKeys;
     private final List<String> startIds;
-    private final OutputStream out;
-    private final long blockTime;
-    private final long timeoutTime;
 
-    public BlockedStreamClient(List<String> streamKeys, List<String> startIds, double timeoutMillis, OutputStream out) {
+    public BlockedStreamClient(List<ByteString> streamKeys, List<String> startIds, int db, double timeoutMillis, OutputStream out) {
+        super(db, (long) Math.ceil(timeoutMillis), out);
         this.streamKeys = streamKeys;
         this.startIds = startIds;
-        this.out = out;
-        this.blockTime = System.currentTimeMillis();
-        this.timeoutTime = timeoutMillis == 0 ? 0 : blockTime + (long) (timeoutMillis);
     }
 
-    public boolean isTimedOut() {
-        return timeoutTime > 0 && System.currentTimeMillis() > timeoutTime;
-    }
-
-    public List<String> getStreamKeys() {
+    public List<ByteString> getStreamKeys() {
         return this.streamKeys;
     }
 
     public List<String> getStartIds() {
         return this.startIds;
     }
-
-    public OutputStream getOutputStream() {
-        return this.out;
-    }
-
-    public long getBlockTime() {
-        return this.blockTime;
-    }
 }
@@ -0,0 +1,144 @@
+package com.redis.server.model;
+
+import com.redis.server.RedisConstants;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Immutable, binary-safe string used for keys and values: the bytes exactly as the client sent them,
+// plus a hash computed on first use. Unlike java.lang.String nothing is decoded, so arbitrary payloads
+// survive untouched, UTF-8 text costs one byte per byte and a reply copies the array as is.
+// Ordering is unsigned byte-wise, like memcmp in Redis.
+public final class ByteString implements Comparable<ByteString> {
+    // Small counters are formatted once, like Redis' shared integer objects
+    private static final ByteString[] SHARED_INTEGERS = new ByteString[RedisConstants.SHARED_INTEGERS];
+
+    static {
+        for (int i = 0; i < SHARED_INTEGERS.length; i++) {
+            SHARED_INTEGERS[i] = new ByteString(Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private final byte[] bytes;
+    private int hash;
+
+    private ByteString(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    // Takes ownership of the array; the caller must not modify it afterwards
+    public static ByteString wrap(byte[] bytes) {
+        return new ByteString(bytes);
+    }
+
+    public static ByteString copyOf(byte[] bytes, int offset, int length) {
+        return new ByteString(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    public static ByteString of(String value) {
+        return new ByteString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ByteString valueOf(long value) {
+        if (value >= 0 && value < SHARED_INTEGERS.length) return SHARED_INTEGERS[(int) value];
+        return new ByteString(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Plain decimal notation without trailing zeros, as INCRBYFLOAT replies ("10.6", "3000", never "3e3")
+    public static ByteString valueOf(double value) {
+        String text = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        return new ByteString(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    // The backing array, not a copy: read it, never write to it
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    // Strict base-10 parse (no spaces, no '+', no leading zeros), as Redis does for integer values
+    public long parseLong() {
+        int length = bytes.length;
+        if (length == 0 || length > 20) throw new NumberFormatException("value is not an integer");
+
+        boolean negative = bytes[0] == '-';
+        int start = negative ? 1 : 0;
+        if (start == length || (bytes[start] == '0' && length - start > 1) || (negative && bytes[start] == '0')) {
+            throw new NumberFormatException("value is not an integer");
+        }
+
+        long value = 0;
+        try {
+            for (int i = start; i < length; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException("value is not an integer");
+                value = Math.addExact(Math.multiplyExact(value, 10), negative ? -digit : digit);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("value is out of range");
+        }
+        return value;
+    }
+
+    // True when the bytes are exactly what valueOf(long) produces, so a value stored as a number
+    // formats back to the bytes the client sent
+    public boolean isCanonicalLong() {
+        int length = bytes.length;
+        if (length == 0 || length > 20) return false;
+        byte first = bytes[0];
+        if (first != '-' && (first < '0' || first > '9')) return false;
+        try {
+            parseLong();
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Decimal or exponent notation only: no spaces, hex, "NaN"/"Infinity" or Java's d/f suffixes
+    public double parseDouble() {
+        int length = bytes.length;
+        if (length == 0) throw new NumberFormatException("value is not a valid float");
+        for (byte b : bytes) {
+            if ((b < '0' || b > '9') && b != '.' && b != '-' && b != '+' && b != 'e' && b != 'E') {
+                throw new NumberFormatException("value is not a valid float");
+            }
+        }
+
+        double value = Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+        if (Double.isNaN(value) || Double.isInfinite(value)) throw new NumberFormatException("value is not a valid float");
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof ByteString that)) return false;
+        return bytes.length == that.bytes.length && hashCode() == that.hashCode() && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0 && bytes.length > 0) {
+            h = Arrays.hashCode(bytes);
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public int compareTo(ByteString other) {
+        return Arrays.compareUnsigned(bytes, other.bytes);
+    }
+
+    // UTF-8 decode, for logging and for arguments that are text (options, numbers, stream IDs)
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,14 +1,14 @@
 package com.redis.server.model;
 
+import com.redis.server.protocol.RespCommand;
+
 import java.io.OutputStream;
-import java.util.List;
-import java.util.Queue;
 
 public class QueuedCommand {
-    private final List<String> command;
+    private final RespCommand command;
     private final OutputStream out;
 
-    public QueuedCommand(List<String> command, OutputStream out) {
+    public QueuedCommand(RespCommand command, OutputStream out) {
         this.command = command;
         this.out = out;
     }
@@ -17,7 +17,7 @@ public class QueuedCommand {
         return this.out;
     }
 
-    public List<String> getCommand(){
+    public RespCommand getCommand(){
         return this.command;
     }
 }
@@ -0,0 +1,488 @@
+package com.redis.server.model;
+
+import com.redis.server.RedisConstants;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// A list laid out as Redis' quicklist: a doubly-linked list of nodes, each packing a run of elements
+// into one byte array the way a listpack does. An element is its length as a varint, its bytes, and its
+// length again as a varint written backwards, so a node can be walked from either end.
+// Pushing and popping touch only the end node, so they are O(1); an index is reached by skipping whole
+// nodes from the nearer end. A node holds up to QUICKLIST_NODE_SIZE bytes (a longer element gets a node
+// of its own; one grown past the size by LSET or LINSERT is split in two), and an element costs two or
+// three bytes of framing instead of a reference, a ByteString and an array.
+public class RedisList {
+    // Receives an element in place, valid only for the duration of the call
+    public interface ElementVisitor {
+        void visit(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    // Receives an element in place with its index; returns false to stop the scan
+    public interface ElementScanner {
+        boolean visit(long index, byte[] buffer, int offset, int length);
+    }
+
+    private static final class Node {
+        byte[] buffer;
+        // The live bytes are [start, end); free room on both sides lets either end grow in place
+        int start;
+        int end;
+        int count;
+        Node prev;
+        Node next;
+
+        int used() {
+            return end - start;
+        }
+    }
+
+    private Node head;
+    private Node tail;
+    private long size;
+    private int nodeCount;
+    // Sum of the node buffers' lengths, for the memory estimate
+    private long bufferBytes;
+    // Index of the first element of the node last returned by findNode()
+    private long foundFirstIndex;
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+
+    // ********************************************************* ends **********************************************************
+
+    public void pushHead(ByteString value) {
+        byte[] bytes = value.bytes();
+        int need = entrySize(bytes.length);
+        if (head == null || (head.count > 0 && head.used() + need > RedisConstants.QUICKLIST_NODE_SIZE)) {
+            linkBefore(head, newNode(need, true));
+        }
+
+        Node node = head;
+        if (node.start < need) makeRoom(node, need, true);
+        node.start -= need;
+        writeEntry(node.buffer, node.start, bytes, bytes.length);
+        node.count++;
+        size++;
+    }
+
+    public void pushTail(ByteString value) {
+        byte[] bytes = value.bytes();
+        int need = entrySize(bytes.length);
+        if (tail == null || (tail.count > 0 && tail.used() + need > RedisConstants.QUICKLIST_NODE_SIZE)) {
+            linkAfter(tail, newNode(need, false));
+        }
+
+        Node node = tail;
+        if (node.buffer.length - node.end < need) makeRoom(node, need, false);
+        node.end = writeEntry(node.buffer, node.end, bytes, bytes.length);
+        node.count++;
+        size++;
+    }
+
+    // Null when empty
+    public ByteString popHead() {
+        Node node = head;
+        if (node == null) return null;
+
+        int length = readVarint(node.buffer, node.start);
+        int offset = node.start + varintSize(length);
+        ByteString value = ByteString.copyOf(node.buffer, offset, length);
+        node.start = offset + length + varintSize(length);
+        removedFrom(node);
+        return value;
+    }
+
+    // Null when empty
+    public ByteString popTail() {
+        Node node = tail;
+        if (node == null) return null;
+
+        int length = readVarintBackwards(node.buffer, node.end - 1);
+        int offset = node.end - varintSize(length) - length;
+        ByteString value = ByteString.copyOf(node.buffer, offset, length);
+        node.end = offset - varintSize(length);
+        removedFrom(node);
+        return value;
+    }
+
+    private void removedFrom(Node node) {
+        node.count--;
+        size--;
+        if (node.count == 0) unlink(node);
+    }
+
+    // ********************************************************* access **********************************************************
+
+    // The element at a zero-based index from the head, null when out of range
+    public ByteString get(long index) {
+        if (index < 0 || index >= size) return null;
+
+        Node node = findNode(index);
+        int pos = node.start;
+        for (long i = foundFirstIndex; i < index; i++) pos = skipEntry(node.buffer, pos);
+
+        int length = readVarint(node.buffer, pos);
+        return ByteString.copyOf(node.buffer, pos + varintSize(length), length);
+    }
+
+    // Visits the elements from start to end (inclusive, zero-based, within range) in order. Whole nodes
+    // are skipped to reach start from the nearer end, then elements are read in place.
+    public void forEach(long start, long end, ElementVisitor visitor) throws IOException {
+        if (start < 0 || end >= size || start > end) return;
+
+        Node node = findNode(start);
+        int pos = node.start;
+        for (long i = foundFirstIndex; i < start; i++) pos = skipEntry(node.buffer, pos);
+
+        for (long i = start; i <= end; i++) {
+            if (pos == node.end) {
+                node = node.next;
+                pos = node.start;
+            }
+            int length = readVarint(node.buffer, pos);
+            int offset = pos + varintSize(length);
+            visitor.visit(node.buffer, offset, length);
+            pos = offset + length + varintSize(length);
+        }
+    }
+
+    // Visits the elements from the head, or from the tail, until the scanner returns false
+    public void scan(boolean fromTail, ElementScanner scanner) {
+        if (fromTail) {
+            long index = size - 1;
+            for (Node node = tail; node != null; node = node.prev) {
+                int end = node.end;
+                while (end > node.start) {
+                    int length = readVarintBackwards(node.buffer, end - 1);
+                    int offset = end - varintSize(length) - length;
+                    if (!scanner.visit(index--, node.buffer, offset, length)) return;
+                    end = offset - varintSize(length);
+                }
+            }
+            return;
+        }
+
+        long index = 0;
+        for (Node node = head; node != null; node = node.next) {
+            int pos = node.start;
+            while (pos < node.end) {
+                int length = readVarint(node.buffer, pos);
+                int offset = pos + varintSize(length);
+                if (!scanner.visit(index++, node.buffer, offset, length)) return;
+                pos = offset + length + varintSize(length);
+            }
+        }
+    }
+
+    // ********************************************************* middle **********************************************************
+
+    // LSET, with an index within range
+    public void set(long index, ByteString value) {
+        Node node = findNode(index);
+        int pos = node.start;
+        for (long i = foundFirstIndex; i < index; i++) pos = skipEntry(node.buffer, pos);
+
+        splice(node, pos, skipEntry(node.buffer, pos) - pos, value.bytes());
+        splitIfOversized(node);
+    }
+
+    // LINSERT: puts value before or after the first element equal to pivot; false if there is none
+    public boolean insert(ByteString pivot, ByteString value, boolean before) {
+        byte[] target = pivot.bytes();
+        for (Node node = head; node != null; node = node.next) {
+            int pos = node.start;
+            while (pos < node.end) {
+                int length = readVarint(node.buffer, pos);
+                int entryEnd = pos + length + 2 * varintSize(length);
+                if (matches(node.buffer, pos + varintSize(length), length, target)) {
+                    splice(node, before ? pos : entryEnd, 0, value.bytes());
+                    node.count++;
+                    size++;
+                    splitIfOversized(node);
+                    return true;
+                }
+                pos = entryEnd;
+            }
+        }
+        return false;
+    }
+
+    // LTRIM with a range within the list: whole nodes outside it are unlinked, the two end nodes are cut
+    public void trim(long start, long end) {
+        long fromTail = size - 1 - end;
+
+        long fromHead = start;
+        while (fromHead > 0 && head.count <= fromHead) {
+            fromHead -= head.count;
+            size -= head.count;
+            unlink(head);
+        }
+        if (fromHead > 0) {
+            int pos = head.start;
+            for (long i = 0; i < fromHead; i++) pos = skipEntry(head.buffer, pos);
+            head.start = pos;
+            head.count -= (int) fromHead;
+            size -= fromHead;
+        }
+
+        while (fromTail > 0 && tail.count <= fromTail) {
+            fromTail -= tail.count;
+            size -= tail.count;
+            unlink(tail);
+        }
+        if (fromTail > 0) {
+            int pos = tail.end;
+            for (long i = 0; i < fromTail; i++) {
+                int length = readVarintBackwards(tail.buffer, pos - 1);
+                pos -= length + 2 * varintSize(length);
+            }
+            tail.end = pos;
+            tail.count -= (int) fromTail;
+            size -= fromTail;
+        }
+    }
+
+    // LREM: removes up to limit elements equal to value (every one if limit is 0), starting from the
+    // tail if fromTail. Returns how many were removed.
+    public long remove(ByteString value, long limit, boolean fromTail) {
+        byte[] target = value.bytes();
+        long removed = 0;
+        Node node = fromTail ? tail : head;
+
+        while (node != null && (limit == 0 || removed < limit)) {
+            Node following = fromTail ? node.prev : node.next;
+            if (fromTail) {
+                int end = node.end;
+                while (end > node.start && (limit == 0 || removed < limit)) {
+                    int length = readVarintBackwards(node.buffer, end - 1);
+                    int entryStart = end - length - 2 * varintSize(length);
+                    // Removing closes the gap from the right, so what lies before entryStart stays put
+                    if (matches(node.buffer, entryStart + varintSize(length), length, target)) {
+                        splice(node, entryStart, end - entryStart, null);
+                        node.count--;
+                        size--;
+                        removed++;
+                    }
+                    end = entryStart;
+                }
+            } else {
+                int pos = node.start;
+                while (pos < node.end && (limit == 0 || removed < limit)) {
+                    int length = readVarint(node.buffer, pos);
+                    int entryEnd = pos + length + 2 * varintSize(length);
+                    if (matches(node.buffer, pos + varintSize(length), length, target)) {
+                        splice(node, pos, entryEnd - pos, null);
+                        node.count--;
+                        size--;
+                        removed++;
+                    } else {
+                        pos = entryEnd;
+                    }
+                }
+            }
+            if (node.count == 0) unlink(node);
+            node = following;
+        }
+        return removed;
+    }
+
+    private static boolean matches(byte[] buffer, int offset, int length, byte[] target) {
+        return Arrays.equals(buffer, offset, offset + length, target, 0, target.length);
+    }
+
+    // ********************************************************* nodes **********************************************************
+
+    // Replaces the removed bytes at pos with the entry for value (nothing if null), moving the bytes after them
+    private void splice(Node node, int pos, int removed, byte[] value) {
+        int added = value == null ? 0 : entrySize(value.length);
+        int delta = added - removed;
+        if (delta > 0 && node.buffer.length - node.end < delta) {
+            int relative = pos - node.start;
+            makeRoom(node, delta, false);
+            pos = node.start + relative;
+        }
+
+        System.arraycopy(node.buffer, pos + removed, node.buffer, pos + added, node.end - pos - removed);
+        node.end += delta;
+        if (value != null) writeEntry(node.buffer, pos, value, value.length);
+    }
+
+    // Moves the second half of a node grown past the node size into a new node after it
+    private void splitIfOversized(Node node) {
+        if (node.used() <= RedisConstants.QUICKLIST_NODE_SIZE || node.count < 2) return;
+
+        int half = node.count / 2;
+        int pos = node.start;
+        for (int i = 0; i < half; i++) pos = skipEntry(node.buffer, pos);
+
+        int moved = node.end - pos;
+        Node second = newNode(moved, false);
+        System.arraycopy(node.buffer, pos, second.buffer, 0, moved);
+        second.end = moved;
+        second.count = node.count - half;
+        node.end = pos;
+        node.count = half;
+        linkAfter(node, second);
+    }
+
+    // The node holding an index within range, walking whole nodes from the nearer end
+    private Node findNode(long index) {
+        Node node;
+        long first;
+        if (index < size / 2) {
+            node = head;
+            first = 0;
+            while (first + node.count <= index) {
+                first += node.count;
+                node = node.next;
+            }
+        } else {
+            node = tail;
+            first = size - node.count;
+            while (first > index) {
+                node = node.prev;
+                first -= node.count;
+            }
+        }
+        foundFirstIndex = first;
+        return node;
+    }
+
+    // A node sized for its first element, with its room on the side the list grows from
+    private Node newNode(int need, boolean atHead) {
+        Node node = new Node();
+        int capacity = Math.max(need, RedisConstants.QUICKLIST_NODE_INITIAL_SIZE);
+        node.buffer = new byte[capacity];
+        node.start = node.end = atHead ? capacity : 0;
+        bufferBytes += capacity;
+        nodeCount++;
+        return node;
+    }
+
+    // Makes at least need bytes free before start (atHead) or after end, by centring the live bytes in the
+    // buffer or, if it is too small, in one twice as large (up to the node size)
+    private void makeRoom(Node node, int need, boolean atHead) {
+        int used = node.used();
+        byte[] buffer = node.buffer;
+        if (buffer.length - used < need) {
+            int capacity = Math.max(used + need, Math.min(RedisConstants.QUICKLIST_NODE_SIZE, buffer.length * 2));
+            buffer = new byte[capacity];
+            bufferBytes += capacity - node.buffer.length;
+        }
+
+        int spare = buffer.length - used - need;
+        int start = atHead ? need + spare / 2 : spare / 2;
+        System.arraycopy(node.buffer, node.start, buffer, start, used);
+        node.buffer = buffer;
+        node.start = start;
+        node.end = start + used;
+    }
+
+    private void linkBefore(Node next, Node node) {
+        node.next = next;
+        if (next == null) {
+            head = tail = node;
+            return;
+        }
+        node.prev = next.prev;
+        if (next.prev == null) head = node;
+        else next.prev.next = node;
+        next.prev = node;
+    }
+
+    private void linkAfter(Node prev, Node node) {
+        node.prev = prev;
+        if (prev == null) {
+            head = tail = node;
+            return;
+        }
+        node.next = prev.next;
+        if (prev.next == null) tail = node;
+        else prev.next.prev = node;
+        prev.next = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) head = node.next;
+        else node.prev.next = node.next;
+        if (node.next == null) tail = node.prev;
+        else node.next.prev = node.prev;
+        bufferBytes -= node.buffer.length;
+        nodeCount--;
+    }
+
+    // ********************************************************* encoding **********************************************************
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int entrySize(int length) {
+        return length + 2 * varintSize(length);
+    }
+
+    // Writes length, bytes and backwards length at pos; returns the position after the entry
+    private static int writeEntry(byte[] buffer, int pos, byte[] value, int length) {
+        int groups = varintSize(length);
+        for (int i = 0; i < groups; i++) {
+            int group = (length >>> (7 * i)) & 0x7f;
+            buffer[pos++] = (byte) (i < groups - 1 ? group | 0x80 : group);
+        }
+
+        System.arraycopy(value, 0, buffer, pos, length);
+        pos += length;
+
+        // Most significant group first, so reading back from the entry's end starts with the least
+        for (int i = groups - 1; i >= 0; i--) {
+            int group = (length >>> (7 * i)) & 0x7f;
+            buffer[pos++] = (byte) (i < groups - 1 ? group | 0x80 : group);
+        }
+        return pos;
+    }
+
+    private static int readVarint(byte[] buffer, int pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // Decodes the length ending at pos, reading towards the start of the buffer
+    private static int readVarintBackwards(byte[] buffer, int pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos--];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int skipEntry(byte[] buffer, int pos) {
+        int length = readVarint(buffer, pos);
+        return pos + length + 2 * varintSize(length);
+    }
+}
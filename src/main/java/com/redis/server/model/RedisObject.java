@@ -0,0 +1,170 @@
+package com.redis.server.model;
+
+// A value in the keyspace: its type, the payload for that type and the absolute expiry time, so a key
+// costs one map entry no matter what it holds or whether it expires.
+// A string holding a 64-bit integer is INT encoded: the number lives in a primitive field and value is
+// null, so counters cost no payload object and INCR updates them in place.
+// An OFFHEAP string's bytes live in its database's slab allocator; longValue is the handle to them and
+// only the owning DataStore can read them.
+public class RedisObject {
+    public static final long NO_EXPIRY = -1;
+
+    public enum Type {
+        STRING("string"),
+        LIST("list"),
+        ZSET("zset"),
+        STREAM("stream");
+
+        private final String typeName;
+
+        Type(String typeName) {
+            this.typeName = typeName;
+        }
+
+        // As reported by TYPE
+        public String getTypeName() {
+            return typeName;
+        }
+
+        public static Type fromName(String name) {
+            for (Type type : values()) {
+                if (type.typeName.equalsIgnoreCase(name)) return type;
+            }
+            return null;
+        }
+    }
+
+    public enum Encoding {
+        RAW,
+        INT,
+        OFFHEAP
+    }
+
+    private final Type type;
+    private Encoding encoding = Encoding.RAW;
+    private Object value;
+    private long longValue;
+    private long expireAt = NO_EXPIRY;
+    // Position in the owning DataStore's index of keys with a TTL, -1 when not indexed
+    private int expireSlot = -1;
+    // Access history for eviction: an LRU clock or an LFU counter, see storage.AccessClock
+    private int lru;
+    // Estimated heap size of the value as last accounted by the owning DataStore, -1 once removed from it
+    private long memory = -1;
+
+    public RedisObject(Type type, Object value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    // A string object, INT encoded when the bytes are a canonical integer
+    public static RedisObject createString(ByteString value) {
+        RedisObject object = new RedisObject(Type.STRING, value);
+        if (value.isCanonicalLong()) object.setLongValue(value.parseLong());
+        return object;
+    }
+
+    public static RedisObject createOffHeap(long handle) {
+        RedisObject object = new RedisObject(Type.STRING, null);
+        object.setOffHeapHandle(handle);
+        return object;
+    }
+
+    public static RedisObject createLong(long value) {
+        RedisObject object = new RedisObject(Type.STRING, null);
+        object.setLongValue(value);
+        return object;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public boolean isIntEncoded() {
+        return encoding == Encoding.INT;
+    }
+
+    public boolean isOffHeap() {
+        return encoding == Encoding.OFFHEAP;
+    }
+
+    public long getOffHeapHandle() {
+        return longValue;
+    }
+
+    // Switches the object to the OFFHEAP encoding
+    public void setOffHeapHandle(long handle) {
+        this.encoding = Encoding.OFFHEAP;
+        this.value = null;
+        this.longValue = handle;
+    }
+
+    public long getLongValue() {
+        return longValue;
+    }
+
+    // Switches the object to the INT encoding
+    public void setLongValue(long longValue) {
+        this.encoding = Encoding.INT;
+        this.value = null;
+        this.longValue = longValue;
+    }
+
+    // The string payload of a RAW or INT string; INT values are formatted on demand
+    public ByteString getStringValue() {
+        return encoding == Encoding.INT ? ByteString.valueOf(longValue) : (ByteString) value;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(Object value) {
+        this.encoding = Encoding.RAW;
+        this.value = value;
+    }
+
+    public long getExpireAt() {
+        return expireAt;
+    }
+
+    public void setExpireAt(long expireAt) {
+        this.expireAt = expireAt;
+    }
+
+    public boolean hasExpiry() {
+        return expireAt != NO_EXPIRY;
+    }
+
+    public int getExpireSlot() {
+        return expireSlot;
+    }
+
+    public void setExpireSlot(int expireSlot) {
+        this.expireSlot = expireSlot;
+    }
+
+    public int getLru() {
+        return lru;
+    }
+
+    public void setLru(int lru) {
+        this.lru = lru;
+    }
+
+    public long getMemory() {
+        return memory;
+    }
+
+    public void setMemory(long memory) {
+        this.memory = memory;
+    }
+
+    public boolean isExpired(long now) {
+        return expireAt != NO_EXPIRY && now > expireAt;
+    }
+}
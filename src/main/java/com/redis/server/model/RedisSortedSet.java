@@ -4,7 +4,7 @@ import java.util.*;
 
 public class RedisSortedSet {
     private final TreeSet<SortedSetMember> sortedMembers;
-    private final Map<String, Double> members;
+    private final Map<ByteString, Double> members;
 
     public RedisSortedSet() {
         this.sortedMembers = new TreeSet<>();
@@ -28,7 +28,7 @@ public class RedisSortedSet {
         }
     }
 
-    public int getRank(String member) {
+    public int getRank(ByteString member) {
         if(!members.containsKey(member)) return -1;
 
         int i = 0;
@@ -39,8 +39,8 @@ public class RedisSortedSet {
         return 0;
     }
 
-    public List<String> getMembersInRange(int start, int end){
-        List<String> res = new ArrayList<>();
+    public List<ByteString> getMembersInRange(int start, int end){
+        List<ByteString> res = new ArrayList<>();
 
         if(start < 0) start = members.size() + start;
         if(end < 0) end = members.size() + end;
@@ -54,7 +54,7 @@ public class RedisSortedSet {
         return res;
     }
 
-    public Double getScore(String member) {
+    public Double getScore(ByteString member) {
         return members.get(member);
     }
 
@@ -66,7 +66,7 @@ public class RedisSortedSet {
         return sortedMembers.size();
     }
 
-    public int remove(String member) {
+    public int remove(ByteString member) {
         if(!members.containsKey(member)) return 0;
 
         double score = members.get(member);
@@ -79,6 +79,11 @@ public class RedisSortedSet {
         return sortedMembers.isEmpty();
     }
 
+    // Members in score order
+    public Iterator<SortedSetMember> iterator() {
+        return sortedMembers.iterator();
+    }
+
     public Set<SortedSetMember> getAllMembers() {
         return sortedMembers;
     }
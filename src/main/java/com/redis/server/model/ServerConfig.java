@@ -1,31 +1,50 @@
 package com.redis.server.model;
 
+import com.redis.server.RedisConstants;
+import com.redis.server.logging.Log;
+
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-
-import static com.redis.server.protocol.RespProtocol.writeArray;
-import static com.redis.server.protocol.RespProtocol.writeBulkString;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 // COULD HAVE CREATED MASTER AND REPLICA CLASSES!!!
 
 public class ServerConfig {
+    private static final byte[] GETACK_REQUEST = "*3\r\n$8\r\nREPLCONF\r\n$6\r\nGETACK\r\n$1\r\n*\r\n".getBytes(StandardCharsets.US_ASCII);
+
     private final int port;
     private final boolean isReplica;
     private final String dir;
     private final String dbFilename;
+    private String ioMode = RedisConstants.IO_MODE_THREADS;
+    private int ioThreads = RedisConstants.DEFAULT_IO_THREADS;
+    private int shards = RedisConstants.DEFAULT_SHARDS;
+    private long maxmemory;
+    private String maxmemoryPolicy = RedisConstants.DEFAULT_MAXMEMORY_POLICY;
+    private int maxmemorySamples = RedisConstants.DEFAULT_MAXMEMORY_SAMPLES;
+    private int databases = RedisConstants.DEFAULT_DATABASES;
+    private long offHeapThreshold = RedisConstants.DEFAULT_OFFHEAP_THRESHOLD;
+    private final ServerStats stats = new ServerStats();
 
     // for master server
-    private int masterOffset = 0;
+    // offsets are advanced concurrently by the shard executors
+    private final AtomicInteger masterOffset = new AtomicInteger();
     private final ConcurrentHashMap<OutputStream, Integer> replicas;
-    private int upToDateReplicas = 0;
+    private volatile int upToDateReplicas = 0;
+    private final ReentrantLock ackLock = new ReentrantLock();
+    private final Condition ackReceived = ackLock.newCondition();
 
     // for replica server
     private final String masterHost;
     private final int masterPort;
-    private int replicaOffset = 0;
+    private final AtomicInteger replicaOffset = new AtomicInteger();
 
     public ServerConfig(int port, boolean isReplica, String masterHost, int masterPort, String dir, String dbFilename) {
         this.port = port;
@@ -49,6 +68,83 @@ public class ServerConfig {
         return dbFilename;
     }
 
+    public String getIoMode() {
+        return ioMode;
+    }
+
+    public void setIoMode(String ioMode) {
+        this.ioMode = ioMode;
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    public boolean isReactorMode() {
+        return RedisConstants.IO_MODE_REACTOR.equals(ioMode);
+    }
+
+    public boolean isVirtualThreadMode() {
+        return RedisConstants.IO_MODE_VIRTUAL.equals(ioMode);
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    // In bytes, 0 for no limit
+    public long getMaxmemory() {
+        return maxmemory;
+    }
+
+    public void setMaxmemory(long maxmemory) {
+        this.maxmemory = maxmemory;
+    }
+
+    public String getMaxmemoryPolicy() {
+        return maxmemoryPolicy;
+    }
+
+    public void setMaxmemoryPolicy(String maxmemoryPolicy) {
+        this.maxmemoryPolicy = maxmemoryPolicy;
+    }
+
+    public int getMaxmemorySamples() {
+        return maxmemorySamples;
+    }
+
+    public void setMaxmemorySamples(int maxmemorySamples) {
+        this.maxmemorySamples = maxmemorySamples;
+    }
+
+    public long getOffHeapThreshold() {
+        return offHeapThreshold;
+    }
+
+    public void setOffHeapThreshold(long offHeapThreshold) {
+        this.offHeapThreshold = offHeapThreshold;
+    }
+
+    public int getDatabases() {
+        return databases;
+    }
+
+    public void setDatabases(int databases) {
+        this.databases = databases;
+    }
+
     // ********************************************************* master **********************************************************
 
     public boolean isMaster() {
@@ -66,7 +162,7 @@ public class ServerConfig {
     public void addReplica(OutputStream out, int port) {
         if (isMaster()) {
             replicas.put(out, port);
-            System.out.println("Added replica on port " + port + ". Total replicas: " + getReplicaCount());
+            Log.notice("Added replica on port {}. Total replicas: {}", port, getReplicaCount());
         }
     }
 
@@ -75,15 +171,24 @@ public class ServerConfig {
     }
 
     public void setMasterOffset(int val){
-        this.masterOffset = val;
+        masterOffset.set(val);
+    }
+
+    public int addMasterOffset(int delta){
+        return masterOffset.addAndGet(delta);
     }
 
     public int getMasterOffset(){
-        return masterOffset;
+        return masterOffset.get();
     }
 
     public void setUpToDateReplicas(int upToDateReplicas) {
-        this.upToDateReplicas = upToDateReplicas;
+        ackLock.lock();
+        try {
+            this.upToDateReplicas = upToDateReplicas;
+        } finally {
+            ackLock.unlock();
+        }
     }
 
     public void getUpToDateReplicas(int num) {
@@ -94,16 +199,39 @@ public class ServerConfig {
         return upToDateReplicas;
     }
 
+    public void recordReplicaAck(int replicaOffset) {
+        ackLock.lock();
+        try {
+            if (replicaOffset >= masterOffset.get()) upToDateReplicas++;
+            ackReceived.signalAll();
+        } finally {
+            ackLock.unlock();
+        }
+    }
+
+    // Parks the caller until enough replicas have acknowledged or the timeout passes. Uses a
+    // j.u.c. lock rather than a monitor so a waiting virtual thread releases its carrier.
+    public int awaitUpToDateReplicas(int minimum, long timeoutMillis) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ackLock.lock();
+        try {
+            while (upToDateReplicas < minimum && remainingNanos > 0) {
+                remainingNanos = ackReceived.awaitNanos(remainingNanos);
+            }
+            return upToDateReplicas;
+        } finally {
+            ackLock.unlock();
+        }
+    }
+
     public boolean isFresh(){
-        return masterOffset == 0;
+        return masterOffset.get() == 0;
     }
 
     public void getAck() throws IOException {
+        // One write per replica so the request cannot interleave with commands the executor is propagating
         for(OutputStream out: replicas.keySet()){
-            writeArray(3, out);
-            writeBulkString("REPLCONF", out);
-            writeBulkString("GETACK", out);
-            writeBulkString("*", out);
+            out.write(GETACK_REQUEST);
             out.flush();
         }
     }
@@ -123,10 +251,14 @@ public class ServerConfig {
     }
 
     public void setReplicaOffset(int val){
-        this.replicaOffset = val;
+        replicaOffset.set(val);
+    }
+
+    public int addReplicaOffset(int delta){
+        return replicaOffset.addAndGet(delta);
     }
 
     public int getReplicaOffset(){
-        return replicaOffset;
+        return replicaOffset.get();
     }
 }
@@ -0,0 +1,92 @@
+package com.redis.server.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters reported by INFO stats and INFO memory. Updated by every shard executor, so they are striped adders.
+public class ServerStats {
+    private final LongAdder expiredKeys = new LongAdder();
+    private final LongAdder expireCycleNanos = new LongAdder();
+    private final LongAdder expireCycleTimeCapReached = new LongAdder();
+    private final LongAdder evictedKeys = new LongAdder();
+    // Estimated bytes of keys and values, and of the keyspace dicts and TTL indexes holding them
+    private final LongAdder datasetBytes = new LongAdder();
+    private final LongAdder keyspaceOverheadBytes = new LongAdder();
+    private final LongAdder expiresOverheadBytes = new LongAdder();
+    private final LongAdder keyCount = new LongAdder();
+    // Off-heap string values, and the slabs and segments holding them
+    private final LongAdder offHeapUsedBytes = new LongAdder();
+    private final LongAdder offHeapAllocatedBytes = new LongAdder();
+    // Share of expired keys among the last sampled keys with a TTL, in percent, from the last cycle of any shard
+    private volatile double expiredStalePercent;
+
+    public void recordExpiredKey() {
+        expiredKeys.increment();
+    }
+
+    public void recordExpireCycle(long nanos, boolean timeCapReached, double stalePercent) {
+        expireCycleNanos.add(nanos);
+        if (timeCapReached) expireCycleTimeCapReached.increment();
+        expiredStalePercent = stalePercent;
+    }
+
+    public void recordEvictedKey() {
+        evictedKeys.increment();
+    }
+
+    // Deltas since a shard's previous report
+    public void recordMemoryUsage(long dataset, long keyspaceOverhead, long expiresOverhead, long keys) {
+        datasetBytes.add(dataset);
+        keyspaceOverheadBytes.add(keyspaceOverhead);
+        expiresOverheadBytes.add(expiresOverhead);
+        keyCount.add(keys);
+    }
+
+    public void recordOffHeapUsage(long used, long allocated) {
+        offHeapUsedBytes.add(used);
+        offHeapAllocatedBytes.add(allocated);
+    }
+
+    public long getOffHeapUsedBytes() {
+        return offHeapUsedBytes.sum();
+    }
+
+    public long getOffHeapAllocatedBytes() {
+        return offHeapAllocatedBytes.sum();
+    }
+
+    public long getDatasetBytes() {
+        return datasetBytes.sum();
+    }
+
+    public long getKeyspaceOverheadBytes() {
+        return keyspaceOverheadBytes.sum();
+    }
+
+    public long getExpiresOverheadBytes() {
+        return expiresOverheadBytes.sum();
+    }
+
+    public long getKeyCount() {
+        return keyCount.sum();
+    }
+
+    public long getEvictedKeys() {
+        return evictedKeys.sum();
+    }
+
+    public long getExpiredKeys() {
+        return expiredKeys.sum();
+    }
+
+    public long getExpireCycleMillis() {
+        return expireCycleNanos.sum() / 1_000_000;
+    }
+
+    public long getExpireCycleTimeCapReached() {
+        return expireCycleTimeCapReached.sum();
+    }
+
+    public double getExpiredStalePercent() {
+        return expiredStalePercent;
+    }
+}
@@ -1,15 +1,15 @@
 package com.redis.server.model;
 
 public class SortedSetMember implements Comparable<SortedSetMember> {
-    private final String member;
+    private final ByteString member;
     private final double score;
 
-    public SortedSetMember(String member, double score) {
+    public SortedSetMember(ByteString member, double score) {
         this.member = member;
         this.score = score;
     }
 
-    public String getMemberName() {
+    public ByteString getMemberName() {
         return member;
     }
 
@@ -5,11 +5,11 @@ import java.util.Map;
 
 public class StreamEntry {
     private final String id;
-    private final Map<String, String> fields;
+    private final Map<ByteString, ByteString> fields;
     private final long millisecondsTime;
     private final long sequenceNumber;
 
-    public StreamEntry(String id, Map<String, String> fields) {
+    public StreamEntry(String id, Map<ByteString, ByteString> fields) {
         this.id = id;
         this.fields = fields;
 
@@ -30,11 +30,11 @@ public class StreamEntry {
         return id;
     }
 
-    public Map<String, String> getFields() {
+    public Map<ByteString, ByteString> getFields() {
         return fields;
     }
 
-    public String getField(String key) {
+    public ByteString getField(ByteString key) {
         return fields.get(key);
     }
 
@@ -61,7 +61,7 @@ public class StreamEntry {
         return millisecondsTime > 0 || (millisecondsTime == 0 && sequenceNumber > 0);
     }
 
-    public static StreamEntry createWithAutoSequence(String idTemplate, Map<String, String> fields,
+    public static StreamEntry createWithAutoSequence(String idTemplate, Map<ByteString, ByteString> fields,
                                                      RedisStream stream)
             throws IllegalArgumentException {
 
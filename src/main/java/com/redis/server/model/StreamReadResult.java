@@ -3,15 +3,15 @@ package com.redis.server.model;
 import java.util.List;
 
 public class StreamReadResult {
-    private final String streamKey;
+    private final ByteString streamKey;
     private final List<StreamEntry> entries;
 
-    public StreamReadResult(String streamKey, List<StreamEntry> entries) {
+    public StreamReadResult(ByteString streamKey, List<StreamEntry> entries) {
         this.streamKey = streamKey;
         this.entries = entries;
     }
 
-    public String getStreamKey() {
+    public ByteString getStreamKey() {
         return streamKey;
     }
 
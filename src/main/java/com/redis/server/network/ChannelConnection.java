@@ -0,0 +1,174 @@
+package com.redis.server.network;
+
+import com.redis.server.client.ClientContext;
+import com.redis.server.command.CommandProcessor;
+import com.redis.server.logging.Log;
+import com.redis.server.protocol.CommandBatch;
+import com.redis.server.protocol.RespCommand;
+import com.redis.server.protocol.RespParser;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public final class ChannelConnection {
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final CommandProcessor commandProcessor;
+    private final ChannelOutputStream out;
+    private final ClientContext client;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final RespParser parser = new RespParser();
+    // Batches the executors are done with, returned from their threads for the next reads
+    private final ConcurrentLinkedQueue<CommandBatch> spareBatches = new ConcurrentLinkedQueue<>();
+    private SelectionKey selectionKey;
+    private CommandBatch batch = new CommandBatch();
+    private boolean suspended;
+    private volatile boolean closed;
+
+    public ChannelConnection(SocketChannel channel, EventLoop eventLoop, CommandProcessor commandProcessor) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.commandProcessor = commandProcessor;
+        // The stream only calls back into requestFlush(), whose state is already set: eventLoop above and
+        // flushScheduled in its initializer. The class is final, so no subclass sees it half built.
+        this.out = new ChannelOutputStream(this);
+        this.client = new ClientContext(out);
+    }
+
+    void attach(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    void onReadable() {
+        try {
+            int read = channel.read(batch.buffer());
+            if (read == -1) {
+                close();
+                return;
+            }
+            processInput();
+        } catch (IOException e) {
+            Log.warning("Error handling client: {}", e.getMessage());
+            close();
+        }
+    }
+
+    void onWritable() {
+        flushOutput();
+    }
+
+    private void processInput() throws IOException {
+        batch.buffer().flip();
+        RespCommand wait = null;
+        while (!suspended && !closed) {
+            RespCommand command = parser.parse(batch.buffer());
+            if (command == null) break;
+            if (command.isEmpty()) continue;
+
+            // WAIT sleeps until replicas acknowledge, outside the executor; hold back this client's later
+            // commands until it returns
+            if (commandProcessor.runsOutsideExecutor(command)) {
+                wait = batch.keep(command);
+                break;
+            }
+
+            batch.append(command);
+        }
+
+        if (batch.isEmpty() && wait == null) {
+            batch.compact();
+            return;
+        }
+
+        // The commands are views over the batch's buffer, so the batch goes to the executor with its buffer
+        // and reading continues in a spare one
+        CommandBatch submitted = batch;
+        CommandBatch spare = spareBatches.poll();
+        batch = spare != null ? spare : new CommandBatch();
+        submitted.moveRemainingTo(batch);
+
+        if (wait == null) {
+            commandProcessor.submitBatch(client, submitted, () -> recycle(submitted));
+        } else {
+            commandProcessor.submitBatch(client, submitted, () -> { });
+            runDetached(wait, submitted);
+        }
+    }
+
+    // The batch's commands run before the WAIT it holds, so it is recycled once WAIT returns
+    private void runDetached(RespCommand command, CommandBatch submitted) {
+        suspended = true;
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+
+        commandProcessor.submitWait(client, command, () -> {
+            recycle(submitted);
+            eventLoop.execute(this::resume);
+        });
+    }
+
+    // Called from the executor once a batch has run. A batch returned while the connection closes is
+    // released by whichever side drains the queue last.
+    private void recycle(CommandBatch done) {
+        done.clear();
+        spareBatches.offer(done);
+        if (closed) releaseSpareBatches();
+    }
+
+    private void releaseSpareBatches() {
+        CommandBatch spare;
+        while ((spare = spareBatches.poll()) != null) spare.release();
+    }
+
+    private void resume() {
+        if (closed) return;
+        suspended = false;
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+
+        try {
+            processInput();
+        } catch (IOException e) {
+            Log.warning("Error handling client: {}", e.getMessage());
+            close();
+        }
+    }
+
+    void requestFlush() {
+        if (!flushScheduled.compareAndSet(false, true)) return;
+
+        if (eventLoop.inEventLoop()) eventLoop.scheduleFlush(this);
+        else eventLoop.execute(() -> eventLoop.scheduleFlush(this));
+    }
+
+    void flushOutput() {
+        flushScheduled.set(false);
+        if (closed) return;
+
+        try {
+            int pending = out.writeTo(channel);
+            int ops = selectionKey.interestOps();
+            selectionKey.interestOps(pending > 0 ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            Log.warning("Error writing to client: {}", e.getMessage());
+            close();
+        }
+    }
+
+    private void close() {
+        if (closed) return;
+        closed = true;
+
+        out.close();
+        batch.release();
+        releaseSpareBatches();
+        selectionKey.cancel();
+        commandProcessor.cleanupClient(client);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warning("Error closing client socket: {}", e.getMessage());
+        }
+    }
+}
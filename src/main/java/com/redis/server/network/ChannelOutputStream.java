@@ -0,0 +1,99 @@
+package com.redis.server.network;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.client.ClientMemory;
+import com.redis.server.protocol.SegmentSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+// Reply sink for a reactor connection. Handlers (and other threads pushing pub/sub messages or
+// blocking-command wakeups) append here; the owning event loop drains it to the socket.
+public class ChannelOutputStream extends OutputStream implements SegmentSink {
+    private final ChannelConnection connection;
+    private byte[] buffer = new byte[RedisConstants.WRITE_BUFFER_SIZE];
+    private int count;
+    private boolean closed;
+
+    ChannelOutputStream(ChannelConnection connection) {
+        this.connection = connection;
+        ClientMemory.add(buffer.length);
+    }
+
+    @Override
+    public void write(int b) {
+        synchronized (this) {
+            if (closed) return;
+            ensureCapacity(count + 1);
+            buffer[count++] = (byte) b;
+        }
+        connection.requestFlush();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        synchronized (this) {
+            if (closed) return;
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+        connection.requestFlush();
+    }
+
+    @Override
+    public void write(MemorySegment segment) {
+        int len = (int) segment.byteSize();
+        synchronized (this) {
+            if (closed) return;
+            ensureCapacity(count + len);
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, buffer, count, len);
+            count += len;
+        }
+        connection.requestFlush();
+    }
+
+    @Override
+    public void flush() {
+        connection.requestFlush();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        count = 0;
+        ClientMemory.add(-buffer.length);
+    }
+
+    // Writes as much as the socket accepts and returns the number of bytes still pending
+    synchronized int writeTo(SocketChannel channel) throws IOException {
+        if (count == 0) return 0;
+
+        ByteBuffer pending = ByteBuffer.wrap(buffer, 0, count);
+        channel.write(pending);
+
+        int remaining = pending.remaining();
+        if (remaining > 0) System.arraycopy(buffer, pending.position(), buffer, 0, remaining);
+        count = remaining;
+
+        if (count == 0 && buffer.length > RedisConstants.WRITE_BUFFER_SIZE) {
+            ClientMemory.add(RedisConstants.WRITE_BUFFER_SIZE - buffer.length);
+            buffer = new byte[RedisConstants.WRITE_BUFFER_SIZE];
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > buffer.length) {
+            int capacity = Math.max(required, buffer.length * 2);
+            ClientMemory.add(capacity - buffer.length);
+            buffer = Arrays.copyOf(buffer, capacity);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.redis.server.network;
+
+import com.redis.server.command.CommandProcessor;
+import com.redis.server.logging.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One selector thread owning a set of non-blocking connections. Everything touching a connection's
+// selection key or read buffer runs on this thread; other threads hand work over through execute().
+public class EventLoop implements Runnable {
+    private final Selector selector;
+    private final CommandProcessor commandProcessor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<ChannelConnection> pendingFlushes = new ArrayDeque<>();
+    private volatile Thread thread;
+
+    public EventLoop(CommandProcessor commandProcessor) throws IOException {
+        this.selector = Selector.open();
+        this.commandProcessor = commandProcessor;
+    }
+
+    public void start(String name) {
+        Thread loopThread = new Thread(this, name);
+        this.thread = loopThread;
+        loopThread.start();
+    }
+
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                ChannelConnection connection = new ChannelConnection(channel, this, commandProcessor);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (IOException e) {
+                Log.warning("Error registering client connection: {}", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inEventLoop()) selector.wakeup();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Called on the loop thread; the flush itself happens once the current batch of events is processed
+    void scheduleFlush(ChannelConnection connection) {
+        pendingFlushes.offer(connection);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                runTasks();
+                processSelectedKeys();
+                runTasks();
+                flushPending();
+            } catch (Exception e) {
+                Log.warning("Event loop error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+
+            ChannelConnection connection = (ChannelConnection) key.attachment();
+            if (key.isValid() && key.isWritable()) connection.onWritable();
+            if (key.isValid() && key.isReadable()) connection.onReadable();
+        }
+    }
+
+    private void flushPending() {
+        ChannelConnection connection;
+        while ((connection = pendingFlushes.poll()) != null) {
+            connection.flushOutput();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.redis.server.network;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.command.CommandProcessor;
+import com.redis.server.logging.Log;
+import com.redis.server.model.ServerConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+// Selector based alternative to thread-per-connection: the calling thread accepts and hands each
+// channel round-robin to a fixed set of event loops.
+public class Reactor {
+    private final ServerConfig serverConfig;
+    private final EventLoop[] eventLoops;
+    private int next = 0;
+
+    public Reactor(ServerConfig serverConfig, CommandProcessor commandProcessor) throws IOException {
+        this.serverConfig = serverConfig;
+        this.eventLoops = new EventLoop[serverConfig.getIoThreads()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(commandProcessor);
+        }
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i].start("event-loop-" + i);
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(serverConfig.getPort()), RedisConstants.TCP_BACKLOG);
+            Log.notice("Redis server started on port {} with {} event loops", serverConfig.getPort(), eventLoops.length);
+
+            while (true) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    eventLoops[next].register(channel);
+                    next = (next + 1) % eventLoops.length;
+                } catch (IOException e) {
+                    Log.warning("Error accepting client connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.redis.server.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// The commands parsed from one read, held in reusable slots that stay views over the read buffer the batch
+// owns, so pipelined commands reach the executor without being copied. Whoever executes a batch owns its
+// buffer until it is cleared; a reader that does not wait for the batch reads on into another one.
+public class CommandBatch extends AbstractList<RespCommand> implements RandomAccess {
+    private static final int INITIAL_SLOTS = 16;
+
+    private RespCommand[] slots = new RespCommand[INITIAL_SLOTS];
+    private int size;
+    private ByteBuffer buffer = RespParser.allocateBuffer();
+
+    // The read buffer, in write mode between reads
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // Adds the command the parser just returned; the slot stays valid until clear()
+    public RespCommand append(RespCommand parsed) {
+        RespCommand slot = keep(parsed);
+        size++;
+        return slot;
+    }
+
+    // Takes the command into the next free slot without adding it to the batch, for one executed on its own
+    public RespCommand keep(RespCommand parsed) {
+        if (size == slots.length) slots = Arrays.copyOf(slots, size * 2);
+        RespCommand slot = slots[size];
+        if (slot == null) {
+            slot = new RespCommand();
+            slots[size] = slot;
+        }
+        slot.copyFrom(parsed);
+        return slot;
+    }
+
+    @Override
+    public RespCommand get(int index) {
+        Objects.checkIndex(index, size);
+        return slots[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    // After parsing: keeps the frame that has only partly arrived and makes room for the next read
+    public void compact() throws IOException {
+        buffer.compact();
+        buffer = RespParser.ensureWritable(buffer);
+    }
+
+    // After parsing, when this batch is handed over: the frame that has only partly arrived moves to the
+    // (cleared) next batch, where reading continues. The parser's progress is relative to the frame start,
+    // so it resumes there unchanged.
+    public void moveRemainingTo(CommandBatch next) throws IOException {
+        if (buffer.remaining() > next.buffer.capacity()) {
+            RespParser.releaseBuffer(next.buffer);
+            next.buffer = RespParser.allocateBuffer(buffer.capacity());
+        }
+        next.buffer.clear();
+        next.buffer.put(buffer);
+        next.buffer = RespParser.ensureWritable(next.buffer);
+    }
+
+    public void release() {
+        RespParser.releaseBuffer(buffer);
+    }
+}
@@ -0,0 +1,190 @@
+package com.redis.server.protocol;
+
+import com.redis.server.model.ByteString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// A parsed command whose arguments are slices of the connection's read buffer. Arguments are only
+// copied out when a handler asks for them: as a binary-safe ByteString for keys and values, or decoded
+// into a String for text such as options and numbers. The parser itself never copies payload bytes.
+// The instance is reused for the next frame: a batch takes commands into its own slots (CommandBatch), and
+// anything that outlives the batch, such as a command queued by MULTI, must detach().
+public class RespCommand extends AbstractList<String> implements RandomAccess {
+    private static final int INITIAL_ARGS = 8;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private byte[] data;
+    private int frameStart;
+    private int frameLength;
+    private int argc;
+    private int[] offsets;
+    private int[] lengths;
+    // Caches of the decoded arguments, allocated on first use
+    private String[] decoded;
+    private ByteString[] args;
+
+    RespCommand() {
+        this(INITIAL_ARGS);
+    }
+
+    private RespCommand(int capacity) {
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+    }
+
+    void begin(int argc) {
+        if (argc > offsets.length) {
+            int capacity = Math.max(argc, offsets.length * 2);
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+            decoded = null;
+            args = null;
+        } else {
+            if (decoded != null) Arrays.fill(decoded, 0, Math.max(argc, this.argc), null);
+            if (args != null) Arrays.fill(args, 0, Math.max(argc, this.argc), null);
+        }
+        this.argc = argc;
+        this.frameLength = 0;
+    }
+
+    // offset is relative to the start of the frame
+    void setArg(int index, int offset, int length) {
+        offsets[index] = offset;
+        lengths[index] = length;
+    }
+
+    void complete(byte[] data, int frameStart, int frameLength) {
+        this.data = data;
+        this.frameStart = frameStart;
+        this.frameLength = frameLength;
+    }
+
+    // Makes this command another view over the same frame
+    void copyFrom(RespCommand parsed) {
+        begin(parsed.argc);
+        System.arraycopy(parsed.offsets, 0, offsets, 0, argc);
+        System.arraycopy(parsed.lengths, 0, lengths, 0, argc);
+        complete(parsed.data, parsed.frameStart, parsed.frameLength);
+    }
+
+    @Override
+    public String get(int index) {
+        Objects.checkIndex(index, argc);
+        if (decoded == null) decoded = new String[offsets.length];
+        String value = decoded[index];
+        if (value == null) {
+            value = new String(data, frameStart + offsets[index], lengths[index], StandardCharsets.UTF_8);
+            decoded[index] = value;
+        }
+        return value;
+    }
+
+    public ByteString arg(int index) {
+        Objects.checkIndex(index, argc);
+        if (args == null) args = new ByteString[offsets.length];
+        ByteString value = args[index];
+        if (value == null) {
+            value = ByteString.copyOf(data, frameStart + offsets[index], lengths[index]);
+            args[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return argc;
+    }
+
+    // ASCII case-insensitive comparison straight against the buffer, for command names and options
+    public boolean argEqualsIgnoreCase(int index, String ascii) {
+        Objects.checkIndex(index, argc);
+        int length = lengths[index];
+        if (length != ascii.length()) return false;
+
+        int from = frameStart + offsets[index];
+        for (int i = 0; i < length; i++) {
+            int b = data[from + i];
+            int c = ascii.charAt(i);
+            if (b == c) continue;
+            if ((b | 0x20) != (c | 0x20) || (b | 0x20) < 'a' || (b | 0x20) > 'z') return false;
+        }
+        return true;
+    }
+
+    // ASCII case-folded hash of the argument, computed on the buffer; CommandTable looks names up with it
+    public int argHashIgnoreCase(int index) {
+        Objects.checkIndex(index, argc);
+        int from = frameStart + offsets[index];
+        int h = 0;
+        for (int i = 0; i < lengths[index]; i++) h = 31 * h + (data[from + i] | 0x20);
+        return h;
+    }
+
+    public long argToLong(int index) {
+        Objects.checkIndex(index, argc);
+        int length = lengths[index];
+        if (length <= 0 || length > 20) throw new NumberFormatException("value is not an integer");
+
+        int from = frameStart + offsets[index];
+        int to = from + length;
+        boolean negative = data[from] == '-';
+        if (negative && length == 1) throw new NumberFormatException("value is not an integer");
+
+        long value = 0;
+        try {
+            for (int i = negative ? from + 1 : from; i < to; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) throw new NumberFormatException("value is not an integer");
+                value = Math.addExact(Math.multiplyExact(value, 10), negative ? -digit : digit);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("value is out of range");
+        }
+        return value;
+    }
+
+    // Size of the raw RESP frame on the wire
+    public int frameLength() {
+        return frameLength;
+    }
+
+    // The raw frame, e.g. to forward the command to replicas exactly as received
+    public void writeFrame(OutputStream out) throws IOException {
+        out.write(data, frameStart, frameLength);
+    }
+
+    // Builds a standalone command from its arguments, e.g. to propagate a write in a deterministic form
+    public static RespCommand of(ByteString... args) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        RespCommand command = new RespCommand();
+        command.begin(args.length);
+
+        frame.writeBytes(("*" + args.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < args.length; i++) {
+            frame.writeBytes(("$" + args[i].length() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            command.setArg(i, frame.size(), args[i].length());
+            frame.writeBytes(args[i].bytes());
+            frame.writeBytes(CRLF);
+        }
+
+        command.complete(frame.toByteArray(), 0, frame.size());
+        return command;
+    }
+
+    // Copies the frame into a standalone command that stays valid after the read buffer is reused
+    public RespCommand detach() {
+        RespCommand copy = new RespCommand(argc);
+        copy.begin(argc);
+        System.arraycopy(offsets, 0, copy.offsets, 0, argc);
+        System.arraycopy(lengths, 0, copy.lengths, 0, argc);
+        copy.complete(Arrays.copyOfRange(data, frameStart, frameStart + frameLength), 0, frameLength);
+        return copy;
+    }
+}
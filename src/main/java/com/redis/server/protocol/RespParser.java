@@ -0,0 +1,139 @@
+package com.redis.server.protocol;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.client.ClientMemory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Incremental, binary-safe RESP request parser working directly on a heap ByteBuffer (in read mode).
+// Bulk strings are located by their declared length, so payloads may contain CR/LF or any other byte.
+// A frame that has not fully arrived stays in the buffer; the parser remembers how far it got and
+// resumes from there after the next read instead of rescanning the frame.
+public class RespParser {
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+
+    private final RespCommand command = new RespCommand();
+    private int expectedArgs = -1;
+    private int parsedArgs;
+    private int resumeOffset;
+    private int numberEnd;
+
+    // Returns the next complete command (an empty one for ignorable input) or null when more bytes are
+    // needed. The returned command is only valid until the next call or until the buffer is modified.
+    public RespCommand parse(ByteBuffer buffer) throws IOException {
+        byte[] data = buffer.array();
+        int arrayOffset = buffer.arrayOffset();
+        int frameStart = arrayOffset + buffer.position();
+        int end = arrayOffset + buffer.limit();
+        int pos = frameStart + resumeOffset;
+
+        if (expectedArgs < 0) {
+            if (pos >= end) return null;
+
+            if (data[pos] != '*') {
+                // Not a RESP array (e.g. stray inline input): drop the line
+                int lf = indexOf(data, pos, end, (byte) '\n');
+                if (lf < 0) return null;
+                buffer.position(lf + 1 - arrayOffset);
+                command.begin(0);
+                command.complete(data, frameStart, lf + 1 - frameStart);
+                return command;
+            }
+
+            long argc = readNumber(data, pos + 1, end);
+            if (argc == INCOMPLETE) return null;
+            if (argc > RedisConstants.MAX_MULTIBULK_LENGTH) throw new IOException("Protocol error: invalid multibulk length");
+
+            expectedArgs = (int) Math.max(argc, 0);
+            parsedArgs = 0;
+            command.begin(expectedArgs);
+            pos = numberEnd;
+            resumeOffset = pos - frameStart;
+        }
+
+        while (parsedArgs < expectedArgs) {
+            if (pos >= end) return null;
+            if (data[pos] != '$') throw new IOException("Protocol error: expected '$', got '" + (char) data[pos] + "'");
+
+            long length = readNumber(data, pos + 1, end);
+            if (length == INCOMPLETE) return null;
+            // A request carries no null bulk strings
+            if (length < 0 || length > RedisConstants.MAX_BULK_LENGTH) throw new IOException("Protocol error: invalid bulk length");
+
+            int dataStart = numberEnd;
+            if (end - dataStart < length + 2) return null;
+
+            int dataEnd = dataStart + (int) length;
+            if (data[dataEnd] != '\r' || data[dataEnd + 1] != '\n') {
+                throw new IOException("Protocol error: expected \\r\\n after bulk string data");
+            }
+            command.setArg(parsedArgs++, dataStart - frameStart, (int) length);
+            pos = dataEnd + 2;
+            resumeOffset = pos - frameStart;
+        }
+
+        command.complete(data, frameStart, pos - frameStart);
+        buffer.position(pos - arrayOffset);
+        expectedArgs = -1;
+        resumeOffset = 0;
+        return command;
+    }
+
+    // Reads "<digits>\r\n" starting at pos; sets numberEnd to the index after the line
+    private long readNumber(byte[] data, int pos, int end) throws IOException {
+        long value = 0;
+        boolean negative = false;
+
+        for (int i = pos; i < end; i++) {
+            byte b = data[i];
+            if (b == '\r') {
+                if (i == pos || (negative && i == pos + 1)) throw new IOException("Protocol error: invalid length");
+                if (i + 1 >= end) return INCOMPLETE;
+                if (data[i + 1] != '\n') throw new IOException("Protocol error: expected \\n after \\r");
+                numberEnd = i + 2;
+                return negative ? -value : value;
+            }
+
+            if (b == '-' && i == pos) negative = true;
+            else if (b >= '0' && b <= '9' && i - pos < RedisConstants.MAX_LENGTH_DIGITS) value = value * 10 + (b - '0');
+            else throw new IOException("Protocol error: invalid length");
+        }
+        return INCOMPLETE;
+    }
+
+    private static int indexOf(byte[] data, int from, int end, byte target) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == target) return i;
+        }
+        return -1;
+    }
+
+    // Query buffers are allocated, grown and released here so ClientMemory sees all of them
+    public static ByteBuffer allocateBuffer() {
+        return allocateBuffer(RedisConstants.READ_BUFFER_SIZE);
+    }
+
+    static ByteBuffer allocateBuffer(int capacity) {
+        ClientMemory.add(capacity);
+        return ByteBuffer.allocate(capacity);
+    }
+
+    public static void releaseBuffer(ByteBuffer buffer) {
+        ClientMemory.add(-buffer.capacity());
+    }
+
+    // Read buffers start small; a frame larger than the buffer needs room to arrive in full
+    public static ByteBuffer ensureWritable(ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining()) return buffer;
+        if (buffer.capacity() >= RedisConstants.MAX_QUERY_BUFFER_SIZE) {
+            throw new IOException("Client query buffer limit reached");
+        }
+
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2L, RedisConstants.MAX_QUERY_BUFFER_SIZE));
+        ClientMemory.add(larger.capacity() - buffer.capacity());
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -1,44 +1,149 @@
 package com.redis.server.protocol;
 
 import com.redis.server.RedisConstants;
+import com.redis.server.logging.Log;
+import com.redis.server.model.ByteString;
 import com.redis.server.model.StreamEntry;
 import com.redis.server.model.StreamReadResult;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
 public class RespProtocol {
+    private static final int SHARED_HEADERS = 32;
+    private static final int SCRATCH_SIZE = 1024;
+
+    // Replies shared by every connection, encoded once
+    private static final byte[] CRLF = ascii(RedisConstants.CRLF);
+    private static final byte[] OK_REPLY = ascii(RedisConstants.SIMPLE_STRING_PREFIX + RedisConstants.OK + RedisConstants.CRLF);
+    private static final byte[] PONG_REPLY = ascii(RedisConstants.SIMPLE_STRING_PREFIX + RedisConstants.PONG + RedisConstants.CRLF);
+    private static final byte[] QUEUED_REPLY = ascii(RedisConstants.SIMPLE_STRING_PREFIX + RedisConstants.QUEUED + RedisConstants.CRLF);
+    private static final byte[] NULL_BULK_REPLY = ascii(RedisConstants.NULL_BULK_STRING);
+    private static final byte[] NULL_ARRAY_REPLY = ascii(RedisConstants.NULL_ARRAY);
+    private static final byte[][] INTEGER_REPLIES = new byte[RedisConstants.SHARED_INTEGERS][];
+    private static final byte[][] ARRAY_HEADERS = new byte[SHARED_HEADERS][];
+    private static final byte[][] BULK_HEADERS = new byte[SHARED_HEADERS][];
+
+    // Per-thread staging area so a reply header, payload and trailer go out in one write without a temporary String
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+    static {
+        for (int i = 0; i < RedisConstants.SHARED_INTEGERS; i++) {
+            INTEGER_REPLIES[i] = ascii(RedisConstants.INTEGER_PREFIX + i + RedisConstants.CRLF);
+        }
+        for (int i = 0; i < SHARED_HEADERS; i++) {
+            ARRAY_HEADERS[i] = ascii(RedisConstants.ARRAY_PREFIX + i + RedisConstants.CRLF);
+            BULK_HEADERS[i] = ascii(RedisConstants.BULK_STRING_PREFIX + i + RedisConstants.CRLF);
+        }
+    }
+
     public static void writeSimpleString(String message, OutputStream out) throws IOException {
-        out.write((RedisConstants.SIMPLE_STRING_PREFIX + message + RedisConstants.CRLF).getBytes());
+        if (RedisConstants.OK.equals(message)) out.write(OK_REPLY);
+        else if (RedisConstants.PONG.equals(message)) out.write(PONG_REPLY);
+        else if (RedisConstants.QUEUED.equals(message)) out.write(QUEUED_REPLY);
+        else writeLine((byte) '+', message, out);
     }
 
     public static void writeError(String message, OutputStream out) throws IOException {
-        out.write((RedisConstants.ERROR_PREFIX + message + RedisConstants.CRLF).getBytes());
+        writeLine((byte) '-', message, out);
     }
 
-    public static void writeInteger(int value, OutputStream out) throws IOException {
-        out.write((RedisConstants.INTEGER_PREFIX + value + RedisConstants.CRLF).getBytes());
+    public static void writeInteger(long value, OutputStream out) throws IOException {
+        if (value >= 0 && value < RedisConstants.SHARED_INTEGERS) {
+            out.write(INTEGER_REPLIES[(int) value]);
+            return;
+        }
+
+        byte[] scratch = SCRATCH.get();
+        out.write(scratch, 0, putHeader(scratch, 0, (byte) ':', value));
     }
 
     public static void writeBulkString(String value, OutputStream out) throws IOException {
         if (value == null) {
             writeNullBulkString(out);
+            return;
+        }
+
+        int length = value.length();
+        byte[] scratch = SCRATCH.get();
+        if (length + 24 <= scratch.length) {
+            int pos = putHeader(scratch, 0, (byte) '$', length);
+            if (putAscii(value, scratch, pos)) {
+                pos += length;
+                scratch[pos++] = '\r';
+                scratch[pos++] = '\n';
+                out.write(scratch, 0, pos);
+                return;
+            }
+        }
+        // Non-ASCII: the length prefix must count UTF-8 bytes, not chars
+        writeBulkString(value.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    public static void writeBulkString(byte[] value, OutputStream out) throws IOException {
+        if (value == null) {
+            writeNullBulkString(out);
+            return;
+        }
+        writeBulkString(value, 0, value.length, out);
+    }
+
+    // A value inside a larger array, such as a list node
+    public static void writeBulkString(byte[] value, int offset, int length, OutputStream out) throws IOException {
+        byte[] scratch = SCRATCH.get();
+        if (length + 24 <= scratch.length) {
+            int pos = putHeader(scratch, 0, (byte) '$', length);
+            System.arraycopy(value, offset, scratch, pos, length);
+            pos += length;
+            scratch[pos++] = '\r';
+            scratch[pos++] = '\n';
+            out.write(scratch, 0, pos);
         } else {
-            out.write((RedisConstants.BULK_STRING_PREFIX + value.length() + RedisConstants.CRLF + value + RedisConstants.CRLF).getBytes());
+            writeLengthHeader(BULK_HEADERS, (byte) '$', length, out);
+            out.write(value, offset, length);
+            out.write(CRLF);
         }
     }
 
+    public static void writeBulkString(ByteString value, OutputStream out) throws IOException {
+        writeBulkString(value == null ? null : value.bytes(), out);
+    }
+
+    // An off-heap value: copied from the segment into the client's buffer when the stream can take it,
+    // through the scratch array otherwise
+    public static void writeBulkString(MemorySegment value, OutputStream out) throws IOException {
+        long length = value.byteSize();
+        writeLengthHeader(BULK_HEADERS, (byte) '$', length, out);
+        if (out instanceof SegmentSink sink) {
+            sink.write(value);
+        } else {
+            byte[] scratch = SCRATCH.get();
+            for (long pos = 0; pos < length; pos += scratch.length) {
+                int chunk = (int) Math.min(scratch.length, length - pos);
+                MemorySegment.copy(value, ValueLayout.JAVA_BYTE, pos, scratch, 0, chunk);
+                out.write(scratch, 0, chunk);
+            }
+        }
+        out.write(CRLF);
+    }
+
     public static void writeNullBulkString(OutputStream out) throws IOException {
-        out.write(RedisConstants.NULL_BULK_STRING.getBytes());
+        out.write(NULL_BULK_REPLY);
+    }
+
+    public static void writeNullArray(OutputStream out) throws IOException {
+        out.write(NULL_ARRAY_REPLY);
     }
 
     public static void writeArray(int length, OutputStream out) throws IOException {
-        out.write((RedisConstants.ARRAY_PREFIX + length + RedisConstants.CRLF).getBytes());
+        writeLengthHeader(ARRAY_HEADERS, (byte) '*', length, out);
     }
 
     public static void writeArray(List<String> array, OutputStream out) throws IOException {
@@ -46,10 +151,25 @@ public class RespProtocol {
         for(String s: array) writeBulkString(s, out);
     }
 
+    public static void writeBulkArray(List<ByteString> array, OutputStream out) throws IOException {
+        writeArray(array.size(), out);
+        for (ByteString value : array) writeBulkString(value, out);
+    }
+
+    // Whole command as one byte array, so it reaches a shared stream (a replica) in a single write
+    public static byte[] encodeCommand(RespCommand... commands) throws IOException {
+        int length = 0;
+        for (RespCommand command : commands) length += command.frameLength();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length);
+        for (RespCommand command : commands) command.writeFrame(buffer);
+        return buffer.toByteArray();
+    }
+
     public static void writeEntry(StreamEntry entry, OutputStream out) throws IOException {
-        Map<String, String> fields = entry.getFields();
+        Map<ByteString, ByteString> fields = entry.getFields();
         writeInteger(2 * fields.size(), out);
-        for (Map.Entry<String, String> it : fields.entrySet()) {
+        for (Map.Entry<ByteString, ByteString> it : fields.entrySet()) {
             writeBulkString(it.getKey(), out);
             writeBulkString(it.getValue(), out);
         }
@@ -67,7 +187,7 @@ public class RespProtocol {
         }
     }
 
-    public static void writeXReadResponse(String streamKey, List<StreamEntry> entries, OutputStream out) throws IOException {
+    public static void writeXReadResponse(ByteString streamKey, List<StreamEntry> entries, OutputStream out) throws IOException {
         RespProtocol.writeArray(2, out); // [streamKey, array of entries]
         RespProtocol.writeBulkString(streamKey, out);
         RespProtocol.writeArray(entries.size(), out); // no of entries in an array
@@ -76,35 +196,16 @@ public class RespProtocol {
             RespProtocol.writeArray(2, out); // id, list of pairs
             RespProtocol.writeBulkString(entry.getId(), out);
 
-            Map<String, String> fields = entry.getFields();
+            Map<ByteString, ByteString> fields = entry.getFields();
             RespProtocol.writeArray(2 * fields.size(), out); // key-value
 
-            for (Map.Entry<String, String> it : fields.entrySet()) {
+            for (Map.Entry<ByteString, ByteString> it : fields.entrySet()) {
                 RespProtocol.writeBulkString(it.getKey(), out);
                 RespProtocol.writeBulkString(it.getValue(), out);
             }
         }
     }
 
-    public static List<String> parseRespArray(String arrayLine, BufferedReader in) throws IOException {
-        int arrayLength = Integer.parseInt(arrayLine.substring(1));
-        List<String> command = new ArrayList<>();
-
-        for (int i = 0; i < arrayLength; i++) {
-            String lengthLine = in.readLine();
-            if (lengthLine != null && lengthLine.startsWith(RedisConstants.BULK_STRING_PREFIX)) {
-                int commandLength = Integer.parseInt(lengthLine.substring(1));
-                if (commandLength >= 0) {
-                    String element = in.readLine();
-                    if (element != null) {
-                        command.add(element);
-                    }
-                }
-            }
-        }
-        return command;
-    }
-
     public static String readLineFromInputStream(InputStream in) throws IOException {
         StringBuilder sb = new StringBuilder();
         int b;
@@ -120,68 +221,85 @@ public class RespProtocol {
         return sb.toString();
     }
 
-    public static List<String> parseRespArrayFromInputStream(InputStream inputStream) throws IOException {
-        String firstLine = readLineFromInputStream(inputStream);
+    // Replication offsets count the command as it travels on the wire
+    public static int calculateRespCommandBytes(RespCommand command) {
+        int totalBytes = command.frameLength();
+        if (Log.isDebugEnabled()) Log.debug("Command {} uses {} bytes", command, totalBytes);
+        return totalBytes;
+    }
+
+    private static void writeLine(byte prefix, String message, OutputStream out) throws IOException {
+        int length = message.length();
+        byte[] scratch = SCRATCH.get();
+
+        if (length + 3 <= scratch.length && putAscii(message, scratch, 1)) {
+            scratch[0] = prefix;
+            scratch[length + 1] = '\r';
+            scratch[length + 2] = '\n';
+            out.write(scratch, 0, length + 3);
+        } else {
+            out.write(prefix);
+            out.write(message.getBytes(StandardCharsets.UTF_8));
+            out.write(CRLF);
+        }
+    }
 
-        if (!firstLine.startsWith("*")) {
-            throw new IOException("Unexpected RESP array, got: " + firstLine);
+    private static void writeLengthHeader(byte[][] shared, byte prefix, long length, OutputStream out) throws IOException {
+        if (length >= 0 && length < shared.length) {
+            out.write(shared[(int) length]);
+            return;
         }
 
-        int arrayLength = Integer.parseInt(firstLine.substring(1));
-        List<String> result = new ArrayList<>();
+        byte[] scratch = SCRATCH.get();
+        out.write(scratch, 0, putHeader(scratch, 0, prefix, length));
+    }
 
-        for (int i = 0; i < arrayLength; i++) {
-            String lengthLine = readLineFromInputStream(inputStream);
-            if (!lengthLine.startsWith("$")) {
-                throw new IOException("Expected bulk string length, got: " + lengthLine);
-            }
+    // Encodes "<prefix><value>\r\n" at pos without going through a String; returns the new position
+    private static int putHeader(byte[] buffer, int pos, byte prefix, long value) {
+        buffer[pos++] = prefix;
 
-            int stringLength = Integer.parseInt(lengthLine.substring(1));
-            if (stringLength == -1) {
-                result.add(null);
-            } else {
-                byte[] data = new byte[stringLength];
-                int totalRead = 0;
-                while (totalRead < stringLength) {
-                    int bytesRead = inputStream.read(data, totalRead, stringLength - totalRead);
-                    if (bytesRead == -1) {
-                        throw new IOException("Unexpected end of stream while reading bulk string");
-                    }
-                    totalRead += bytesRead;
-                }
-
-                int cr = inputStream.read();
-                int lf = inputStream.read();
-                if (cr != '\r' || lf != '\n') {
-                    throw new IOException("Expected \\r\\n after bulk string data");
-                }
-
-                result.add(new String(data));
+        if (value == Long.MIN_VALUE) {
+            byte[] min = ascii(String.valueOf(Long.MIN_VALUE));
+            System.arraycopy(min, 0, buffer, pos, min.length);
+            pos += min.length;
+        } else {
+            if (value < 0) {
+                buffer[pos++] = '-';
+                value = -value;
             }
+            int end = pos + digitCount(value);
+            for (int i = end - 1; i >= pos; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            pos = end;
         }
 
-        return result;
+        buffer[pos++] = '\r';
+        buffer[pos++] = '\n';
+        return pos;
     }
 
-    public static int calculateRespCommandBytes(List<String> command) {
-        int totalBytes = 0;
-
-        String arrayCount = String.valueOf(command.size());
-        totalBytes += 1 + arrayCount.length() + 2; // "*" + count + "\r\n"
-
-        // Each bulk string: $<length>\r\n<data>\r\n
-        for (String arg : command) {
-            if (arg == null) {
-                totalBytes += 5; // "$-1\r\n"
-            } else {
-                String lengthStr = String.valueOf(arg.length());
-                totalBytes += 1 + lengthStr.length() + 2; // "$" + length + "\r\n"
-                totalBytes += arg.length() + 2; // data + "\r\n"
-            }
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
         }
+        return digits;
+    }
 
-        System.out.println("Command " + command + " uses " + totalBytes + " bytes");
-        return totalBytes;
+    // Copies value into buffer at pos if it is pure ASCII (chars map 1:1 onto bytes); false otherwise
+    private static boolean putAscii(String value, byte[] buffer, int pos) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) return false;
+            buffer[pos + i] = (byte) c;
+        }
+        return true;
     }
 
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
 }
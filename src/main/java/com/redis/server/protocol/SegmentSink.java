@@ -0,0 +1,10 @@
+package com.redis.server.protocol;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+
+// A reply stream that takes bytes straight from off-heap memory into its buffer, with no heap array
+// in between
+public interface SegmentSink {
+    void write(MemorySegment segment) throws IOException;
+}
@@ -1,5 +1,7 @@
 package com.redis.server.rdb;
 
+import com.redis.server.logging.Log;
+import com.redis.server.model.ByteString;
 import com.redis.server.storage.DataStore;
 
 import java.io.DataInputStream;
@@ -14,35 +16,54 @@ import static com.redis.server.rdb.RdbConstants.*;
 
 public class RdbParser {
 
-    private final DataStore dataStore;
+    // Receives each loaded string for the keyspace that owns it; expireTime is -1 without a TTL
+    public interface KeyLoader {
+        void load(int db, ByteString key, ByteString value, long expireTime);
+    }
+
+    private final int databaseCount;
+    private final KeyLoader loader;
+    private long loadedKeys;
+    private int currentDb;
 
     public RdbParser(DataStore dataStore) {
-        this.dataStore = dataStore;
+        this(dataStore.getDatabaseCount(), (db, key, value, expireTime) -> store(dataStore, db, key, value, expireTime));
+    }
+
+    // The loader decides where a key goes, e.g. to the executor of the shard that owns it
+    public RdbParser(int databaseCount, KeyLoader loader) {
+        this.databaseCount = databaseCount;
+        this.loader = loader;
+    }
+
+    public static void store(DataStore dataStore, int db, ByteString key, ByteString value, long expireTime) {
+        dataStore.select(db);
+        if (expireTime > 0) dataStore.set(key, value, expireTime);
+        else dataStore.set(key, value);
     }
 
     public void loadRdbFile(String dir, String filename) {
         if (dir == null || filename == null) {
-            System.out.println("RDB: No database file specified");
+            Log.verbose("RDB: No database file specified");
             return;
         }
 
         Path rdbFilePath = Paths.get(dir, filename);
 
         if (!Files.exists(rdbFilePath)) {
-            System.out.println("RDB: Database file does not exist: " + rdbFilePath);
+            Log.notice("RDB: Database file does not exist: {}", rdbFilePath);
             return;
         }
 
         try (FileInputStream fis = new FileInputStream(rdbFilePath.toFile());
              DataInputStream dis = new DataInputStream(fis)) {
 
-            System.out.println("RDB: Loading database from " + rdbFilePath);
+            Log.notice("RDB: Loading database from {}", rdbFilePath);
             parseRdbFile(dis);
-            System.out.println("RDB: Database loaded successfully");
+            Log.notice("RDB: Database loaded successfully, {} keys", loadedKeys);
 
         } catch (IOException e) {
-            System.err.println("RDB: Error loading database file: " + e.getMessage());
-            e.printStackTrace();
+            Log.warning("RDB: Error loading database file: {}", e.getMessage());
             throw new RuntimeException(e);
         }
     }
@@ -67,7 +88,7 @@ public class RdbParser {
         }
 
         String version = headerStr.substring(REDIS_MAGIC.length());
-        System.out.println("RDB: File version " + version);
+        Log.verbose("RDB: File version {}", version);
     }
 
     private void parseMetadata(DataInputStream dis) throws IOException {
@@ -75,9 +96,9 @@ public class RdbParser {
             int opcode = dis.readUnsignedByte();
 
             if (opcode == METADATA) {
-                String key = readStringEncoded(dis);
-                String value = readStringEncoded(dis);
-                System.out.println("RDB: Metadata " + key + " = " + value);
+                ByteString key = readStringEncoded(dis);
+                ByteString value = readStringEncoded(dis);
+                Log.verbose("RDB: Metadata {} = {}", key, value);
             } else {
                 parseDatabase(dis, opcode);
                 return;
@@ -96,12 +117,13 @@ public class RdbParser {
         while (opcode != EOF) {
             if (opcode == SELECTDB) {
                 int dbIndex = readSizeEncoded(dis);
-                System.out.println("RDB: Selecting database " + dbIndex);
+                Log.verbose("RDB: Selecting database {}", dbIndex);
+                currentDb = dbIndex;
 
             } else if (opcode == HASH_TABLE_SIZE_INFO) {
                 int keyValueHashTableSize = readSizeEncoded(dis);
                 int expireHashTableSize = readSizeEncoded(dis);
-                System.out.println("RDB: Hash table sizes - keys: " + keyValueHashTableSize + ", expires: " + expireHashTableSize);
+                Log.verbose("RDB: Hash table sizes - keys: {}, expires: {}", keyValueHashTableSize, expireHashTableSize);
 
             } else if (opcode == EXPIRE_TIME_SECONDS) {
                 long expireTimeSeconds = readLittleEndianInt(dis);
@@ -129,17 +151,17 @@ public class RdbParser {
     private void parseKeyValue(DataInputStream dis, int valueType, long expireTime) throws IOException {
         if (valueType == STRING_TYPE) {
 
-            String key = readStringEncoded(dis);
-            String value = readStringEncoded(dis);
+            ByteString key = readStringEncoded(dis);
+            ByteString value = readStringEncoded(dis);
 
-            System.out.println("RDB: Loading key '" + key + "' = '" + value + "'");
+            Log.debug("RDB: Loading key '{}' = '{}'", key, value);
 
-            if (expireTime > 0) {
-                dataStore.set(key, value, expireTime);
-                System.out.println("RDB: Key '" + key + "' expires at " + expireTime);
-            } else {
-                dataStore.set(key, value);
+            if (currentDb >= databaseCount) {
+                throw new IOException("Database index " + currentDb + " out of range, server has " + databaseCount);
             }
+            if (expireTime > 0) Log.debug("RDB: Key '{}' expires at {}", key, expireTime);
+            loader.load(currentDb, key, value, expireTime);
+            loadedKeys++;
         }
     }
 
@@ -147,9 +169,9 @@ public class RdbParser {
         byte[] checksum = new byte[8];
         try {
             dis.readFully(checksum);
-            System.out.println("RDB: File checksum present");
+            Log.debug("RDB: File checksum present");
         } catch (EOFException e) {
-            System.out.println("RDB: No checksum found (end of file)");
+            Log.debug("RDB: No checksum found (end of file)");
         }
     }
 
@@ -176,7 +198,7 @@ public class RdbParser {
         }
     }
 
-    private String readStringEncoded(DataInputStream dis) throws IOException {
+    private ByteString readStringEncoded(DataInputStream dis) throws IOException {
         int firstByte = dis.readUnsignedByte();
         int type = (firstByte & 0xC0) >> 6; // First two bits
 
@@ -186,15 +208,15 @@ public class RdbParser {
             switch (encoding) {
                 case 0: // 8-bit integer
                     byte int8 = dis.readByte();
-                    return String.valueOf(int8);
+                    return ByteString.valueOf(int8);
 
                 case 1: // 16-bit integer (little-endian)
                     int int16 = readLittleEndianShort(dis);
-                    return String.valueOf(int16);
+                    return ByteString.valueOf(int16);
 
                 case 2: // 32-bit integer (little-endian)
                     int int32 = readLittleEndianInt(dis);
-                    return String.valueOf(int32);
+                    return ByteString.valueOf(int32);
 
                 case 3: // LZF compressed string
                     throw new IOException("LZF compressed strings not supported");
@@ -228,7 +250,7 @@ public class RdbParser {
             byte[] stringBytes = new byte[size];
             dis.readFully(stringBytes);
 
-            return new String(stringBytes);
+            return ByteString.wrap(stringBytes);
         }
     }
 
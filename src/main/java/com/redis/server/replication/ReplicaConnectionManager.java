@@ -1,13 +1,18 @@
 package com.redis.server.replication;
 
-import com.redis.server.RedisConstants;
+import com.redis.server.client.ClientContext;
+import com.redis.server.client.ClientOutputStream;
 import com.redis.server.command.CommandProcessor;
+import com.redis.server.logging.Log;
 import com.redis.server.model.ServerConfig;
+import com.redis.server.protocol.CommandBatch;
+import com.redis.server.protocol.RespCommand;
+import com.redis.server.protocol.RespParser;
 import com.redis.server.protocol.RespProtocol;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 public class ReplicaConnectionManager {
     private final ServerConfig serverConfig;
@@ -22,7 +27,7 @@ public class ReplicaConnectionManager {
     }
 
     public void connectToMaster() throws IOException {
-        System.out.println("Connecting to master at " + serverConfig.getMasterHost() + ":" + serverConfig.getMasterPort());
+        Log.notice("Connecting to master at {}:{}", serverConfig.getMasterHost(), serverConfig.getMasterPort());
 
         try {
             // Connect to master
@@ -30,13 +35,13 @@ public class ReplicaConnectionManager {
             masterOutput = masterSocket.getOutputStream();
             masterInputStream = masterSocket.getInputStream();
 
-            System.out.println("Connected to master successfully");
+            Log.notice("Connected to master successfully");
 
             // Start handshake process
             performHandshake();
 
         } catch (IOException e) {
-            System.err.println("Failed to connect to master: " + e.getMessage());
+            Log.warning("Failed to connect to master: {}", e.getMessage());
             throw e;
         }
     }
@@ -54,82 +59,82 @@ public class ReplicaConnectionManager {
     }
 
     private void sendPingToMaster() throws IOException {
-        System.out.println("Sending PING to master");
+        Log.verbose("Sending PING to master");
 
         String pingCommand = "*1\r\n$4\r\nPING\r\n";
         masterOutput.write(pingCommand.getBytes());
         masterOutput.flush();
 
-        System.out.println("PING sent to master");
+        Log.debug("PING sent to master");
 
         try {
             String response = RespProtocol.readLineFromInputStream(masterInputStream);
             if (!response.isEmpty()) {
-                System.out.println("Received response from master: " + response);
+                Log.debug("Received response from master: {}", response);
 
                 if ("+PONG".equals(response)) {
-                    System.out.println("PING handshake successful");
+                    Log.verbose("PING handshake successful");
                 } else {
-                    System.err.println("Unexpected PING response: " + response);
+                    Log.warning("Unexpected PING response: {}", response);
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading PING response: " + e.getMessage());
+            Log.warning("Error reading PING response: {}", e.getMessage());
             throw e;
         }
     }
 
     private void sendReplconfListeningPort() throws IOException {
-        System.out.println("Sending REPLCONF listening-port " + serverConfig.getPort());
+        Log.verbose("Sending REPLCONF listening-port {}", serverConfig.getPort());
 
         String portStr = String.valueOf(serverConfig.getPort());
         String command = "*3\r\n$8\r\nREPLCONF\r\n$14\r\nlistening-port\r\n$" + portStr.length() + "\r\n" + serverConfig.getPort() + "\r\n";
         masterOutput.write(command.getBytes());
 
-        System.out.println("REPLCONF listening-port sent: " + command.replace("\r\n", "\\r\\n"));
+        Log.debug("REPLCONF listening-port sent: {}", command.replace("\r\n", "\\r\\n"));
 
         String response = RespProtocol.readLineFromInputStream(masterInputStream);
         if (!response.isEmpty()) {
-            System.out.println("Received REPLCONF listening-port response: " + response);
+            Log.debug("Received REPLCONF listening-port response: {}", response);
             if (!"+OK".equals(response)) {
-                System.err.println("Unexpected REPLCONF listening-port response: " + response);
+                Log.warning("Unexpected REPLCONF listening-port response: {}", response);
             }
         }
     }
 
     private void sendReplconfCapabilities() throws IOException {
-        System.out.println("Sending REPLCONF capa psync2");
+        Log.verbose("Sending REPLCONF capa psync2");
 
         String command = "*3\r\n$8\r\nREPLCONF\r\n$4\r\ncapa\r\n$6\r\npsync2\r\n";
         masterOutput.write(command.getBytes());
 
-        System.out.println("REPLCONF capa sent: " + command.replace("\r\n", "\\r\\n"));
+        Log.debug("REPLCONF capa sent: {}", command.replace("\r\n", "\\r\\n"));
 
         String response = RespProtocol.readLineFromInputStream(masterInputStream);
         if (!response.isEmpty()) {
-            System.out.println("Received REPLCONF capa response: " + response);
+            Log.debug("Received REPLCONF capa response: {}", response);
             if (!"+OK".equals(response)) {
-                System.err.println("Unexpected REPLCONF capa response: " + response);
+                Log.warning("Unexpected REPLCONF capa response: {}", response);
             }
         }
     }
 
     private void sendPsync() throws IOException {
-        System.out.println("Sending PSYNC");
+        Log.verbose("Sending PSYNC");
 
         String command = "*3\r\n$5\r\nPSYNC\r\n$1\r\n?\r\n$2\r\n-1\r\n";
         masterOutput.write(command.getBytes());
-        System.out.println("PSYNC sent: " + command.replace("\r\n", "\\r\\n"));
+        Log.debug("PSYNC sent: {}", command.replace("\r\n", "\\r\\n"));
 
         String response = RespProtocol.readLineFromInputStream(masterInputStream);
         if (!response.isEmpty()) {
-            System.out.println("Received PSYNC response: " + response);
+            Log.debug("Received PSYNC response: {}", response);
 
             if (response.startsWith("+FULLRESYNC")) {
-                System.out.println("Full resync initiated, reading RDB file...");
+                Log.notice("Full resync initiated, reading RDB file...");
                 skipRDBFile();
 
-                System.out.println("Starting command listener for propagated commands...");
+                Log.verbose("Starting command listener for propagated commands...");
                 startCommandListener();
             }
         }
@@ -137,11 +142,11 @@ public class ReplicaConnectionManager {
 
     private void skipRDBFile() throws IOException {
         String lengthLine = RespProtocol.readLineFromInputStream(masterInputStream);
-        System.out.println("RDB length line: '" + lengthLine + "'");
+        Log.debug("RDB length line: '{}'", lengthLine);
 
         if (lengthLine.startsWith("$")) {
             int rdbLength = Integer.parseInt(lengthLine.substring(1));
-            System.out.println("RDB file length: " + rdbLength + " bytes");
+            Log.verbose("RDB file length: {} bytes", rdbLength);
 
             // Read and discard the RDB file bytes
             byte[] rdbData = new byte[rdbLength];
@@ -153,34 +158,55 @@ public class ReplicaConnectionManager {
                 }
                 totalRead += bytes;
             }
-            System.out.println("RDB file read and discarded (" + totalRead + " bytes)");
+            Log.notice("RDB file read and discarded ({} bytes)", totalRead);
         }
     }
 
     private void startCommandListener() {
         new Thread(() -> {
             try {
+                RespParser parser = new RespParser();
+                CommandBatch batch = new CommandBatch();
+                ClientOutputStream replyOut = new ClientOutputStream(masterOutput);
+                ClientContext replicationClient = new ClientContext(replyOut);
+                replicationClient.setMasterLink(true);
+
                 while (!masterSocket.isClosed()) {
                     try {
-                        // Parse incoming RESP command from master
-                        List<String> command = RespProtocol.parseRespArrayFromInputStream(masterInputStream);
-
-                        if (!command.isEmpty()) {
-                            System.out.println("Received propagated command: " + command);
+                        // Parse incoming RESP commands from master
+                        ByteBuffer readBuffer = batch.buffer();
+                        int read = masterInputStream.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+                        if (read == -1) break;
+                        readBuffer.position(readBuffer.position() + read);
+                        readBuffer.flip();
+
+                        RespCommand command;
+                        while ((command = parser.parse(readBuffer)) != null) {
+                            if (!command.isEmpty()) {
+                                Log.debug("Received propagated command: {}", command);
+                                batch.append(command);
+                            }
+                        }
 
-                            String replicationClientId = "replication-" + System.currentTimeMillis();
-                            commandProcessor.processCommand(replicationClientId, command, masterOutput);
+                        replyOut.beginBatch();
+                        try {
+                            commandProcessor.executeBatch(replicationClient, batch);
+                        } finally {
+                            batch.clear();
+                            replyOut.endBatch();
                         }
+
+                        batch.compact();
                     } catch (IOException e) {
-                        System.err.println("Error reading propagated command: " + e.getMessage());
+                        Log.warning("Error reading propagated command: {}", e.getMessage());
                         break;
                     }
                 }
+                batch.release();
             } catch (Exception e) {
-                System.err.println("Command listener error: " + e.getMessage());
+                Log.warning("Command listener error: {}", e.getMessage());
                 e.printStackTrace();
             }
         }).start();
     }
 }
-
@@ -0,0 +1,68 @@
+package com.redis.server.storage;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.model.RedisObject;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// The 32-bit access field every RedisObject carries, laid out as in Redis:
+// - LRU: the time of the last access in units of 10ms (Redis uses 24 bits of seconds; the spare bits
+//   buy a finer clock, so keys touched within the same second still rank). Wraps every ~497 days.
+// - LFU: the time of the last decrement in minutes (16 bits) and a logarithmic access counter (8 bits)
+//   that only grows with a probability shrinking as it gets larger, and decays by one per idle period
+final class AccessClock {
+    private static final long LRU_CLOCK_RESOLUTION = 10; // ms
+    private static final long LRU_CLOCK_RANGE = 1L << 32;
+    private static final int LFU_COUNTER_MAX = 255;
+
+    private AccessClock() {
+    }
+
+    static int lruClock(long nowMillis) {
+        return (int) (nowMillis / LRU_CLOCK_RESOLUTION);
+    }
+
+    private static int lfuMinutes(long nowMillis) {
+        return (int) (nowMillis / 60_000) & 0xffff;
+    }
+
+    // Value for a new object: accessed now, or a starting LFU count so it isn't evicted before its second access
+    static int initial(boolean lfu, long nowMillis) {
+        return lfu ? (lfuMinutes(nowMillis) << 8) | RedisConstants.LFU_INIT_VAL : lruClock(nowMillis);
+    }
+
+    static void touch(RedisObject object, boolean lfu, long nowMillis) {
+        if (!lfu) {
+            object.setLru(lruClock(nowMillis));
+            return;
+        }
+
+        int counter = lfuIncrement(lfuDecayed(object.getLru(), nowMillis));
+        object.setLru((lfuMinutes(nowMillis) << 8) | counter);
+    }
+
+    static long idleMillis(int lru, long nowMillis) {
+        long ticks = Integer.toUnsignedLong(lruClock(nowMillis)) - Integer.toUnsignedLong(lru);
+        if (ticks < 0) ticks += LRU_CLOCK_RANGE;
+        return ticks * LRU_CLOCK_RESOLUTION;
+    }
+
+    // The counter after subtracting one per decay period elapsed since it was last updated
+    static int lfuDecayed(int lru, long nowMillis) {
+        int minutes = lru >>> 8;
+        int counter = lru & LFU_COUNTER_MAX;
+        int now = lfuMinutes(nowMillis);
+        int elapsed = now >= minutes ? now - minutes : 0xffff - minutes + now;
+
+        int periods = elapsed / RedisConstants.LFU_DECAY_TIME;
+        return periods > counter ? 0 : counter - periods;
+    }
+
+    private static int lfuIncrement(int counter) {
+        if (counter == LFU_COUNTER_MAX) return counter;
+
+        int base = Math.max(0, counter - RedisConstants.LFU_INIT_VAL);
+        double probability = 1.0 / (base * RedisConstants.LFU_LOG_FACTOR + 1);
+        return ThreadLocalRandom.current().nextDouble() < probability ? counter + 1 : counter;
+    }
+}
@@ -0,0 +1,34 @@
+package com.redis.server.storage;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Pub/sub channel -> subscribed clients. Not part of the keyspace: with a sharded keyspace every
+// shard's DataStore shares one instance. Each client tracks its own channels in its ClientContext.
+public class ChannelRegistry {
+    private final ConcurrentHashMap<String, Map<Long, OutputStream>> channelClients = new ConcurrentHashMap<>();
+
+    public void subscribe(String channel, long clientId, OutputStream out) {
+        channelClients.computeIfAbsent(channel, k -> new ConcurrentHashMap<>()).putIfAbsent(clientId, out);
+    }
+
+    public void unsubscribe(String channel, long clientId) {
+        Map<Long, OutputStream> clients = channelClients.get(channel);
+        if (clients == null) return;
+
+        clients.remove(clientId);
+        if (clients.isEmpty()) channelClients.remove(channel, clients);
+    }
+
+    public int getSubscriberCount(String channel) {
+        return channelClients.getOrDefault(channel, Collections.emptyMap()).size();
+    }
+
+    public List<OutputStream> getSubscribers(String channel) {
+        return new ArrayList<>(channelClients.getOrDefault(channel, Collections.emptyMap()).values());
+    }
+}
@@ -1,239 +1,802 @@
 package com.redis.server.storage;
 
-import com.redis.server.model.QueuedCommand;
+import com.redis.server.RedisConstants;
+import com.redis.server.model.ByteString;
+import com.redis.server.model.RedisList;
+import com.redis.server.model.RedisObject;
 import com.redis.server.model.RedisSortedSet;
 import com.redis.server.model.RedisStream;
+import com.redis.server.model.ServerStats;
 import com.redis.server.model.SortedSetMember;
 
 import java.io.OutputStream;
+import java.lang.foreign.MemorySegment;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// The keyspace is only touched by its owning command executor thread, so it needs no locking.
+// Every key maps to one RedisObject carrying its type and expiry; the typed accessors throw
+// WrongTypeException when the key holds something else. Pub/sub subscriptions live in a
+// ChannelRegistry shared between shards.
+//
+// Keys live in one of several logical databases. Like Redis' c->db, the executor selects the calling
+// client's database before each command and every key operation works on that one.
+//
+// Expired keys are removed lazily when touched and by activeExpireCycle(), which samples the keys that
+// have a TTL in each database.
+//
+// The estimated size of every key and value is kept in datasetMemory. Strings are costed when stored;
+// lists, streams and sorted sets are mutated by the handlers after the accessor returns, so the ones
+// handed out are re-costed by updateMemoryUsage() once the command has run. The keyspace's own
+// structures (entries, bucket array, TTL index) follow from their sizes, so overhead is O(1) to compute.
+// Both are published to ServerStats after each command and expire cycle for INFO and MEMORY STATS.
+// Over maxmemory, evictOne() removes keys chosen by the policy from a pool of sampled candidates.
+//
+// With offheap-threshold set, string values at least that long are stored in their database's
+// SlabAllocator and the keyspace only holds a handle to them. Their slots count towards the dataset,
+// and so towards maxmemory, like heap bytes would.
 public class DataStore {
-    private final ConcurrentHashMap<String, String> store = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Long> expiry = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, List<String>> lists = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, RedisStream> streams = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Boolean> clientMultiStates = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Queue<QueuedCommand>> clientQueuedCommands = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, RedisSortedSet> zsets = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Map<String, Integer>> clientChannels = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Boolean> clientSubStates = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Map<String, OutputStream>> channelClients = new ConcurrentHashMap<>();
-    private final HashSet<String> allowedCommandsInSubMode = new HashSet<>() {
-        {
-            add("SUBSCRIBE");
-            add("UNSUBSCRIBE");
-            add("PSUBSCRIBE");
-            add("PUNSUBSCRIBE");
-            add("PING");
-            add("QUIT");
-        }
-    };
-
-    public void set(String key, String value) {
-        store.put(key, value);
-        expiry.remove(key);
-    }
-
-    public void set(String key, String value, long expiryTime) {
-        store.put(key, value);
-        expiry.put(key, expiryTime);
-    }
-
-    public List<String> getAllKeys(){
-        return new ArrayList<>(store.keySet());
-    }
-
-    public String getValue(String key) {
-        if (isExpired(key)) {
-            cleanupExpiredKey(key);
-            return null;
+    public static final long KEY_MISSING = -2;
+
+    private final ChannelRegistry channels;
+    private final ServerStats stats;
+    private final Database[] databases;
+    private Database db;
+    private int selectedIndex;
+    // Next database an expire cycle starts with, so a cycle that runs out of time doesn't starve the last ones
+    private int nextExpireDb;
+
+    // Estimated bytes used by keys and values
+    private long datasetMemory;
+    // Keyspace structures, summed over the databases again only after one may have changed size
+    private long keyspaceOverhead;
+    private long expiresOverhead;
+    private boolean overheadStale;
+    // What was last added to the server-wide totals in ServerStats
+    private long publishedDataset;
+    private long publishedKeyspaceOverhead;
+    private long publishedExpiresOverhead;
+    private long publishedKeys;
+    // Off-heap payload bytes and the slabs holding them, summed over the databases again when stale
+    private long offHeapUsed;
+    private long offHeapAllocated;
+    private boolean offHeapStale;
+    private long publishedOffHeapUsed;
+    private long publishedOffHeapAllocated;
+    // Strings this long or longer are stored off-heap, 0 for never
+    private long offHeapThreshold;
+    // Lists, streams and sorted sets returned to the running command, re-costed after it
+    private RedisObject[] accessedAggregates = new RedisObject[8];
+    private int accessedCount;
+
+    // This store's share of maxmemory, 0 for no limit
+    private long maxmemory;
+    private MaxmemoryPolicy policy = MaxmemoryPolicy.NOEVICTION;
+    private boolean lfu;
+    private Dict.Entry[] sampledEntries = new Dict.Entry[RedisConstants.DEFAULT_MAXMEMORY_SAMPLES];
+    private final EvictionPool evictionPool = new EvictionPool();
+    private int nextRandomEvictionDb;
+    private int lastEvictedDb;
+
+    public DataStore() {
+        this(new ChannelRegistry(), new ServerStats(), RedisConstants.DEFAULT_DATABASES);
+    }
+
+    public DataStore(ChannelRegistry channels, ServerStats stats, int databaseCount) {
+        this.channels = channels;
+        this.stats = stats;
+        this.databases = new Database[databaseCount];
+        for (int i = 0; i < databaseCount; i++) databases[i] = new Database();
+        this.db = databases[0];
+        this.overheadStale = true;
+    }
+
+    // ********************************************************* databases **********************************************************
+
+    public int getDatabaseCount() {
+        return databases.length;
+    }
+
+    // Makes index the database the following key operations work on
+    public void select(int index) {
+        selectedIndex = index;
+        db = databases[index];
+    }
+
+    public int getSelectedDb() {
+        return selectedIndex;
+    }
+
+    // SWAPDB: clients of either database see the other one's keys from their next command on
+    public void swapDatabases(int first, int second) {
+        Database swapped = databases[first];
+        databases[first] = databases[second];
+        databases[second] = swapped;
+        db = databases[selectedIndex];
+    }
+
+    // FLUSHDB: the database is replaced by an empty one. The old keyspace is only dropped, never walked:
+    // the JVM reclaims an unreachable structure without visiting its objects, whatever its size. Its
+    // off-heap values go with their slabs, in O(slabs).
+    public void flushDatabase(int index) {
+        Database flushed = databases[index];
+        datasetMemory -= flushed.datasetMemory;
+        if (flushed.offHeap != null) {
+            flushed.offHeap.close();
+            offHeapStale = true;
+        }
+        databases[index] = new Database();
+        db = databases[selectedIndex];
+        overheadStale = true;
+    }
+
+    public void flushAll() {
+        for (int i = 0; i < databases.length; i++) flushDatabase(i);
+    }
+
+    // MOVE: the key keeps its value and TTL. Returns false if it doesn't exist here or exists in the target.
+    public boolean moveKey(ByteString key, int targetIndex) {
+        Database source = db;
+        Database target = databases[targetIndex];
+        if (source == target) return false;
+
+        RedisObject object = lookup(key);
+        if (object == null) return false;
+
+        RedisObject existing = target.keyspace.get(key);
+        if (existing != null && !existing.isExpired(System.currentTimeMillis())) return false;
+
+        // An off-heap value is copied to the target's slabs, the source slot is freed by remove()
+        long moved = object.isOffHeap() ? target.offHeap().allocate(db.offHeap.payload(object.getOffHeapHandle())) : 0;
+        remove(key);
+        if (object.isOffHeap()) object.setOffHeapHandle(moved);
+        db = target;
+        try {
+            if (existing != null) {
+                remove(key);
+                stats.recordExpiredKey();
+            }
+            put(key, object);
+        } finally {
+            db = source;
         }
-        return store.get(key);
+        return true;
     }
 
-    public boolean hasKey(String key) {
-        if (isExpired(key)) {
-            cleanupExpiredKey(key);
-            return false;
+    // ********************************************************* keyspace **********************************************************
+
+    // Returns the live object for the key, removing it first if it has expired, and records the access
+    private RedisObject lookup(ByteString key) {
+        RedisObject object = db.keyspace.get(key);
+        if (object == null) return null;
+
+        long now = System.currentTimeMillis();
+        if (object.isExpired(now)) {
+            remove(key);
+            stats.recordExpiredKey();
+            return null;
+        }
+        AccessClock.touch(object, lfu, now);
+        return object;
+    }
+
+    // All keyspace writes go through put/remove so the TTL index and the memory estimate stay in sync
+    private void put(ByteString key, RedisObject object) {
+        object.setLru(AccessClock.initial(lfu, System.currentTimeMillis()));
+        object.setMemory(sizeOf(object, RedisConstants.MEMORY_ESTIMATE_SAMPLES));
+
+        long delta = object.getMemory();
+        RedisObject previous = db.keyspace.put(key, object);
+        if (previous != null) {
+            db.unindexExpiry(previous);
+            delta -= previous.getMemory();
+            previous.setMemory(-1);
+            releaseOffHeap(previous);
+        } else {
+            delta += MemoryEstimator.sizeOf(key);
+            overheadStale = true;
+        }
+        datasetMemory += delta;
+        db.datasetMemory += delta;
+        if (object.hasExpiry()) indexExpiry(key, object);
+    }
+
+    private RedisObject remove(ByteString key) {
+        RedisObject object = db.keyspace.remove(key);
+        if (object != null) {
+            db.unindexExpiry(object);
+            long size = MemoryEstimator.sizeOf(key) + object.getMemory();
+            datasetMemory -= size;
+            db.datasetMemory -= size;
+            object.setMemory(-1);
+            releaseOffHeap(object);
+            overheadStale = true;
         }
-        return store.containsKey(key);
+        return object;
     }
 
-    public List<String> getList(String key) {
-        return lists.get(key);
+    // Frees the off-heap bytes of a value leaving the keyspace or changing its encoding
+    private void releaseOffHeap(RedisObject object) {
+        if (!object.isOffHeap()) return;
+        db.offHeap.free(object.getOffHeapHandle());
+        offHeapStale = true;
     }
 
-    public void setList(String key, List<String> list) {
-        lists.put(key, list);
+    private long sizeOf(RedisObject object, int samples) {
+        long size = MemoryEstimator.sizeOf(object, samples);
+        return object.isOffHeap() ? size + db.offHeap.slotSize(object.getOffHeapHandle()) : size;
     }
 
-    public boolean hasListKey(String key) {
-        return lists.containsKey(key);
+    private void indexExpiry(ByteString key, RedisObject object) {
+        db.indexExpiry(key, object);
+        overheadStale = true;
     }
 
-    public RedisStream getStream(String key) {
-        return streams.get(key);
+    // Re-estimates a value changed in place; a no-op once it has left the keyspace. Only ever called for
+    // objects of the selected database.
+    private void recost(RedisObject object) {
+        if (object.getMemory() < 0) return;
+
+        long size = sizeOf(object, RedisConstants.MEMORY_ESTIMATE_SAMPLES);
+        datasetMemory += size - object.getMemory();
+        db.datasetMemory += size - object.getMemory();
+        object.setMemory(size);
     }
 
-    public void setStream(String key, RedisStream stream) {
-        streams.put(key, stream);
+    private void trackAccess(RedisObject object) {
+        if (accessedCount == accessedAggregates.length) {
+            accessedAggregates = Arrays.copyOf(accessedAggregates, accessedCount * 2);
+        }
+        accessedAggregates[accessedCount++] = object;
     }
 
-    public boolean hasStreamKey(String key) {
-        return streams.containsKey(key);
+    // Called after every command: accounts for what it did to the lists, streams and sorted sets it used
+    public void updateMemoryUsage() {
+        for (int i = 0; i < accessedCount; i++) {
+            recost(accessedAggregates[i]);
+            accessedAggregates[i] = null;
+        }
+        accessedCount = 0;
+        publishMemoryUsage();
+    }
+
+    // Keys and values plus the keyspace structures holding them
+    public long getUsedMemory() {
+        refreshOverhead();
+        return datasetMemory + keyspaceOverhead + expiresOverhead;
     }
 
-    private boolean isExpired(String key) {
-        Long expiryTime = expiry.get(key);
-        return expiryTime != null && System.currentTimeMillis() > expiryTime;
+    private void refreshOverhead() {
+        if (!overheadStale) return;
+
+        keyspaceOverhead = 0;
+        expiresOverhead = 0;
+        for (Database database : databases) {
+            keyspaceOverhead += database.keyspaceOverhead();
+            expiresOverhead += database.expiresOverhead();
+        }
+        overheadStale = false;
     }
 
-    private void cleanupExpiredKey(String key) {
-        store.remove(key);
-        expiry.remove(key);
+    private long totalKeys() {
+        long keys = 0;
+        for (Database database : databases) keys += database.keyspace.size();
+        return keys;
     }
 
-    public String getKeyType(String key) {
-        if (hasKey(key)) {
-            return "string";
-        } else if (hasStreamKey(key)) {
-            return "stream";
+    private void refreshOffHeap() {
+        if (!offHeapStale) return;
+
+        offHeapUsed = 0;
+        offHeapAllocated = 0;
+        for (Database database : databases) {
+            if (database.offHeap == null) continue;
+            offHeapUsed += database.offHeap.usedBytes();
+            offHeapAllocated += database.offHeap.allocatedBytes();
         }
-        return "none";
+        offHeapStale = false;
     }
 
-    public void putCommandInQueue(String clientId, List<String> command, OutputStream out) {
-        clientQueuedCommands.computeIfAbsent(clientId, k -> new LinkedList<>()).offer(new QueuedCommand(command, out));
+    // Hands ServerStats the change since the last call, so the server-wide totals stay O(1) to read
+    private void publishMemoryUsage() {
+        if (offHeapStale) {
+            refreshOffHeap();
+            stats.recordOffHeapUsage(offHeapUsed - publishedOffHeapUsed, offHeapAllocated - publishedOffHeapAllocated);
+            publishedOffHeapUsed = offHeapUsed;
+            publishedOffHeapAllocated = offHeapAllocated;
+        }
+        if (!overheadStale && datasetMemory == publishedDataset) return;
+
+        refreshOverhead();
+        long keys = totalKeys();
+        stats.recordMemoryUsage(datasetMemory - publishedDataset, keyspaceOverhead - publishedKeyspaceOverhead,
+                expiresOverhead - publishedExpiresOverhead, keys - publishedKeys);
+        publishedDataset = datasetMemory;
+        publishedKeyspaceOverhead = keyspaceOverhead;
+        publishedExpiresOverhead = expiresOverhead;
+        publishedKeys = keys;
+    }
+
+    // ********************************************************* active expire **********************************************************
+
+    // Redis-style adaptive cycle: test a batch of random keys with a TTL and delete the expired ones;
+    // keep going while more than the acceptable share of a batch was expired, then move on to the next
+    // database, until the time budget is spent
+    public void activeExpireCycle() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(RedisConstants.ACTIVE_EXPIRE_CYCLE_BUDGET);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean timeCapReached = false;
+        long sampledTotal = 0;
+        long expiredTotal = 0;
+        int iteration = 0;
+        Database selected = db;
+
+        try {
+            for (int d = 0; d < databases.length && !timeCapReached; d++) {
+                db = databases[nextExpireDb];
+                nextExpireDb = (nextExpireDb + 1) % databases.length;
+
+                while (db.volatileCount > 0) {
+                    long now = System.currentTimeMillis();
+                    int samples = Math.min(db.volatileCount, RedisConstants.ACTIVE_EXPIRE_KEYS_PER_LOOP);
+                    int expired = 0;
+
+                    for (int i = 0; i < samples; i++) {
+                        int slot = random.nextInt(db.volatileCount);
+                        if (db.volatileObjects[slot].isExpired(now)) {
+                            remove(db.volatileKeys[slot]);
+                            stats.recordExpiredKey();
+                            expired++;
+                        }
+                    }
+                    sampledTotal += samples;
+                    expiredTotal += expired;
+
+                    // Reading the clock is not free, check it every few batches
+                    if ((++iteration & 0xf) == 0 && System.nanoTime() > deadline) {
+                        timeCapReached = true;
+                        break;
+                    }
+                    if (expired * 100 <= samples * RedisConstants.ACTIVE_EXPIRE_ACCEPTABLE_STALE) break;
+                }
+            }
+        } finally {
+            db = selected;
+        }
+
+        double stalePercent = sampledTotal == 0 ? 0 : expiredTotal * 100.0 / sampledTotal;
+        stats.recordExpireCycle(System.nanoTime() - start, timeCapReached, stalePercent);
+        publishMemoryUsage();
     }
 
-    public boolean isMultiEnabled(String clientID) {
-        return clientMultiStates.getOrDefault(clientID, false);
+    // For the aggregate types, which the caller may modify
+    private Object lookup(ByteString key, RedisObject.Type type) {
+        RedisObject object = lookupObject(key, type);
+        if (object == null) return null;
+
+        trackAccess(object);
+        return object.getValue();
+    }
+
+    private RedisObject lookupObject(ByteString key, RedisObject.Type type) {
+        RedisObject object = lookup(key);
+        if (object != null && object.getType() != type) throw WrongTypeException.INSTANCE;
+        return object;
     }
 
-    public void enableMulti(String clientId) {
-        clientMultiStates.put(clientId, true);
-        clientQueuedCommands.computeIfAbsent(clientId, k -> new LinkedList<>());
+    // ********************************************************* keys **********************************************************
+
+    public boolean hasKey(ByteString key) {
+        return lookup(key) != null;
+    }
+
+    public boolean delete(ByteString key) {
+        RedisObject object = remove(key);
+        return object != null && !object.isExpired(System.currentTimeMillis());
+    }
+
+    // ********************************************************* expiry **********************************************************
+
+    // Absolute expiry time in ms, RedisObject.NO_EXPIRY without a TTL, or KEY_MISSING
+    public long getExpireAt(ByteString key) {
+        RedisObject object = lookup(key);
+        return object == null ? KEY_MISSING : object.getExpireAt();
     }
 
-    public void disableMulti(String clientId) {
-        clientMultiStates.put(clientId, false);
+    // Returns false if the key does not exist
+    public boolean setExpireAt(ByteString key, long expireAt) {
+        RedisObject object = lookup(key);
+        if (object == null) return false;
+
+        if (!object.hasExpiry()) indexExpiry(key, object);
+        object.setExpireAt(expireAt);
+        return true;
     }
 
-    public boolean hasQueuedCommand(String clientId){
-        Queue<QueuedCommand> queue = clientQueuedCommands.get(clientId);
-        return queue != null && !queue.isEmpty();
+    // Returns false if the key does not exist or has no TTL
+    public boolean persist(ByteString key) {
+        RedisObject object = lookup(key);
+        if (object == null || !object.hasExpiry()) return false;
+
+        db.unindexExpiry(object);
+        object.setExpireAt(RedisObject.NO_EXPIRY);
+        return true;
     }
 
-    public QueuedCommand pollQueuedCommand(String clientId){
-        Queue<QueuedCommand> queue = clientQueuedCommands.get(clientId);
-        return queue != null ? queue.poll() : null;
+    // MEMORY USAGE: the key, its value and its keyspace entry in bytes, or KEY_MISSING. Unlike other
+    // reads it leaves the access time alone, so inspecting a key doesn't save it from eviction.
+    public long getMemoryUsage(ByteString key, int samples) {
+        RedisObject object = db.keyspace.get(key);
+        if (object == null) return KEY_MISSING;
+        if (object.isExpired(System.currentTimeMillis())) {
+            remove(key);
+            stats.recordExpiredKey();
+            return KEY_MISSING;
+        }
+        return MemoryEstimator.keyOverhead(key) + sizeOf(object, samples);
     }
 
-    public int getQueuedCommandSize(String clientId){
-        Queue<QueuedCommand> queue = clientQueuedCommands.get(clientId);
-        return queue != null ? queue.size() : 0;
+    public String getKeyType(ByteString key) {
+        RedisObject object = lookup(key);
+        return object == null ? "none" : object.getType().getTypeName();
     }
 
-    public void discardQueuedCommands(String clientId) {
-        clientQueuedCommands.remove(clientId);
-        disableMulti(clientId);
+    // KEYS: the live keys matching the pattern, found while iterating instead of copied out of the
+    // keyspace. The result may be iterated more than once with the same outcome (it is evaluated against
+    // the time it was created), but nothing may modify the keyspace in the meantime.
+    public Iterable<ByteString> matchingKeys(GlobPattern pattern) {
+        long now = System.currentTimeMillis();
+        Dict keyspace = db.keyspace;
+
+        if (pattern.isLiteral()) {
+            ByteString key = pattern.literal();
+            RedisObject object = keyspace.get(key);
+            return object == null || object.isExpired(now) ? List.of() : List.of(key);
+        }
+
+        return () -> new Iterator<>() {
+            private final Iterator<Dict.Entry> entries = keyspace.iterator();
+            private ByteString next = advance();
+
+            private ByteString advance() {
+                while (entries.hasNext()) {
+                    Dict.Entry e = entries.next();
+                    if (!e.value.isExpired(now) && pattern.matches(e.key)) return e.key;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public ByteString next() {
+                if (next == null) throw new NoSuchElementException();
+                ByteString current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    // SCAN: walks buckets from cursor until about count keys were seen or count * 10 buckets were
+    // visited, adds the live ones passing the filters to keys (type null for any) and returns the cursor
+    // to continue from, 0 when done. Expired keys met on the way are deleted.
+    public long scan(long cursor, int count, GlobPattern pattern, RedisObject.Type type, List<ByteString> keys) {
+        List<Dict.Entry> visited = new ArrayList<>();
+        long maxBuckets = count * 10L;
+        do {
+            cursor = db.keyspace.scan(cursor, visited::add);
+        } while (cursor != 0 && --maxBuckets > 0 && visited.size() < count);
+
+        long now = System.currentTimeMillis();
+        for (Dict.Entry e : visited) {
+            if (e.value.isExpired(now)) {
+                remove(e.key);
+                stats.recordExpiredKey();
+            } else if ((type == null || e.value.getType() == type) && pattern.matches(e.key)) {
+                keys.add(e.key);
+            }
+        }
+        return cursor;
     }
 
-    // To remove client data when client disconnects
-    public void cleanupClient(String clientId) {
-        clientMultiStates.remove(clientId);
-        clientQueuedCommands.remove(clientId);
+    // ********************************************************* strings **********************************************************
+
+    public void configureOffHeap(long threshold) {
+        this.offHeapThreshold = threshold;
     }
 
-    public RedisSortedSet getSortedSet(String key) {
-        return zsets.get(key);
+    // A string object for the selected database, its bytes copied off-heap when long enough
+    private RedisObject createString(ByteString value) {
+        if (offHeapThreshold == 0 || value.length() < offHeapThreshold || value.isCanonicalLong()) {
+            return RedisObject.createString(value);
+        }
+        offHeapStale = true;
+        return RedisObject.createOffHeap(db.offHeap().allocate(value));
     }
 
-    public int addZsetMember(String key, SortedSetMember member) {
-        if(!zsets.containsKey(key)) zsets.put(key, new RedisSortedSet());
-        return zsets.get(key).addMember(member);
+    // The bytes of a string object of the selected database, copied to the heap if they live off it
+    private ByteString stringOf(RedisObject object) {
+        return object.isOffHeap() ? db.offHeap.read(object.getOffHeapHandle()) : object.getStringValue();
     }
 
-    public double getZsetMemberScore(String key, String member) {
-        return !zsets.containsKey(key) ? -1 : zsets.get(key).getScore(member);
+    // SET replaces whatever the key held, including its expiry
+    public void set(ByteString key, ByteString value) {
+        put(key, createString(value));
     }
 
-    public int getZsetMemberRank(String key, String member) {
-        if(!zsets.containsKey(key)) return -1;
-        return zsets.get(key).getRank(member);
+    public void set(ByteString key, ByteString value, long expiryTime) {
+        RedisObject object = createString(value);
+        object.setExpireAt(expiryTime);
+        put(key, object);
     }
 
-    public List<String> getZsetMembers(String key, int start, int end) {
-        if(!zsets.containsKey(key)) return new ArrayList<>();
-        return zsets.get(key).getMembersInRange(start, end);
+    // SET ... KEEPTTL
+    public void setKeepingTtl(ByteString key, ByteString value) {
+        RedisObject previous = lookup(key);
+        set(key, value, previous == null ? RedisObject.NO_EXPIRY : previous.getExpireAt());
     }
 
-    public int removeZsetMember(String key, String member){
-        return !zsets.containsKey(key) ? 0 : zsets.get(key).remove(member);
+    public ByteString getValue(ByteString key) {
+        RedisObject object = lookupObject(key, RedisObject.Type.STRING);
+        return object == null ? null : stringOf(object);
     }
 
-    public int getZsetMemberCount(String key) {
-        return !zsets.containsKey(key) ? 0 : zsets.get(key).size();
+    // GET: the string object, so an off-heap value can be written from getOffHeapValue() without a heap copy
+    public RedisObject getStringObject(ByteString key) {
+        return lookupObject(key, RedisObject.Type.STRING);
     }
 
-    public boolean hasZsetKey(String key) {
-        return zsets.containsKey(key);
+    // The bytes of an off-heap string of the selected database, in place. Only valid until the next write.
+    public MemorySegment getOffHeapValue(RedisObject object) {
+        return db.offHeap.payload(object.getOffHeapHandle());
     }
 
-    public void subscribeChannel(String clientId, String channel, OutputStream out){
-        if(!channelClients.containsKey(channel)) channelClients.put(channel, new HashMap<>());
-        Map<String, OutputStream> clients = channelClients.get(channel);
-        if(!clients.containsKey(clientId)) {
-            clients.put(clientId, out);
+    // INCRBY and friends. Updates the object in place, so the key keeps its TTL and an INT encoded
+    // counter costs no allocation. Throws NumberFormatException if the value is not an integer and
+    // ArithmeticException on overflow.
+    public long incrementBy(ByteString key, long delta) {
+        RedisObject object = lookupObject(key, RedisObject.Type.STRING);
+        if (object == null) {
+            put(key, RedisObject.createLong(delta));
+            return delta;
         }
 
-        if(!clientChannels.containsKey(clientId)) clientChannels.put(clientId, new HashMap<>());
-        Map<String, Integer> channels = clientChannels.get(clientId);
-        if(!channels.containsKey(channel)) {
-            channels.put(channel, channels.size()+1);
+        long current = object.isIntEncoded() ? object.getLongValue() : stringOf(object).parseLong();
+        long result = Math.addExact(current, delta);
+        boolean wasRaw = !object.isIntEncoded();
+        releaseOffHeap(object);
+        object.setLongValue(result);
+        if (wasRaw) recost(object);
+        return result;
+    }
+
+    // INCRBYFLOAT, returning the new value as stored. Throws NumberFormatException if the value is not a
+    // number and ArithmeticException if the result is NaN or infinite.
+    public ByteString incrementByFloat(ByteString key, double delta) {
+        RedisObject object = lookupObject(key, RedisObject.Type.STRING);
+        double current = 0;
+        if (object != null) current = object.isIntEncoded() ? object.getLongValue() : stringOf(object).parseDouble();
+
+        double result = current + delta;
+        if (Double.isNaN(result) || Double.isInfinite(result)) throw new ArithmeticException("NaN or Infinity");
+
+        ByteString value = ByteString.valueOf(result);
+        if (object == null) {
+            put(key, RedisObject.createString(value));
+        } else {
+            releaseOffHeap(object);
+            if (value.isCanonicalLong()) object.setLongValue(value.parseLong());
+            else object.setValue(value);
+            recost(object);
         }
+        return value;
     }
 
-    public int unsubscribeChannel(String clientId, String channel) {
-        int count = clientChannels.get(clientId).size();
+    // ********************************************************* lists **********************************************************
 
-        channelClients.get(channel).remove(clientId);
-        if(!clientChannels.get(clientId).containsKey(channel)) {
-            clientChannels.get(clientId).remove(channel);
-            return count;
+    public RedisList getList(ByteString key) {
+        return (RedisList) lookup(key, RedisObject.Type.LIST);
+    }
+
+    public RedisList getOrCreateList(ByteString key) {
+        RedisList list = getList(key);
+        if (list == null) {
+            list = new RedisList();
+            RedisObject object = new RedisObject(RedisObject.Type.LIST, list);
+            put(key, object);
+            trackAccess(object);
         }
+        return list;
+    }
 
-        return count - 1;
+    // An emptied list no longer exists
+    public void removeIfEmpty(ByteString key, RedisList list) {
+        if (list.isEmpty()) remove(key);
     }
 
-    public int getSubCount(String clientId, String channel){
-        return clientChannels.get(clientId).get(channel);
+    // ********************************************************* streams **********************************************************
+
+    public RedisStream getStream(ByteString key) {
+        return (RedisStream) lookup(key, RedisObject.Type.STREAM);
     }
 
-    public int getSubscribedClientsCount(String channel){
-        return channelClients.getOrDefault(channel, new HashMap<>()).size();
+    public void setStream(ByteString key, RedisStream stream) {
+        RedisObject object = new RedisObject(RedisObject.Type.STREAM, stream);
+        put(key, object);
+        trackAccess(object);
     }
 
-    public List<OutputStream> getSubscribedClients(String channel) {
-        Map<String, OutputStream> clients = channelClients.getOrDefault(channel, Collections.emptyMap());
-        return new ArrayList<>(clients.values());
+    // ********************************************************* sorted sets **********************************************************
+
+    public RedisSortedSet getSortedSet(ByteString key) {
+        return (RedisSortedSet) lookup(key, RedisObject.Type.ZSET);
     }
 
-    public boolean isClientSubscribed(String clientID) {
-        return clientSubStates.getOrDefault(clientID, false);
+    public int addZsetMember(ByteString key, SortedSetMember member) {
+        RedisSortedSet zset = getSortedSet(key);
+        if (zset == null) {
+            zset = new RedisSortedSet();
+            RedisObject object = new RedisObject(RedisObject.Type.ZSET, zset);
+            put(key, object);
+            trackAccess(object);
+        }
+        return zset.addMember(member);
     }
 
-    public void subscribeClient(String clientId) {
-        clientSubStates.put(clientId, true);
+    public double getZsetMemberScore(ByteString key, ByteString member) {
+        RedisSortedSet zset = getSortedSet(key);
+        return zset == null ? -1 : zset.getScore(member);
+    }
+
+    public int getZsetMemberRank(ByteString key, ByteString member) {
+        RedisSortedSet zset = getSortedSet(key);
+        return zset == null ? -1 : zset.getRank(member);
+    }
+
+    public List<ByteString> getZsetMembers(ByteString key, int start, int end) {
+        RedisSortedSet zset = getSortedSet(key);
+        return zset == null ? new ArrayList<>() : zset.getMembersInRange(start, end);
+    }
+
+    public int removeZsetMember(ByteString key, ByteString member) {
+        RedisSortedSet zset = getSortedSet(key);
+        if (zset == null) return 0;
+
+        int removed = zset.remove(member);
+        if (zset.size() == 0) remove(key);
+        return removed;
+    }
+
+    public int getZsetMemberCount(ByteString key) {
+        RedisSortedSet zset = getSortedSet(key);
+        return zset == null ? 0 : zset.size();
+    }
+
+    // ********************************************************* eviction **********************************************************
+
+    public void configureMaxmemory(long maxmemory, MaxmemoryPolicy policy, int samples) {
+        this.maxmemory = maxmemory;
+        this.policy = policy;
+        this.lfu = policy.isLfu();
+        this.sampledEntries = new Dict.Entry[samples];
     }
 
-    public void unsubscribeClient(String clientId) {
-        clientSubStates.put(clientId, false);
+    public boolean isOverMaxmemory() {
+        return maxmemory > 0 && getUsedMemory() > maxmemory;
     }
 
-    public boolean isAllowedInSubMode(String command){
-        return allowedCommandsInSubMode.contains(command);
+    // Removes one key chosen by the policy and returns it, or null when no key qualifies. The database
+    // it was in is then available from getLastEvictedDb().
+    public ByteString evictOne() {
+        if (policy == MaxmemoryPolicy.NOEVICTION) return null;
+
+        ByteString key = policy.isRandom() ? randomCandidate() : pooledCandidate();
+        if (key != null) {
+            Database selected = db;
+            db = databases[lastEvictedDb];
+            try {
+                remove(key);
+            } finally {
+                db = selected;
+            }
+            stats.recordEvictedKey();
+        }
+        return key;
+    }
+
+    public int getLastEvictedDb() {
+        return lastEvictedDb;
+    }
+
+    // A random key of the next database that has candidates, round-robin over the databases
+    private ByteString randomCandidate() {
+        for (int d = 0; d < databases.length; d++) {
+            int index = nextRandomEvictionDb;
+            Database database = databases[index];
+            nextRandomEvictionDb = (nextRandomEvictionDb + 1) % databases.length;
+
+            ByteString key = null;
+            if (policy.isVolatileOnly()) {
+                if (database.volatileCount > 0) {
+                    key = database.volatileKeys[ThreadLocalRandom.current().nextInt(database.volatileCount)];
+                }
+            } else if (database.keyspace.sample(sampledEntries, 1) > 0) {
+                key = sampledEntries[0].key;
+                sampledEntries[0] = null;
+            }
+
+            if (key != null) {
+                lastEvictedDb = index;
+                return key;
+            }
+        }
+        return null;
+    }
+
+    // Feeds a fresh sample of every database into the pool, then takes the best candidate that still qualifies
+    private ByteString pooledCandidate() {
+        long now = System.currentTimeMillis();
+        int samples = sampledEntries.length;
+
+        for (int index = 0; index < databases.length; index++) {
+            Database database = databases[index];
+            if (policy.isVolatileOnly()) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < samples && database.volatileCount > 0; i++) {
+                    int slot = random.nextInt(database.volatileCount);
+                    evictionPool.offer(database.volatileKeys[slot], index, evictionScore(database.volatileObjects[slot], now));
+                }
+            } else {
+                int sampled = database.keyspace.sample(sampledEntries, samples);
+                for (int i = 0; i < sampled; i++) {
+                    evictionPool.offer(sampledEntries[i].key, index, evictionScore(sampledEntries[i].value, now));
+                    sampledEntries[i] = null;
+                }
+            }
+        }
+
+        ByteString key;
+        while ((key = evictionPool.pollBest()) != null) {
+            int index = evictionPool.lastPolledDb();
+            RedisObject object = databases[index].keyspace.get(key);
+            if (object != null && (!policy.isVolatileOnly() || object.hasExpiry())) {
+                lastEvictedDb = index;
+                return key;
+            }
+        }
+        return null;
+    }
+
+    // Higher is evicted first
+    private long evictionScore(RedisObject object, long now) {
+        return switch (policy) {
+            case ALLKEYS_LFU, VOLATILE_LFU -> 255 - AccessClock.lfuDecayed(object.getLru(), now);
+            case VOLATILE_TTL -> Long.MAX_VALUE - object.getExpireAt();
+            default -> AccessClock.idleMillis(object.getLru(), now);
+        };
+    }
+
+    // ********************************************************* pub/sub **********************************************************
+
+    public void subscribeChannel(String channel, long clientId, OutputStream out) {
+        channels.subscribe(channel, clientId, out);
+    }
+
+    public void unsubscribeChannel(String channel, long clientId) {
+        channels.unsubscribe(channel, clientId);
+    }
+
+    public int getSubscribedClientsCount(String channel) {
+        return channels.getSubscriberCount(channel);
+    }
+
+    public List<OutputStream> getSubscribedClients(String channel) {
+        return channels.getSubscribers(channel);
     }
 }
@@ -0,0 +1,60 @@
+package com.redis.server.storage;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.model.ByteString;
+import com.redis.server.model.RedisObject;
+
+import java.util.Arrays;
+
+// One logical database (a SELECT index) of a shard: its keyspace and the dense index of its keys with a
+// TTL (the object remembers its slot, so a random sample costs O(1) per key). DataStore works on the
+// selected one; SWAPDB and FLUSHDB move or drop these objects whole, which is what makes them O(1).
+final class Database {
+    final Dict keyspace = new Dict();
+    ByteString[] volatileKeys = new ByteString[RedisConstants.EXPIRE_INDEX_INITIAL_CAPACITY];
+    RedisObject[] volatileObjects = new RedisObject[RedisConstants.EXPIRE_INDEX_INITIAL_CAPACITY];
+    int volatileCount;
+    // Estimated bytes of this database's keys and values, so dropping it adjusts the total in O(1)
+    long datasetMemory;
+    // Off-heap string values, created with the first one
+    SlabAllocator offHeap;
+
+    SlabAllocator offHeap() {
+        if (offHeap == null) offHeap = new SlabAllocator();
+        return offHeap;
+    }
+
+    void indexExpiry(ByteString key, RedisObject object) {
+        if (volatileCount == volatileKeys.length) {
+            volatileKeys = Arrays.copyOf(volatileKeys, volatileCount * 2);
+            volatileObjects = Arrays.copyOf(volatileObjects, volatileCount * 2);
+        }
+        volatileKeys[volatileCount] = key;
+        volatileObjects[volatileCount] = object;
+        object.setExpireSlot(volatileCount++);
+    }
+
+    // Moves the last indexed key into the freed slot
+    void unindexExpiry(RedisObject object) {
+        int slot = object.getExpireSlot();
+        if (slot < 0) return;
+
+        int last = --volatileCount;
+        if (slot != last) {
+            volatileKeys[slot] = volatileKeys[last];
+            volatileObjects[slot] = volatileObjects[last];
+            volatileObjects[slot].setExpireSlot(slot);
+        }
+        volatileKeys[last] = null;
+        volatileObjects[last] = null;
+        object.setExpireSlot(-1);
+    }
+
+    long keyspaceOverhead() {
+        return MemoryEstimator.hashTableOverhead(keyspace.size(), keyspace.capacity());
+    }
+
+    long expiresOverhead() {
+        return MemoryEstimator.expireIndexOverhead(volatileKeys.length);
+    }
+}
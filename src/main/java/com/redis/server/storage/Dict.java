@@ -0,0 +1,179 @@
+package com.redis.server.storage;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.model.ByteString;
+import com.redis.server.model.RedisObject;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+// Chained hash table holding one keyspace. java.util.HashMap has no way to reach a random entry, which
+// eviction needs to sample keys; here the buckets are an array we can walk from a random position, like
+// Redis' dictGetSomeKeys. The capacity is a power of two, doubled when there are as many entries as
+// buckets and halved when less than an eighth of it is used. Keys cache their hash, so entries don't.
+//
+// scan() walks the buckets with Redis' reverse-binary cursor: the cursor's bits are incremented from
+// the most significant end, so a bucket is always visited before the buckets its entries move to when
+// the table doubles or halves. Every key present for the whole scan is returned at least once, however
+// often the table resizes in between, and the cursor is just a number the client hands back.
+final class Dict {
+    static final class Entry {
+        final ByteString key;
+        RedisObject value;
+        Entry next;
+
+        Entry(ByteString key, RedisObject value, Entry next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    private Entry[] table = new Entry[RedisConstants.KEYSPACE_INITIAL_CAPACITY];
+    private int size;
+
+    private static int indexFor(ByteString key, int mask) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Number of buckets
+    int capacity() {
+        return table.length;
+    }
+
+    RedisObject get(ByteString key) {
+        for (Entry e = table[indexFor(key, table.length - 1)]; e != null; e = e.next) {
+            if (e.key.equals(key)) return e.value;
+        }
+        return null;
+    }
+
+    // Returns the value the key held before, or null
+    RedisObject put(ByteString key, RedisObject value) {
+        int index = indexFor(key, table.length - 1);
+        for (Entry e = table[index]; e != null; e = e.next) {
+            if (e.key.equals(key)) {
+                RedisObject previous = e.value;
+                e.value = value;
+                return previous;
+            }
+        }
+
+        table[index] = new Entry(key, value, table[index]);
+        if (++size > table.length) resize(table.length * 2);
+        return null;
+    }
+
+    RedisObject remove(ByteString key) {
+        int index = indexFor(key, table.length - 1);
+        Entry previous = null;
+        for (Entry e = table[index]; e != null; previous = e, e = e.next) {
+            if (!e.key.equals(key)) continue;
+
+            if (previous == null) table[index] = e.next;
+            else previous.next = e.next;
+            if (--size < table.length / 8 && table.length > RedisConstants.KEYSPACE_INITIAL_CAPACITY) resize(table.length / 2);
+            return e.value;
+        }
+        return null;
+    }
+
+    // Not safe against modification: nothing may be put or removed until the iteration is over
+    Iterator<Entry> iterator() {
+        return new Iterator<>() {
+            private int bucket;
+            private Entry next = advance(null);
+
+            private Entry advance(Entry current) {
+                if (current != null && current.next != null) return current.next;
+                while (bucket < table.length) {
+                    Entry head = table[bucket++];
+                    if (head != null) return head;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null) throw new NoSuchElementException();
+                Entry current = next;
+                next = advance(current);
+                return current;
+            }
+        };
+    }
+
+    // Passes the entries of the bucket at cursor to action and returns the cursor of the next bucket,
+    // 0 once the walk is complete
+    long scan(long cursor, Consumer<Entry> action) {
+        if (size == 0) return 0;
+
+        long mask = table.length - 1;
+        for (Entry e = table[(int) (cursor & mask)]; e != null; e = e.next) action.accept(e);
+
+        // Set the bits above the mask so the increment carries past them, then add one to the reversed cursor
+        cursor |= ~mask;
+        return Long.reverse(Long.reverse(cursor) + 1);
+    }
+
+    // Fills entries with up to count entries found by walking the buckets from a random one. Entries in the
+    // same neighbourhood are not independent samples, but the walk is O(count) instead of O(size). It
+    // hops elsewhere after a run of empty buckets and stops after 10 buckets per wanted entry, though
+    // never before finding at least one.
+    int sample(Entry[] entries, int count) {
+        count = Math.min(count, size);
+        if (count == 0) return 0;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int mask = table.length - 1;
+        int index = random.nextInt(table.length);
+        int found = 0;
+        int emptyRun = 0;
+
+        for (int steps = count * 10; (steps > 0 || found == 0) && found < count; steps--) {
+            Entry e = table[index];
+            if (e == null) {
+                if (++emptyRun >= 5 && emptyRun > count) {
+                    index = random.nextInt(table.length);
+                    emptyRun = 0;
+                    continue;
+                }
+            } else {
+                emptyRun = 0;
+                for (; e != null && found < count; e = e.next) entries[found++] = e;
+            }
+            index = (index + 1) & mask;
+        }
+        return found;
+    }
+
+    private void resize(int capacity) {
+        Entry[] old = table;
+        Entry[] resized = new Entry[capacity];
+        int mask = capacity - 1;
+
+        for (Entry head : old) {
+            Entry e = head;
+            while (e != null) {
+                Entry next = e.next;
+                int index = indexFor(e.key, mask);
+                e.next = resized[index];
+                resized[index] = e;
+                e = next;
+            }
+        }
+        table = resized;
+    }
+}
@@ -0,0 +1,72 @@
+package com.redis.server.storage;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.model.ByteString;
+
+// The best eviction candidates seen across sampling rounds, ordered by score (higher means a better
+// candidate: idle longer, used less, expiring sooner). Keeping them between rounds makes a few samples
+// per eviction approximate the true LRU/LFU order much better than evicting the best of each sample.
+// Entries may go stale as keys are deleted or rewritten, or their database is flushed or swapped; the
+// caller checks them when taking one.
+final class EvictionPool {
+    private final long[] scores = new long[RedisConstants.EVICTION_POOL_SIZE];
+    private final ByteString[] keys = new ByteString[RedisConstants.EVICTION_POOL_SIZE];
+    private final int[] dbs = new int[RedisConstants.EVICTION_POOL_SIZE];
+    private int count;
+    private int lastPolledDb;
+
+    void offer(ByteString key, int db, long score) {
+        int capacity = keys.length;
+        if (count == capacity && score <= scores[0]) return; // worse than everything kept
+
+        for (int i = 0; i < count; i++) {
+            if (dbs[i] == db && keys[i].equals(key)) {
+                if (scores[i] == score) return;
+                remove(i); // same key sampled again with an updated score
+                break;
+            }
+        }
+
+        // Find the insertion point that keeps the arrays sorted ascending
+        int position = 0;
+        while (position < count && scores[position] < score) position++;
+
+        if (count < capacity) {
+            System.arraycopy(scores, position, scores, position + 1, count - position);
+            System.arraycopy(keys, position, keys, position + 1, count - position);
+            System.arraycopy(dbs, position, dbs, position + 1, count - position);
+            count++;
+        } else {
+            // Full: drop the worst candidate at index 0
+            position--;
+            System.arraycopy(scores, 1, scores, 0, position);
+            System.arraycopy(keys, 1, keys, 0, position);
+            System.arraycopy(dbs, 1, dbs, 0, position);
+        }
+        scores[position] = score;
+        keys[position] = key;
+        dbs[position] = db;
+    }
+
+    // Removes and returns the best candidate, null when empty
+    ByteString pollBest() {
+        if (count == 0) return null;
+        ByteString key = keys[--count];
+        keys[count] = null;
+        lastPolledDb = dbs[count];
+        return key;
+    }
+
+    // The database of the key pollBest() returned last
+    int lastPolledDb() {
+        return lastPolledDb;
+    }
+
+    private void remove(int index) {
+        count--;
+        System.arraycopy(scores, index + 1, scores, index, count - index);
+        System.arraycopy(keys, index + 1, keys, index, count - index);
+        System.arraycopy(dbs, index + 1, dbs, index, count - index);
+        keys[count] = null;
+    }
+}
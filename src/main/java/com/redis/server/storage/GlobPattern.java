@@ -0,0 +1,131 @@
+package com.redis.server.storage;
+
+import com.redis.server.model.ByteString;
+
+// Glob-style pattern as KEYS and SCAN MATCH accept it, with Redis' stringmatch rules: '*' matches any
+// run of bytes, '?' any one byte, [abc] / [^abc] / [a-z] a byte from (or not from) a set, and '\'
+// escapes the next byte. Matching is byte-wise, so it works on binary keys.
+// A star only ever restarts from the position after the last one seen, which keeps matching
+// O(pattern * key) where a naive recursive matcher is exponential on patterns like "a*a*a*a*b".
+public final class GlobPattern {
+    private static final GlobPattern MATCH_ALL = new GlobPattern(new byte[]{'*'}, false);
+
+    private final byte[] pattern;
+    private final boolean literal;
+
+    private GlobPattern(byte[] pattern, boolean literal) {
+        this.pattern = pattern;
+        this.literal = literal;
+    }
+
+    public static GlobPattern compile(ByteString pattern) {
+        byte[] bytes = pattern.bytes();
+        if (bytes.length == 1 && bytes[0] == '*') return MATCH_ALL;
+
+        boolean literal = true;
+        for (byte b : bytes) {
+            if (b == '*' || b == '?' || b == '[' || b == '\\') {
+                literal = false;
+                break;
+            }
+        }
+        return new GlobPattern(bytes, literal);
+    }
+
+    public static GlobPattern matchAll() {
+        return MATCH_ALL;
+    }
+
+    public boolean isMatchAll() {
+        return this == MATCH_ALL;
+    }
+
+    // Without special characters the pattern can only match the key spelled the same way
+    public boolean isLiteral() {
+        return literal;
+    }
+
+    public ByteString literal() {
+        return ByteString.wrap(pattern);
+    }
+
+    public boolean matches(ByteString value) {
+        if (this == MATCH_ALL) return true;
+
+        byte[] text = value.bytes();
+        int length = pattern.length;
+        int p = 0;
+        int t = 0;
+        int starP = -1;
+        int starT = 0;
+
+        while (t < text.length) {
+            if (p < length && pattern[p] == '*') {
+                while (p < length && pattern[p] == '*') p++;
+                if (p == length) return true;
+                starP = p;
+                starT = t;
+                continue;
+            }
+
+            int next = p < length ? matchOne(p, text[t]) : -1;
+            if (next >= 0) {
+                p = next;
+                t++;
+            } else if (starP >= 0) {
+                // Let the last star swallow one more byte and retry the rest of the pattern
+                p = starP;
+                t = ++starT;
+            } else {
+                return false;
+            }
+        }
+
+        while (p < length && pattern[p] == '*') p++;
+        return p == length;
+    }
+
+    // Matches the single-byte token at p against c; returns the index after the token, or -1
+    private int matchOne(int p, byte c) {
+        int length = pattern.length;
+        switch (pattern[p]) {
+            case '?':
+                return p + 1;
+            case '\\':
+                if (p + 1 < length) return pattern[p + 1] == c ? p + 2 : -1;
+                return c == '\\' ? p + 1 : -1;
+            case '[':
+                return matchClass(p, c);
+            default:
+                return pattern[p] == c ? p + 1 : -1;
+        }
+    }
+
+    // An unterminated class ends with the pattern, as in Redis
+    private int matchClass(int p, byte c) {
+        int length = pattern.length;
+        int q = p + 1;
+        boolean negated = q < length && pattern[q] == '^';
+        if (negated) q++;
+
+        int value = c & 0xff;
+        boolean matched = false;
+        while (q < length && pattern[q] != ']') {
+            if (pattern[q] == '\\' && q + 1 < length) {
+                if (pattern[q + 1] == c) matched = true;
+                q += 2;
+            } else if (q + 2 < length && pattern[q + 1] == '-' && pattern[q + 2] != ']') {
+                int start = pattern[q] & 0xff;
+                int end = pattern[q + 2] & 0xff;
+                if (value >= Math.min(start, end) && value <= Math.max(start, end)) matched = true;
+                q += 3;
+            } else {
+                if (pattern[q] == c) matched = true;
+                q++;
+            }
+        }
+
+        int next = q < length ? q + 1 : q;
+        return matched != negated ? next : -1;
+    }
+}
@@ -0,0 +1,47 @@
+package com.redis.server.storage;
+
+// What to evict once the dataset is over maxmemory: any key or only keys with a TTL, chosen by
+// approximated LRU, LFU, nearest expiry or at random. NOEVICTION refuses commands that would grow it.
+public enum MaxmemoryPolicy {
+    NOEVICTION("noeviction", false),
+    ALLKEYS_LRU("allkeys-lru", false),
+    VOLATILE_LRU("volatile-lru", true),
+    ALLKEYS_LFU("allkeys-lfu", false),
+    VOLATILE_LFU("volatile-lfu", true),
+    ALLKEYS_RANDOM("allkeys-random", false),
+    VOLATILE_RANDOM("volatile-random", true),
+    VOLATILE_TTL("volatile-ttl", true);
+
+    private final String configName;
+    private final boolean volatileOnly;
+
+    MaxmemoryPolicy(String configName, boolean volatileOnly) {
+        this.configName = configName;
+        this.volatileOnly = volatileOnly;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    // Only keys with a TTL are candidates
+    public boolean isVolatileOnly() {
+        return volatileOnly;
+    }
+
+    // The per-key access field holds an LFU counter instead of an LRU clock
+    public boolean isLfu() {
+        return this == ALLKEYS_LFU || this == VOLATILE_LFU;
+    }
+
+    public boolean isRandom() {
+        return this == ALLKEYS_RANDOM || this == VOLATILE_RANDOM;
+    }
+
+    public static MaxmemoryPolicy fromName(String name) {
+        for (MaxmemoryPolicy policy : values()) {
+            if (policy.configName.equalsIgnoreCase(name)) return policy;
+        }
+        return null;
+    }
+}
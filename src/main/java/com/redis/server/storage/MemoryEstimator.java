@@ -0,0 +1,131 @@
+package com.redis.server.storage;
+
+import com.redis.server.model.ByteString;
+import com.redis.server.model.RedisList;
+import com.redis.server.model.RedisObject;
+import com.redis.server.model.RedisSortedSet;
+import com.redis.server.model.RedisStream;
+import com.redis.server.model.SortedSetMember;
+import com.redis.server.model.StreamEntry;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Estimated heap footprint of keys and values, from the 64-bit JVM object layout with compressed
+// references: 12-byte object headers, 16-byte array headers, 4-byte references, 8-byte alignment.
+// A collection is costed from its size and the average of its first few elements, as Redis' MEMORY
+// USAGE does, so an estimate is O(samples) whatever the size of the value.
+public final class MemoryEstimator {
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    private static final long BYTE_STRING = align(HEADER + REFERENCE + 4);
+    private static final long STRING = align(HEADER + REFERENCE + 4 + 2);
+    // type, encoding, value, access field, expiry slot, long value, expiry time, estimated size
+    private static final long REDIS_OBJECT = align(HEADER + 3 * REFERENCE + 4 + 4 + 3 * 8);
+    private static final long DICT_ENTRY = align(HEADER + 3 * REFERENCE);
+    private static final long ARRAY_LIST = align(HEADER + 4 + 4 + REFERENCE);
+    private static final long QUICKLIST = align(HEADER + 2 * REFERENCE + 8 + 4 + 2 * 8);
+    private static final long QUICKLIST_NODE = align(HEADER + 3 * REFERENCE + 3 * 4);
+    private static final long HASH_MAP = align(HEADER + 4 * REFERENCE + 3 * 4 + 4);
+    private static final long HASH_MAP_NODE = align(HEADER + 4 + 3 * REFERENCE);
+    private static final long TREE_SET = align(HEADER + REFERENCE) + align(HEADER + 4 * REFERENCE + 2 * 4 + REFERENCE);
+    private static final long TREE_MAP_ENTRY = align(HEADER + 5 * REFERENCE + 1);
+    private static final long BOXED_DOUBLE = align(HEADER + 8);
+    private static final long SORTED_SET = align(HEADER + 2 * REFERENCE);
+    private static final long SORTED_SET_MEMBER = align(HEADER + REFERENCE + 8);
+    private static final long STREAM = align(HEADER + REFERENCE);
+    private static final long STREAM_ENTRY = align(HEADER + 2 * REFERENCE + 2 * 8);
+
+    private MemoryEstimator() {
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static long referenceArray(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    // Bucket array of a HashMap holding size entries at the default load factor
+    private static long hashTable(int size) {
+        if (size == 0) return 0;
+        int buckets = Integer.highestOneBit(Math.max(1, (int) Math.ceil(size / 0.75)) * 2 - 1);
+        return referenceArray(buckets);
+    }
+
+    public static long sizeOf(ByteString value) {
+        return BYTE_STRING + align(ARRAY_HEADER + value.length());
+    }
+
+    // What a key adds to the keyspace besides its value: the key itself, its entry and its bucket slot
+    public static long keyOverhead(ByteString key) {
+        return DICT_ENTRY + REFERENCE + sizeOf(key);
+    }
+
+    // A Dict: one entry per key plus the bucket array
+    public static long hashTableOverhead(int size, int capacity) {
+        return size * DICT_ENTRY + referenceArray(capacity);
+    }
+
+    // The dense index of keys with a TTL: parallel key and object arrays
+    public static long expireIndexOverhead(int capacity) {
+        return 2 * referenceArray(capacity);
+    }
+
+    // The value with its object header. samples <= 0 walks every element.
+    public static long sizeOf(RedisObject object, int samples) {
+        long payload = switch (object.getType()) {
+            // Off-heap bytes are added by the DataStore owning them
+            case STRING -> object.getEncoding() != RedisObject.Encoding.RAW ? 0 : sizeOf((ByteString) object.getValue());
+            case LIST -> sizeOfList((RedisList) object.getValue());
+            case ZSET -> sizeOfSortedSet((RedisSortedSet) object.getValue(), samples);
+            case STREAM -> sizeOfStream((RedisStream) object.getValue(), samples);
+        };
+        return REDIS_OBJECT + payload;
+    }
+
+    // Exact, and still O(1): the list keeps count of its nodes and their arrays' bytes
+    private static long sizeOfList(RedisList list) {
+        return QUICKLIST + list.getNodeCount() * (QUICKLIST_NODE + ARRAY_HEADER) + list.getBufferBytes();
+    }
+
+    private static long sizeOfSortedSet(RedisSortedSet zset, int samples) {
+        int size = zset.size();
+        int sampled = 0;
+        long members = 0;
+        for (Iterator<SortedSetMember> it = zset.iterator(); it.hasNext() && (samples <= 0 || sampled < samples); sampled++) {
+            members += sizeOf(it.next().getMemberName());
+        }
+        if (sampled > 0) members = members * size / sampled;
+
+        // Each member sits in the score-ordered tree and in the member -> score map
+        long perMember = TREE_MAP_ENTRY + SORTED_SET_MEMBER + HASH_MAP_NODE + BOXED_DOUBLE;
+        return SORTED_SET + TREE_SET + HASH_MAP + hashTable(size) + size * perMember + members;
+    }
+
+    private static long sizeOfStream(RedisStream stream, int samples) {
+        List<StreamEntry> entries = stream.getEntries();
+        int size = entries.size();
+        int sampled = samples <= 0 ? size : Math.min(size, samples);
+
+        long total = 0;
+        for (int i = 0; i < sampled; i++) total += sizeOf(entries.get(i));
+        if (sampled > 0) total = total * size / sampled;
+
+        return STREAM + ARRAY_LIST + referenceArray(size) + total;
+    }
+
+    private static long sizeOf(StreamEntry entry) {
+        Map<ByteString, ByteString> fields = entry.getFields();
+        long size = STREAM_ENTRY + STRING + align(ARRAY_HEADER + entry.getId().length())
+                + HASH_MAP + hashTable(fields.size()) + fields.size() * HASH_MAP_NODE;
+        for (Map.Entry<ByteString, ByteString> field : fields.entrySet()) {
+            size += sizeOf(field.getKey()) + sizeOf(field.getValue());
+        }
+        return size;
+    }
+}
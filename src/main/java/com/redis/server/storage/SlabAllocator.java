@@ -0,0 +1,198 @@
+package com.redis.server.storage;
+
+import com.redis.server.RedisConstants;
+import com.redis.server.model.ByteString;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+// Off-heap home of one database's large string values, so the collector neither traces nor copies
+// their bytes. Values are packed into slabs by size class, four classes per power of two as in jemalloc;
+// a slot holds a 4-byte length and the bytes. A freed slot goes on its class's free list and is reused
+// by the next value of that class, so slabs are only given back when the whole allocator is closed
+// (FLUSHDB), in O(slabs). Values too big for the largest class get a segment of their own.
+// A value is known by a long handle: slab index and offset, or the complement of its segment's index.
+// Only the shard's executor ever touches a database, so the arenas are confined to it: freeing a segment
+// is then a plain release, without the handshake with every thread that closing a shared arena costs.
+final class SlabAllocator {
+    private static final int LENGTH_PREFIX = 4;
+    private static final int[] CLASS_SIZES = classSizes();
+
+    private final Arena arena = Arena.ofConfined();
+    private MemorySegment[] slabs = new MemorySegment[8];
+    private byte[] slabClasses = new byte[8];
+    private int slabCount;
+    // Per class: the slab being carved, the next unused offset in it, and the freed slots
+    private final int[] currentSlab = new int[CLASS_SIZES.length];
+    private final int[] nextOffset = new int[CLASS_SIZES.length];
+    private final long[][] freeSlots = new long[CLASS_SIZES.length][];
+    private final int[] freeCounts = new int[CLASS_SIZES.length];
+
+    // Dedicated segments, each in an arena of its own so it can be freed on its own
+    private MemorySegment[] large = new MemorySegment[4];
+    private Arena[] largeArenas = new Arena[4];
+    private int[] freeLarge = new int[4];
+    private int freeLargeCount;
+    private int largeCount;
+
+    // Bytes of the values themselves, and of the slabs and segments holding them
+    private long usedBytes;
+    private long allocatedBytes;
+
+    SlabAllocator() {
+        Arrays.fill(currentSlab, -1);
+    }
+
+    // 16, 20, 24, 28, 32, 40, ... up to the largest class
+    private static int[] classSizes() {
+        int[] sizes = new int[64];
+        int count = 0;
+        for (int base = RedisConstants.SLAB_MIN_CLASS; base < RedisConstants.SLAB_MAX_CLASS; base <<= 1) {
+            for (int step = 0; step < 4; step++) sizes[count++] = base + step * (base / 4);
+        }
+        sizes[count++] = RedisConstants.SLAB_MAX_CLASS;
+        return Arrays.copyOf(sizes, count);
+    }
+
+    long allocate(ByteString value) {
+        byte[] bytes = value.bytes();
+        long handle = reserve(bytes.length);
+        MemorySegment.copy(bytes, 0, payload(handle), ValueLayout.JAVA_BYTE, 0, bytes.length);
+        return handle;
+    }
+
+    // A copy of a value held by another allocator (MOVE)
+    long allocate(MemorySegment value) {
+        long handle = reserve(value.byteSize());
+        MemorySegment.copy(value, 0, payload(handle), 0, value.byteSize());
+        return handle;
+    }
+
+    private long reserve(long length) {
+        if (length + LENGTH_PREFIX > RedisConstants.SLAB_MAX_CLASS) return reserveLarge(length);
+
+        int sizeClass = classFor((int) length + LENGTH_PREFIX);
+        long handle = freeCounts[sizeClass] > 0 ? freeSlots[sizeClass][--freeCounts[sizeClass]] : carve(sizeClass);
+        slabs[slabOf(handle)].set(ValueLayout.JAVA_INT_UNALIGNED, offsetOf(handle), (int) length);
+        usedBytes += length;
+        return handle;
+    }
+
+    private static int classFor(int size) {
+        int index = Arrays.binarySearch(CLASS_SIZES, size);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private long carve(int sizeClass) {
+        int size = CLASS_SIZES[sizeClass];
+        int slab = currentSlab[sizeClass];
+        if (slab < 0 || nextOffset[sizeClass] + size > RedisConstants.SLAB_SIZE) {
+            slab = newSlab(sizeClass);
+            currentSlab[sizeClass] = slab;
+            nextOffset[sizeClass] = 0;
+        }
+
+        int offset = nextOffset[sizeClass];
+        nextOffset[sizeClass] += size;
+        return ((long) slab << 32) | offset;
+    }
+
+    private int newSlab(int sizeClass) {
+        if (slabCount == slabs.length) {
+            slabs = Arrays.copyOf(slabs, slabCount * 2);
+            slabClasses = Arrays.copyOf(slabClasses, slabCount * 2);
+        }
+        slabs[slabCount] = arena.allocate(RedisConstants.SLAB_SIZE, 8);
+        slabClasses[slabCount] = (byte) sizeClass;
+        allocatedBytes += RedisConstants.SLAB_SIZE;
+        return slabCount++;
+    }
+
+    private long reserveLarge(long length) {
+        int index;
+        if (freeLargeCount > 0) {
+            index = freeLarge[--freeLargeCount];
+        } else {
+            if (largeCount == large.length) {
+                large = Arrays.copyOf(large, largeCount * 2);
+                largeArenas = Arrays.copyOf(largeArenas, largeCount * 2);
+            }
+            index = largeCount++;
+        }
+
+        Arena segmentArena = Arena.ofConfined();
+        large[index] = segmentArena.allocate(length, 8);
+        largeArenas[index] = segmentArena;
+        usedBytes += length;
+        allocatedBytes += length;
+        return ~(long) index;
+    }
+
+    void free(long handle) {
+        if (handle < 0) {
+            int index = (int) ~handle;
+            long length = large[index].byteSize();
+            largeArenas[index].close();
+            large[index] = null;
+            largeArenas[index] = null;
+            if (freeLargeCount == freeLarge.length) freeLarge = Arrays.copyOf(freeLarge, freeLargeCount * 2);
+            freeLarge[freeLargeCount++] = index;
+            usedBytes -= length;
+            allocatedBytes -= length;
+            return;
+        }
+
+        int sizeClass = slabClasses[slabOf(handle)];
+        usedBytes -= length(handle);
+        long[] free = freeSlots[sizeClass];
+        if (free == null) free = freeSlots[sizeClass] = new long[16];
+        else if (freeCounts[sizeClass] == free.length) free = freeSlots[sizeClass] = Arrays.copyOf(free, free.length * 2);
+        free[freeCounts[sizeClass]++] = handle;
+    }
+
+    private int length(long handle) {
+        return slabs[slabOf(handle)].get(ValueLayout.JAVA_INT_UNALIGNED, offsetOf(handle));
+    }
+
+    // The value's bytes, in place
+    MemorySegment payload(long handle) {
+        if (handle < 0) return large[(int) ~handle];
+        return slabs[slabOf(handle)].asSlice(offsetOf(handle) + LENGTH_PREFIX, length(handle));
+    }
+
+    ByteString read(long handle) {
+        return ByteString.wrap(payload(handle).toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    // Off-heap bytes taken by the value: its slot, or its own segment
+    long slotSize(long handle) {
+        if (handle < 0) return large[(int) ~handle].byteSize();
+        return CLASS_SIZES[slabClasses[slabOf(handle)]];
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    // Frees every slab and segment; the handles given out are invalid afterwards
+    void close() {
+        arena.close();
+        for (int i = 0; i < largeCount; i++) {
+            if (largeArenas[i] != null) largeArenas[i].close();
+        }
+    }
+
+    private static int slabOf(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offsetOf(long handle) {
+        return (int) handle;
+    }
+}
@@ -0,0 +1,13 @@
+package com.redis.server.storage;
+
+// Thrown by the typed DataStore accessors when a key holds another type. CommandHandlers.call turns it
+// into a WRONGTYPE reply. Carries no stack trace, it is a normal outcome of a command.
+public class WrongTypeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    static final WrongTypeException INSTANCE = new WrongTypeException();
+
+    private WrongTypeException() {
+        super("WRONGTYPE", null, false, false);
+    }
+}
@@ -0,0 +1,125 @@
+package com.redis.server.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Small redis-benchmark style load generator for measuring pipelining throughput. It lives in the test
+// sources so it stays out of the server jar; after mvn test-compile:
+//   java -cp target/test-classes com.redis.server.benchmark.PipelineBenchmark -p 6379 -c 50 -n 1000000 -P 16 -t set
+// -r N spreads the clients over N distinct keys (client i uses key i % N) instead of one shared key.
+public class PipelineBenchmark {
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        int port = 6379;
+        int clients = 50;
+        int requests = 100000;
+        int pipeline = 1;
+        String test = "ping";
+        int keyspace = 0;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-h" -> host = args[i + 1];
+                case "-p" -> port = Integer.parseInt(args[i + 1]);
+                case "-c" -> clients = Integer.parseInt(args[i + 1]);
+                case "-n" -> requests = Integer.parseInt(args[i + 1]);
+                case "-P" -> pipeline = Integer.parseInt(args[i + 1]);
+                case "-t" -> test = args[i + 1].toLowerCase();
+                case "-r" -> keyspace = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        int perClient = requests / clients;
+        AtomicLong completed = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            String h = host;
+            int p = port;
+            int depth = pipeline;
+            byte[] request = buildRequest(test, keyspace > 0 ? ":" + (c % keyspace) : "");
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    completed.addAndGet(runClient(h, p, request, perClient, depth));
+                } catch (IOException e) {
+                    System.err.println("Benchmark client failed: " + e.getMessage());
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s: %.2f requests per second (%d requests, %d clients, pipeline %d, %.2fs)%n",
+                test.toUpperCase(), completed.get() / seconds, completed.get(), clients, pipeline, seconds);
+    }
+
+    private static long runClient(String host, int port, byte[] request, int total, int pipeline) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+
+            byte[] batch = new byte[request.length * pipeline];
+            for (int i = 0; i < pipeline; i++) System.arraycopy(request, 0, batch, i * request.length, request.length);
+
+            long done = 0;
+            while (done < total) {
+                int count = (int) Math.min(pipeline, total - done);
+                out.write(batch, 0, count * request.length);
+                out.flush();
+                for (int i = 0; i < count; i++) skipReply(in);
+                done += count;
+            }
+            return done;
+        }
+    }
+
+    private static byte[] buildRequest(String test, String keySuffix) {
+        String[] command = switch (test) {
+            case "set" -> new String[]{"SET", "bench:key" + keySuffix, "xxx"};
+            case "get" -> new String[]{"GET", "bench:key" + keySuffix};
+            case "incr" -> new String[]{"INCR", "bench:counter" + keySuffix};
+            case "lpush" -> new String[]{"LPUSH", "bench:list" + keySuffix, "xxx"};
+            default -> new String[]{"PING"};
+        };
+
+        StringBuilder sb = new StringBuilder("*").append(command.length).append("\r\n");
+        for (String arg : command) sb.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void skipReply(InputStream in) throws IOException {
+        int type = in.read();
+        long value = readLineNumber(in, type);
+        if (type == '$' && value >= 0) {
+            in.skipNBytes(value + 2);
+        } else if (type == '*') {
+            for (long i = 0; i < value; i++) skipReply(in);
+        }
+    }
+
+    // Consumes the rest of the line; returns its numeric value for length-prefixed replies
+    private static long readLineNumber(InputStream in, int type) throws IOException {
+        if (type == -1) throw new IOException("Connection closed by server");
+
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) throw new IOException("Connection closed by server");
+            if (b == '-') negative = true;
+            else if (b >= '0' && b <= '9') value = value * 10 + (b - '0');
+        }
+        in.read(); // '\n'
+        return (type == '$' || type == '*') ? (negative ? -value : value) : 0;
+    }
+}